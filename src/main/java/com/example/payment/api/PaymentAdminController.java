@@ -0,0 +1,73 @@
+package com.example.payment.api;
+
+import com.example.payment.api.dto.KeyRotationRequest;
+import com.example.payment.cache.LruCache;
+import com.example.payment.service.CardVaultService;
+import com.example.payment.service.PaymentBatchWriter;
+import com.example.payment.service.PaymentKeyRotationService;
+import jakarta.validation.Valid;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.net.URI;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/admin/payments")
+public class PaymentAdminController {
+
+    private final PaymentKeyRotationService keyRotationService;
+    private final CardVaultService cardVaultService;
+    private final PaymentReadCache readCache;
+    private final PaymentBatchWriter batchWriter;
+
+    public PaymentAdminController(PaymentKeyRotationService keyRotationService, CardVaultService cardVaultService,
+                                  PaymentReadCache readCache, PaymentBatchWriter batchWriter) {
+        this.keyRotationService = keyRotationService;
+        this.cardVaultService = cardVaultService;
+        this.readCache = readCache;
+        this.batchWriter = batchWriter;
+    }
+
+    @GetMapping("/group-commit/stats")
+    public ResponseEntity<PaymentBatchWriter.Stats> groupCommitStats() {
+        return ResponseEntity.ok(batchWriter.stats());
+    }
+
+    @GetMapping("/read-cache/stats")
+    public ResponseEntity<LruCache.Stats> readCacheStats() {
+        return ResponseEntity.ok(readCache.stats());
+    }
+
+    @GetMapping("/card-vault/stats")
+    public ResponseEntity<LruCache.Stats> cardVaultStats() {
+        return ResponseEntity.ok(cardVaultService.cacheStats());
+    }
+
+    @PostMapping("/key-rotations")
+    public ResponseEntity<PaymentKeyRotationService.Progress> startRotation(
+            @Valid @RequestBody(required = false) KeyRotationRequest req) {
+        PaymentKeyRotationService.Progress progress = keyRotationService.startRotation(
+                req != null ? req.getRatePerSecond() : null);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/admin/payments/key-rotations/" + progress.id()))
+                .body(progress);
+    }
+
+    @GetMapping("/key-rotations")
+    public ResponseEntity<List<PaymentKeyRotationService.Progress>> rotations() {
+        return ResponseEntity.ok(keyRotationService.rotations());
+    }
+
+    @GetMapping("/key-rotations/{id}")
+    public ResponseEntity<PaymentKeyRotationService.Progress> rotation(@PathVariable String id) {
+        PaymentKeyRotationService.Progress progress = keyRotationService.progress(id);
+        return progress != null ? ResponseEntity.ok(progress) : ResponseEntity.notFound().build();
+    }
+
+    @DeleteMapping("/key-rotations/{id}")
+    public ResponseEntity<PaymentKeyRotationService.Progress> cancelRotation(@PathVariable String id) {
+        PaymentKeyRotationService.Progress progress = keyRotationService.cancel(id);
+        return progress != null ? ResponseEntity.accepted().body(progress) : ResponseEntity.notFound().build();
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.payment.api;
+
+import com.example.payment.api.dto.BulkPaymentResult;
+import com.example.payment.api.dto.PaymentRequest;
+import com.example.payment.api.dto.PaymentResponse;
+import com.example.payment.domain.Payment;
+import com.example.payment.service.PaymentService;
+import com.example.payment.service.PaymentService.NewPayment;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming bulk creation of payments for {@code POST /api/payments/bulk}. The body, either
+ * newline-delimited JSON or one JSON array of {@link PaymentRequest}s, is parsed item by item;
+ * valid items are created in chunks of {@code payment.bulk.chunk-size} through
+ * {@link PaymentService#createPayments}, and one NDJSON result per item is written back as soon
+ * as its chunk is done, so neither the request nor the response is ever held in memory whole.
+ */
+@Component
+public class PaymentBulkIngestor {
+    private static final Logger log = LoggerFactory.getLogger(PaymentBulkIngestor.class);
+
+    private record Item(int index, PaymentRequest request, Map<String, String> errors) {
+    }
+
+    private final PaymentService paymentService;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter resultWriter;
+    private final Validator validator;
+    private final int chunkSize;
+    private final int maxItems;
+
+    public PaymentBulkIngestor(PaymentService paymentService,
+                               ObjectMapper objectMapper,
+                               Validator validator,
+                               @Value("${payment.bulk.chunk-size:500}") int chunkSize,
+                               @Value("${payment.bulk.max-items:100000}") int maxItems) {
+        if (chunkSize < 1 || maxItems < 1) {
+            throw new IllegalArgumentException("payment.bulk.chunk-size and max-items must be >= 1");
+        }
+        this.paymentService = paymentService;
+        this.objectMapper = objectMapper;
+        // Results are flushed once per chunk, not per line
+        this.resultWriter = objectMapper.writerFor(BulkPaymentResult.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("");
+        this.validator = validator;
+        this.chunkSize = chunkSize;
+        this.maxItems = maxItems;
+    }
+
+    public void ingest(InputStream in, OutputStream out) throws IOException {
+        try (JsonParser parser = objectMapper.createParser(in);
+             JsonGenerator gen = resultWriter.createGenerator(out)) {
+            List<Item> chunk = new ArrayList<>(chunkSize);
+            int index = 0;
+            try {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.START_ARRAY) {
+                    token = parser.nextToken();
+                }
+                // NDJSON is a sequence of root-level values, which the parser reads as such
+                while (token != null && token != JsonToken.END_ARRAY) {
+                    if (index == maxItems) {
+                        createChunk(chunk, gen);
+                        chunk.clear();
+                        write(gen, BulkPaymentResult.invalid(index, Map.of("body", "More than " + maxItems + " items")));
+                        break;
+                    }
+                    JsonNode node = parser.readValueAsTree();
+                    chunk.add(item(index++, node));
+                    if (chunk.size() == chunkSize) {
+                        createChunk(chunk, gen);
+                        chunk.clear();
+                    }
+                    token = parser.nextToken();
+                }
+            } catch (JsonProcessingException e) {
+                // The parser cannot resynchronize; report where the body broke and stop there
+                createChunk(chunk, gen);
+                chunk.clear();
+                write(gen, BulkPaymentResult.invalid(index, Map.of("body", "Malformed JSON: " + e.getOriginalMessage())));
+            }
+            createChunk(chunk, gen);
+        }
+    }
+
+    private Item item(int index, JsonNode node) {
+        PaymentRequest req;
+        try {
+            req = objectMapper.treeToValue(node, PaymentRequest.class);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            return new Item(index, null, Map.of("body", "Not a payment request"));
+        }
+        Map<String, String> errors = new HashMap<>();
+        for (ConstraintViolation<PaymentRequest> violation : validator.validate(req)) {
+            errors.put(violation.getPropertyPath().toString(), violation.getMessage());
+        }
+        return new Item(index, req, errors.isEmpty() ? null : errors);
+    }
+
+    private void createChunk(List<Item> chunk, JsonGenerator gen) throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<NewPayment> valid = new ArrayList<>(chunk.size());
+        for (Item item : chunk) {
+            if (item.errors() == null) {
+                PaymentRequest req = item.request();
+                valid.add(new NewPayment(req.getFirstName(), req.getLastName(), req.getZipCode(), req.getCardNumber()));
+            }
+        }
+        List<Payment> created = null;
+        if (!valid.isEmpty()) {
+            try {
+                created = paymentService.createPayments(valid);
+            } catch (RuntimeException e) {
+                log.error("Failed to create a chunk of {} bulk payments from item {}", valid.size(),
+                        chunk.getFirst().index(), e);
+            }
+        }
+        int next = 0;
+        for (Item item : chunk) {
+            if (item.errors() != null) {
+                write(gen, BulkPaymentResult.invalid(item.index(), item.errors()));
+            } else {
+                // Null where the chunk, or just this payment, could not be stored
+                Payment p = created != null ? created.get(next++) : null;
+                write(gen, p != null
+                        ? BulkPaymentResult.created(item.index(), PaymentResponse.from(p))
+                        : BulkPaymentResult.failed(item.index()));
+            }
+        }
+        gen.flush();
+    }
+
+    private void write(JsonGenerator gen, BulkPaymentResult result) throws IOException {
+        resultWriter.writeValue(gen, result);
+        gen.writeRaw('\n');
+    }
+}
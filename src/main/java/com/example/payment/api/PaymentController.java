@@ -1,33 +1,177 @@
 package com.example.payment.api;
 
+import com.example.payment.api.dto.BulkPaymentResult;
+import com.example.payment.api.dto.PaymentPageResponse;
 import com.example.payment.api.dto.PaymentRequest;
 import com.example.payment.api.dto.PaymentResponse;
 import com.example.payment.domain.Payment;
+import com.example.payment.repository.PaymentRepositoryCustom.PaymentFilter;
+import com.example.payment.service.PaymentIdempotencyService;
 import com.example.payment.service.PaymentService;
+import com.example.payment.service.PaymentService.NewPayment;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
 @RestController
 @RequestMapping("/api/payments")
 public class PaymentController {
 
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+    private static final int MAX_PAGE = 500;
+
     private final PaymentService paymentService;
+    private final PaymentReadCache readCache;
+    private final PaymentIdempotencyService idempotency;
+    private final PaymentBulkIngestor bulkIngestor;
+    private final ObjectWriter exportWriter;
+    private final long bulkTimeoutMs;
+    private final long exportTimeoutMs;
 
-    public PaymentController(PaymentService paymentService) {
+    public PaymentController(PaymentService paymentService, PaymentReadCache readCache,
+                             PaymentIdempotencyService idempotency, PaymentBulkIngestor bulkIngestor,
+                             ObjectMapper objectMapper,
+                             @Value("${payment.bulk.timeout-ms:1800000}") long bulkTimeoutMs,
+                             @Value("${payment.export.timeout-ms:1800000}") long exportTimeoutMs) {
+        if (bulkTimeoutMs < 1 || exportTimeoutMs < 1) {
+            throw new IllegalArgumentException("payment.bulk.timeout-ms and payment.export.timeout-ms must be >= 1");
+        }
         this.paymentService = paymentService;
+        this.readCache = readCache;
+        this.idempotency = idempotency;
+        this.bulkIngestor = bulkIngestor;
+        this.bulkTimeoutMs = bulkTimeoutMs;
+        this.exportTimeoutMs = exportTimeoutMs;
+        // Rows are written back to back; the servlet buffer decides when bytes go out
+        this.exportWriter = objectMapper.writerFor(PaymentResponse.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("");
     }
 
+    /**
+     * Creates a payment. With an {@code Idempotency-Key} header, repeats of the request answer
+     * with the payment the first one created, marked by {@code Idempotent-Replayed: true}.
+     */
     @PostMapping
     public ResponseEntity<PaymentResponse> create(@Valid @RequestBody PaymentRequest req,
+                                                  @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
                                                   UriComponentsBuilder uriBuilder) {
-        Payment p = paymentService.createPayment(req.getFirstName(), req.getLastName(), req.getZipCode(), req.getCardNumber());
-        PaymentResponse resp = PaymentResponse.from(p);
-        return ResponseEntity.created(uriBuilder.path("/api/payments/{id}").buildAndExpand(p.getId()).toUri())
-                .body(resp);
+        PaymentReadCache.Entry entry;
+        boolean replayed = false;
+        if (idempotencyKey == null) {
+            Payment p = paymentService.createPayment(req.getFirstName(), req.getLastName(), req.getZipCode(), req.getCardNumber());
+            entry = readCache.put(PaymentResponse.from(p));
+        } else {
+            PaymentIdempotencyService.Outcome outcome = idempotency.createPayment(idempotencyKey,
+                    new NewPayment(req.getFirstName(), req.getLastName(), req.getZipCode(), req.getCardNumber()));
+            replayed = outcome.replayed();
+            entry = replayed ? readCache.get(outcome.paymentId()) : readCache.put(PaymentResponse.from(outcome.created()));
+            if (entry == null) {
+                throw new IllegalStateException("Payment " + outcome.paymentId() + " of Idempotency-Key no longer exists");
+            }
+        }
+        ResponseEntity.BodyBuilder created = ResponseEntity
+                .created(uriBuilder.path("/api/payments/{id}").buildAndExpand(entry.response().getId()).toUri())
+                .eTag(entry.etag());
+        if (replayed) {
+            created.header(IDEMPOTENT_REPLAYED, "true");
+        }
+        return created.body(entry.response());
+    }
+
+    /**
+     * Creates the payments of an NDJSON or JSON array body and streams one
+     * {@link BulkPaymentResult} line per item back while the body is still being read. Runs
+     * asynchronously for at most {@code payment.bulk.timeout-ms}.
+     */
+    @PostMapping(path = "/bulk", consumes = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public WebAsyncTask<Void> bulkCreate(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        InputStream body = request.getInputStream();
+        return streaming(bulkTimeoutMs, response, out -> bulkIngestor.ingest(body, out));
+    }
+
+    @GetMapping
+    public ResponseEntity<PaymentPageResponse> list(@RequestParam(required = false) String lastName,
+                                                    @RequestParam(required = false) String zipCode,
+                                                    @RequestParam(required = false) String cursor,
+                                                    @RequestParam(defaultValue = "50") int limit) {
+        if (limit < 1 || limit > MAX_PAGE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE);
+        }
+        PaymentService.PaymentPage page = paymentService.listPayments(new PaymentFilter(lastName, zipCode), cursor, limit);
+        return ResponseEntity.ok(PaymentPageResponse.from(page));
+    }
+
+    /**
+     * Streams every matching payment as newline-delimited JSON straight from a database cursor,
+     * so memory use does not grow with the size of the export. Runs asynchronously for at most
+     * {@code payment.export.timeout-ms}.
+     */
+    @GetMapping("/export")
+    public WebAsyncTask<Void> export(@RequestParam(required = false) String lastName,
+                                     @RequestParam(required = false) String zipCode,
+                                     HttpServletResponse response) {
+        PaymentFilter filter = new PaymentFilter(lastName, zipCode);
+        return streaming(exportTimeoutMs, response, out -> {
+            try (Stream<Payment> payments = paymentService.streamPayments(filter);
+                 JsonGenerator gen = exportWriter.createGenerator(out)) {
+                Iterator<Payment> it = payments.iterator();
+                while (it.hasNext()) {
+                    exportWriter.writeValue(gen, PaymentResponse.from(it.next()));
+                    gen.writeRaw('\n');
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes an NDJSON response off the request thread under its own timeout, rather than the
+     * application-wide {@code spring.mvc.async.request-timeout}.
+     */
+    private static WebAsyncTask<Void> streaming(long timeoutMs, HttpServletResponse response, StreamingResponseBody body) {
+        return new WebAsyncTask<>(timeoutMs, () -> {
+            response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+            body.writeTo(response.getOutputStream());
+            response.flushBuffer();
+            return null;
+        });
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<PaymentResponse> get(@PathVariable String id, WebRequest request) {
+        PaymentReadCache.Entry entry = readCache.get(id);
+        if (entry == null) {
+            return ResponseEntity.notFound().build();
+        }
+        // Answers 304 when If-None-Match carries the current ETag
+        if (request.checkNotModified(entry.etag())) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(entry.etag()).body(entry.response());
     }
 }
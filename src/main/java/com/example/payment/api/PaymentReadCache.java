@@ -0,0 +1,63 @@
+package com.example.payment.api;
+
+import com.example.payment.api.dto.PaymentResponse;
+import com.example.payment.cache.LruCache;
+import com.example.payment.service.PaymentService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Read-through cache of payment responses and their ETags for {@code GET /api/payments/{id}},
+ * filled on creation as well. Payments are immutable, so the time to live
+ * ({@code payment.read-cache.ttl-ms}) only bounds how long an entry occupies memory; capacity is
+ * {@code payment.read-cache.size}. Unknown ids are not cached.
+ */
+@Component
+public class PaymentReadCache {
+
+    public record Entry(PaymentResponse response, String etag) {
+    }
+
+    private final PaymentService paymentService;
+    private final LruCache<String, Entry> entries;
+
+    public PaymentReadCache(PaymentService paymentService,
+                            @Value("${payment.read-cache.size:10000}") int size,
+                            @Value("${payment.read-cache.ttl-ms:300000}") long ttlMs) {
+        this.paymentService = paymentService;
+        this.entries = new LruCache<>(size, Duration.ofMillis(ttlMs));
+    }
+
+    /**
+     * @return the payment's response, or null if there is no such payment
+     */
+    public Entry get(String id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            entry = paymentService.findPayment(id).map(p -> put(PaymentResponse.from(p))).orElse(null);
+        }
+        return entry;
+    }
+
+    public Entry put(PaymentResponse response) {
+        Entry entry = new Entry(response, etag(response));
+        entries.put(response.getId(), entry);
+        return entry;
+    }
+
+    public LruCache.Stats stats() {
+        return entries.stats();
+    }
+
+    /**
+     * Strong ETag over every field of the response.
+     */
+    static String etag(PaymentResponse r) {
+        int hash = Objects.hash(r.getId(), r.getFirstName(), r.getLastName(), r.getZipCode(), r.getCardLast4(),
+                r.getCreatedAt());
+        return "\"" + Integer.toHexString(hash) + "\"";
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.payment.api;
+
+import com.example.payment.api.dto.DeadLetterReplayRequest;
+import com.example.payment.repository.WebhookEventRepositoryCustom.DeadLetterFilter;
+import com.example.payment.service.WebhookDispatcherService;
+import com.example.payment.service.WebhookRegistry;
+import com.example.payment.service.WebhookReplayService;
+import jakarta.validation.Valid;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/admin/webhooks")
+public class WebhookAdminController {
+
+    private static final int MAX_DEAD_LETTER_PAGE = 1000;
+
+    private final WebhookRegistry webhookRegistry;
+    private final WebhookDispatcherService webhookDispatcherService;
+    private final WebhookReplayService webhookReplayService;
+
+    public WebhookAdminController(WebhookRegistry webhookRegistry, WebhookDispatcherService webhookDispatcherService,
+                                  WebhookReplayService webhookReplayService) {
+        this.webhookRegistry = webhookRegistry;
+        this.webhookDispatcherService = webhookDispatcherService;
+        this.webhookReplayService = webhookReplayService;
+    }
+
+    @GetMapping("/registry/stats")
+    public ResponseEntity<WebhookRegistry.Stats> registryStats() {
+        return ResponseEntity.ok(webhookRegistry.stats());
+    }
+
+    @GetMapping("/dispatch/stats")
+    public ResponseEntity<WebhookDispatcherService.Stats> dispatchStats() {
+        return ResponseEntity.ok(webhookDispatcherService.stats());
+    }
+
+    @GetMapping("/dead-letters")
+    public ResponseEntity<WebhookReplayService.DeadLetterPage> deadLetters(
+            @RequestParam(required = false) String targetUrl,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "100") int limit) {
+        if (limit < 1 || limit > MAX_DEAD_LETTER_PAGE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_DEAD_LETTER_PAGE);
+        }
+        return ResponseEntity.ok(webhookReplayService.deadLetters(new DeadLetterFilter(targetUrl, from, to), after, limit));
+    }
+
+    @PostMapping("/dead-letters/replays")
+    public ResponseEntity<WebhookReplayService.Progress> startReplay(@Valid @RequestBody DeadLetterReplayRequest req) {
+        WebhookReplayService.Progress progress = webhookReplayService.startReplay(
+                new DeadLetterFilter(req.getTargetUrl(), req.getFrom(), req.getTo()), req.getRatePerSecond());
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/admin/webhooks/dead-letters/replays/" + progress.id()))
+                .body(progress);
+    }
+
+    @GetMapping("/dead-letters/replays")
+    public ResponseEntity<List<WebhookReplayService.Progress>> replays() {
+        return ResponseEntity.ok(webhookReplayService.replays());
+    }
+
+    @GetMapping("/dead-letters/replays/{id}")
+    public ResponseEntity<WebhookReplayService.Progress> replay(@PathVariable String id) {
+        WebhookReplayService.Progress progress = webhookReplayService.progress(id);
+        return progress != null ? ResponseEntity.ok(progress) : ResponseEntity.notFound().build();
+    }
+
+    @DeleteMapping("/dead-letters/replays/{id}")
+    public ResponseEntity<WebhookReplayService.Progress> cancelReplay(@PathVariable String id) {
+        WebhookReplayService.Progress progress = webhookReplayService.cancel(id);
+        return progress != null ? ResponseEntity.accepted().body(progress) : ResponseEntity.notFound().build();
+    }
+}
@@ -21,7 +21,7 @@ public class WebhookController {
 
     @PostMapping
     public ResponseEntity<WebhookRegistration> register(@Valid @RequestBody WebhookRegisterRequest req) {
-        WebhookRegistration reg = webhookService.register(req.getEndpointUrl());
+        WebhookRegistration reg = webhookService.register(req.getEndpointUrl(), req.getBatchSize(), req.getBatchLingerMs());
         return ResponseEntity.status(201).body(reg);
     }
 
@@ -0,0 +1,46 @@
+package com.example.payment.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * Outcome of one item of a bulk payment request, {@code index} counting items from 0.
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkPaymentResult {
+
+    public enum Status {
+        CREATED,
+        INVALID,
+        FAILED
+    }
+
+    private int index;
+    private Status status;
+    private PaymentResponse payment;
+    private Map<String, String> errors;
+
+    public static BulkPaymentResult created(int index, PaymentResponse payment) {
+        return of(index, Status.CREATED, payment, null);
+    }
+
+    public static BulkPaymentResult invalid(int index, Map<String, String> errors) {
+        return of(index, Status.INVALID, null, errors);
+    }
+
+    public static BulkPaymentResult failed(int index) {
+        return of(index, Status.FAILED, null, Map.of("payment", "Internal server error"));
+    }
+
+    private static BulkPaymentResult of(int index, Status status, PaymentResponse payment, Map<String, String> errors) {
+        BulkPaymentResult r = new BulkPaymentResult();
+        r.index = index;
+        r.status = status;
+        r.payment = payment;
+        r.errors = errors;
+        return r;
+    }
+}
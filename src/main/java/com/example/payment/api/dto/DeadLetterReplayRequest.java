@@ -0,0 +1,25 @@
+package com.example.payment.api.dto;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+@Setter
+@Getter
+public class DeadLetterReplayRequest {
+    // All optional; omitted filters match every dead letter
+    private String targetUrl;
+
+    // Bounds of the last attempt time, inclusive and exclusive
+    private Instant from;
+
+    private Instant to;
+
+    @Min(1)
+    @Max(10000)
+    private Integer ratePerSecond;
+
+}
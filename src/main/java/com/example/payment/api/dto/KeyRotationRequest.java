@@ -0,0 +1,16 @@
+package com.example.payment.api.dto;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import lombok.Getter;
+import lombok.Setter;
+
+@Setter
+@Getter
+public class KeyRotationRequest {
+    // Optional; payments re-encrypted per second
+    @Min(1)
+    @Max(100000)
+    private Integer ratePerSecond;
+
+}
@@ -0,0 +1,20 @@
+package com.example.payment.api.dto;
+
+import com.example.payment.service.PaymentService;
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+public class PaymentPageResponse {
+    private List<PaymentResponse> items;
+    // Null on the last page
+    private String nextCursor;
+
+    public static PaymentPageResponse from(PaymentService.PaymentPage page) {
+        PaymentPageResponse r = new PaymentPageResponse();
+        r.items = page.items().stream().map(PaymentResponse::from).toList();
+        r.nextCursor = page.nextCursor();
+        return r;
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.payment.api.dto;
 
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import lombok.Getter;
 import lombok.Setter;
@@ -10,4 +12,13 @@ public class WebhookRegisterRequest {
     @NotBlank
     private String endpointUrl;
 
+    // Optional; omitted values keep the registration's current setting
+    @Min(1)
+    @Max(1000)
+    private Integer batchSize;
+
+    @Min(0)
+    @Max(60000)
+    private Long batchLingerMs;
+
 }
@@ -0,0 +1,188 @@
+package com.example.payment.cache;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe bounded cache that evicts the least recently used entries and, optionally, entries
+ * older than a time to live; expired entries count as evictions. Entries are spread
+ * over up to 16 lock-striped segments, each an access-ordered {@link LinkedHashMap} with its
+ * share of the capacity, so concurrent callers rarely wait on each other; eviction is per
+ * segment, which approximates a global LRU. The locks never block on I/O, and are
+ * {@link ReentrantLock}s so waiting virtual threads do not pin their carrier.
+ */
+public class LruCache<K, V> {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    public record Stats(long hits, long misses, long evictions, int size, int capacity) {
+    }
+
+    private final Segment<K, V>[] segments;
+    private final int mask;
+    private final int capacity;
+    private final long ttlNanos;
+    private final LongSupplier nanoTime;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity maximum number of entries, at least 1
+     */
+    public LruCache(int capacity) {
+        this(capacity, null, System::nanoTime);
+    }
+
+    /**
+     * @param capacity   maximum number of entries, at least 1
+     * @param timeToLive how long an entry stays after it was put
+     */
+    public LruCache(int capacity, Duration timeToLive) {
+        this(capacity, timeToLive, System::nanoTime);
+    }
+
+    @SuppressWarnings("unchecked")
+    LruCache(int capacity, Duration timeToLive, LongSupplier nanoTime) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        if (timeToLive != null && !timeToLive.isPositive()) {
+            throw new IllegalArgumentException("timeToLive must be positive");
+        }
+        this.ttlNanos = timeToLive != null ? timeToLive.toNanos() : 0;
+        this.nanoTime = nanoTime;
+        int count = Integer.highestOneBit(Math.min(MAX_SEGMENTS, capacity));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // Spread the remainder so the segments add up to exactly the capacity
+            segments[i] = new Segment<>(capacity / count + (i < capacity % count ? 1 : 0), evictions);
+        }
+        this.mask = count - 1;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the cached value, or null if there is none
+     */
+    public V get(K key) {
+        V value = segmentOf(key).get(key, ttlNanos > 0 ? nanoTime.getAsLong() : 0);
+        (value != null ? hits : misses).increment();
+        return value;
+    }
+
+    public void put(K key, V value) {
+        segmentOf(key).put(key, value, ttlNanos > 0 ? nanoTime.getAsLong() + ttlNanos : 0);
+    }
+
+    public void invalidate(K key) {
+        segmentOf(key).remove(key);
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size(), capacity);
+    }
+
+    private Segment<K, V> segmentOf(K key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * @param expiresAt {@link System#nanoTime()} after which the entry is gone; 0 for never
+     */
+    private record Entry<V>(V value, long expiresAt) {
+    }
+
+    private static final class Segment<K, V> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<K, Entry<V>> map;
+        private final LongAdder evictions;
+
+        Segment(int capacity, LongAdder evictions) {
+            this.evictions = evictions;
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        V get(K key, long now) {
+            lock.lock();
+            try {
+                Entry<V> entry = map.get(key);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.expiresAt != 0 && now - entry.expiresAt >= 0) {
+                    map.remove(key);
+                    evictions.increment();
+                    return null;
+                }
+                return entry.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(K key, V value, long expiresAt) {
+            lock.lock();
+            try {
+                map.put(key, new Entry<>(value, expiresAt));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(K key) {
+            lock.lock();
+            try {
+                map.remove(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                map.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return map.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
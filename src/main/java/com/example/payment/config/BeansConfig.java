@@ -1,18 +1,59 @@
 package com.example.payment.config;
 
+import com.example.payment.security.CardFingerprinter;
 import com.example.payment.security.EncryptionService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Configuration
 public class BeansConfig {
 
-    @Value("${ENCRYPTION_KEY}")
+    // Key 0: the original single key, which also reads legacy string ciphertexts
+    @Value("${ENCRYPTION_KEY:}")
     private String encryptionKey;
 
+    // Further keys as id:base64Key pairs, comma separated, e.g. 1:AbC...=,2:XyZ...=
+    @Value("${ENCRYPTION_KEYS:}")
+    private String encryptionKeys;
+
+    @Value("${ENCRYPTION_ACTIVE_KEY_ID:0}")
+    private int activeKeyId;
+
+    @Value("${CARD_FINGERPRINT_KEY}")
+    private String cardFingerprintKey;
+
     @Bean
     public EncryptionService encryptionService() {
-        return new EncryptionService(encryptionKey);
+        return new EncryptionService(keyring(encryptionKey, encryptionKeys), activeKeyId);
+    }
+
+    @Bean
+    public CardFingerprinter cardFingerprinter() {
+        return new CardFingerprinter(cardFingerprintKey);
+    }
+
+    static Map<Integer, String> keyring(String legacyKey, String keys) {
+        Map<Integer, String> keyring = new HashMap<>();
+        if (!legacyKey.isBlank()) {
+            keyring.put(EncryptionService.DEFAULT_KEY_ID, legacyKey.trim());
+        }
+        for (String entry : keys.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int sep = entry.indexOf(':');
+            if (sep < 0) {
+                throw new IllegalArgumentException("ENCRYPTION_KEYS entries must be id:base64Key");
+            }
+            int id = Integer.parseInt(entry.substring(0, sep).trim());
+            if (keyring.put(id, entry.substring(sep + 1).trim()) != null) {
+                throw new IllegalArgumentException("Duplicate encryption key id " + id);
+            }
+        }
+        return keyring;
     }
 }
@@ -0,0 +1,211 @@
+package com.example.payment.config;
+
+import com.example.payment.domain.CardToken;
+import com.example.payment.domain.IdempotencyKey;
+import com.example.payment.domain.Payment;
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookStatus;
+import com.example.payment.repository.WebhookEventRepository;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Creates the indexes behind the hot queries at startup instead of relying on
+ * {@code @Indexed} auto-creation, and logs the plan of the dispatcher's due-event query.
+ */
+@Component
+public class MongoIndexInitializer {
+    private static final Logger log = LoggerFactory.getLogger(MongoIndexInitializer.class);
+
+    static final String DUE_COMPOUND_INDEX = "due_status_nextAttemptAt";
+    static final String DUE_PARTIAL_INDEX = "due_status_nextAttemptAt_partial";
+    static final String LEASE_INDEX = "lease_status_leaseExpiresAt";
+    static final String LEASE_TOKEN_INDEX = "lease_token";
+    static final String DEAD_LETTER_INDEX = "dead_letter_status_id";
+    static final String RETENTION_INDEX = "retention_status_completedAt";
+    static final String PAYLOAD_REF_INDEX = "payload_ref";
+    static final String CARD_FINGERPRINT_INDEX = "card_fingerprint";
+    static final String PAYMENT_LIST_INDEX = "payments_createdAt_id";
+    static final String PAYMENT_LAST_NAME_INDEX = "payments_lastName_createdAt_id";
+    static final String PAYMENT_ZIP_CODE_INDEX = "payments_zipCode_createdAt_id";
+    static final String IDEMPOTENCY_TTL_INDEX = "idempotency_createdAt_ttl";
+    // Single-field index created by the former @Indexed on nextAttemptAt
+    static final String LEGACY_NEXT_ATTEMPT_INDEX = "nextAttemptAt";
+
+    /**
+     * COMPOUND indexes every event on (status, nextAttemptAt); PARTIAL only indexes events that
+     * still have a nextAttemptAt, i.e. non-terminal ones, so the index stays proportional to
+     * pending work.
+     */
+    enum DueIndexStrategy {
+        COMPOUND,
+        PARTIAL
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final WebhookEventRepository webhookEventRepository;
+    private final DueIndexStrategy strategy;
+    private final boolean explainOnStartup;
+    private final int batchSize;
+    private final Duration idempotencyTtl;
+
+    public MongoIndexInitializer(MongoTemplate mongoTemplate,
+                                 WebhookEventRepository webhookEventRepository,
+                                 @Value("${webhook.index.strategy:partial}") String strategy,
+                                 @Value("${webhook.index.explain-on-startup:true}") boolean explainOnStartup,
+                                 @Value("${webhook.dispatch.batch-size:100}") int batchSize,
+                                 @Value("${payment.idempotency.ttl-ms:86400000}") long idempotencyTtlMs) {
+        this.mongoTemplate = mongoTemplate;
+        this.webhookEventRepository = webhookEventRepository;
+        this.strategy = DueIndexStrategy.valueOf(strategy.trim().toUpperCase(Locale.ROOT));
+        this.explainOnStartup = explainOnStartup;
+        this.batchSize = batchSize;
+        this.idempotencyTtl = Duration.ofMillis(idempotencyTtlMs);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        ensureWebhookEventIndexes();
+        ensureCardVaultIndexes();
+        ensurePaymentIndexes();
+        ensureIdempotencyKeyIndexes();
+        if (explainOnStartup) {
+            checkDueQueryPlan();
+        }
+    }
+
+    void ensureWebhookEventIndexes() {
+        IndexOperations ops = mongoTemplate.indexOps(WebhookEvent.class);
+        List<String> existing = ops.getIndexInfo().stream().map(IndexInfo::getName).toList();
+
+        Index due = new Index().on("status", Sort.Direction.ASC).on("nextAttemptAt", Sort.Direction.ASC);
+        String obsolete;
+        if (strategy == DueIndexStrategy.PARTIAL) {
+            due.named(DUE_PARTIAL_INDEX).partial(PartialIndexFilter.of(Criteria.where("nextAttemptAt").exists(true)));
+            obsolete = DUE_COMPOUND_INDEX;
+        } else {
+            due.named(DUE_COMPOUND_INDEX);
+            obsolete = DUE_PARTIAL_INDEX;
+        }
+        ops.createIndex(due);
+
+        // Lease fields only exist while an event is IN_FLIGHT, so these stay tiny
+        ops.createIndex(new Index().on("status", Sort.Direction.ASC).on("leaseExpiresAt", Sort.Direction.ASC)
+                .named(LEASE_INDEX)
+                .partial(PartialIndexFilter.of(Criteria.where("leaseExpiresAt").exists(true))));
+        ops.createIndex(new Index().on("leaseToken", Sort.Direction.ASC)
+                .named(LEASE_TOKEN_INDEX)
+                .partial(PartialIndexFilter.of(Criteria.where("leaseToken").exists(true))));
+        // Dead-letter listing and replay page through FAILED events in id order
+        ops.createIndex(new Index().on("status", Sort.Direction.ASC).on("_id", Sort.Direction.ASC)
+                .named(DEAD_LETTER_INDEX)
+                .partial(PartialIndexFilter.of(Criteria.where("status").is(WebhookStatus.FAILED.name()))));
+        // Retention purge: oldest terminal events first; only terminal events carry completedAt
+        ops.createIndex(new Index().on("status", Sort.Direction.ASC).on("completedAt", Sort.Direction.ASC)
+                .named(RETENTION_INDEX)
+                .partial(PartialIndexFilter.of(Criteria.where("completedAt").exists(true))));
+        // Lets the purge tell orphaned payloads apart; legacy inline-payload events are left out
+        ops.createIndex(new Index().on("payloadId", Sort.Direction.ASC)
+                .named(PAYLOAD_REF_INDEX)
+                .partial(PartialIndexFilter.of(Criteria.where("payloadId").exists(true))));
+
+        for (String name : List.of(obsolete, LEGACY_NEXT_ATTEMPT_INDEX)) {
+            if (existing.contains(name)) {
+                log.info("Dropping superseded index {} on webhook_events", name);
+                ops.dropIndex(name);
+            }
+        }
+        log.info("webhook_events indexes ensured (due-event strategy: {})", strategy);
+    }
+
+    void ensureCardVaultIndexes() {
+        // One token per card: concurrent first payments with the same card collide here
+        mongoTemplate.indexOps(CardToken.class).createIndex(new Index().on("fingerprint", Sort.Direction.ASC)
+                .named(CARD_FINGERPRINT_INDEX)
+                .unique());
+        log.info("card_vault indexes ensured");
+    }
+
+    void ensurePaymentIndexes() {
+        // Listing pages through (createdAt, _id) descending; each filter leads its own index
+        IndexOperations ops = mongoTemplate.indexOps(Payment.class);
+        ops.createIndex(newestFirst(new Index()).named(PAYMENT_LIST_INDEX));
+        ops.createIndex(newestFirst(new Index().on("lastName", Sort.Direction.ASC)).named(PAYMENT_LAST_NAME_INDEX));
+        ops.createIndex(newestFirst(new Index().on("zipCode", Sort.Direction.ASC)).named(PAYMENT_ZIP_CODE_INDEX));
+        log.info("payments indexes ensured");
+    }
+
+    void ensureIdempotencyKeyIndexes() {
+        // Uniqueness comes with _id, the key itself; Mongo expires keys in its background pass
+        IndexOperations ops = mongoTemplate.indexOps(IdempotencyKey.class);
+        ops.createIndex(new Index().on("createdAt", Sort.Direction.ASC).expire(idempotencyTtl).named(IDEMPOTENCY_TTL_INDEX));
+        log.info("payment_idempotency_keys indexes ensured");
+    }
+
+    private static Index newestFirst(Index index) {
+        return index.on("createdAt", Sort.Direction.DESC).on("_id", Sort.Direction.DESC);
+    }
+
+    void checkDueQueryPlan() {
+        try {
+            Document explain = webhookEventRepository.explainDueQuery(Instant.now(), batchSize);
+            Document winning = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+            List<String> stages = planStages(winning);
+            if (stages.contains("COLLSCAN") || stages.contains("SORT")) {
+                log.warn("Due-event query is not an index range scan; plan: {}", String.join(" <- ", stages));
+            } else {
+                log.info("Due-event query plan: {}", String.join(" <- ", stages));
+            }
+        } catch (Exception e) {
+            log.warn("Could not explain due-event query: {}", e.toString());
+        }
+    }
+
+    /**
+     * Flattens a winning plan into its stage names, root first.
+     */
+    static List<String> planStages(Document plan) {
+        List<String> stages = new ArrayList<>();
+        collectStages(plan, stages);
+        return stages;
+    }
+
+    private static void collectStages(Document plan, List<String> stages) {
+        if (plan == null) {
+            return;
+        }
+        // Plans from the slot-based engine nest the classic plan under queryPlan
+        Document queryPlan = plan.get("queryPlan", Document.class);
+        if (queryPlan != null) {
+            collectStages(queryPlan, stages);
+            return;
+        }
+        String stage = plan.getString("stage");
+        if (stage != null) {
+            stages.add(stage);
+        }
+        collectStages(plan.get("inputStage", Document.class), stages);
+        List<Document> inputs = plan.getList("inputStages", Document.class);
+        if (inputs != null) {
+            inputs.forEach(input -> collectStages(input, stages));
+        }
+    }
+}
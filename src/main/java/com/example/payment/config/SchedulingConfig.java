@@ -0,0 +1,13 @@
+package com.example.payment.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Kept apart from the application class so web-slice tests, which mock the scheduled services,
+ * do not start the schedulers.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,48 @@
+package com.example.payment.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Compact record of a purged terminal {@link WebhookEvent}: its outcome without payload or
+ * dispatch bookkeeping.
+ */
+@Setter
+@Getter
+@Document("webhook_events_archive")
+public class ArchivedWebhookEvent {
+    @Id
+    private String id;
+
+    private String targetUrl;
+
+    private WebhookStatus status;
+
+    private int attempts;
+
+    private int replays;
+
+    private String lastError;
+
+    private Instant createdAt;
+
+    private Instant completedAt;
+
+    public static ArchivedWebhookEvent from(WebhookEvent ev) {
+        ArchivedWebhookEvent a = new ArchivedWebhookEvent();
+        a.id = ev.getId();
+        a.targetUrl = ev.getTargetUrl();
+        a.status = ev.getStatus();
+        a.attempts = ev.getAttempts();
+        a.replays = ev.getReplays();
+        a.lastError = ev.getLastError();
+        a.createdAt = ev.getCreatedAt();
+        a.completedAt = ev.getCompletedAt();
+        return a;
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.example.payment.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * A card number stored once in the vault, however many payments reference it through
+ * {@link Payment#getCardTokenId()}.
+ */
+@Setter
+@Getter
+@Document("card_vault")
+public class CardToken {
+    @Id
+    private String id;
+
+    // Keyed HMAC of the card number; unique, see MongoIndexInitializer
+    private String fingerprint;
+
+    // AES-GCM binary ciphertext (version | key id | IV | ciphertext+tag) and the id of its key
+    private byte[] cardCiphertext;
+
+    private Integer cardKeyId;
+
+    private String cardLast4;
+
+    private Instant createdAt;
+
+}
@@ -0,0 +1,37 @@
+package com.example.payment.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+import org.springframework.data.mongodb.core.mapping.MongoId;
+
+import java.time.Instant;
+
+/**
+ * An {@code Idempotency-Key} of {@code POST /api/payments} and the payment it created. Expires
+ * {@code payment.idempotency.ttl-ms} after creation through a TTL index, see MongoIndexInitializer.
+ */
+@Setter
+@Getter
+@Document("payment_idempotency_keys")
+public class IdempotencyKey {
+    // The client's key; stored as given, even if it looks like an ObjectId
+    @MongoId(FieldType.STRING)
+    private String id;
+
+    // Keyed HMAC of the request the key was first used with
+    private String requestFingerprint;
+
+    // Assigned when the key is claimed, before the payment is created under it
+    private String paymentId;
+
+    // Set while in flight; once passed, a retry may take the key over
+    private Instant leaseExpiresAt;
+
+    // Null until the payment is known to exist
+    private Instant completedAt;
+
+    private Instant createdAt;
+
+}
@@ -18,7 +18,16 @@ public class Payment {
     private String lastName;
     private String zipCode;
 
-    // Encrypted card number (AES-GCM; format: Base64(IV):Base64(ciphertext))
+    // Vaulted card, see CardToken; payments created before the vault carry their own ciphertext below
+    private String cardTokenId;
+
+    // Encrypted card number, stored as BSON Binary (AES-GCM; format: version | key id | IV | ciphertext+tag)
+    private byte[] cardCiphertext;
+
+    // Id of the key cardCiphertext is sealed with; mirrors its header so rotation can query it
+    private Integer cardKeyId;
+
+    // Legacy encrypted card number (format: Base64(IV):Base64(ciphertext)); converted by PaymentCiphertextMigrator
     private String cardEncrypted;
 
     // Convenience non-sensitive field
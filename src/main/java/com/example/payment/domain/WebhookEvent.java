@@ -3,7 +3,6 @@ package com.example.payment.domain;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -17,19 +16,37 @@ public class WebhookEvent {
 
     private String targetUrl;
 
+    // Reference to the shared WebhookPayload document
+    private String payloadId;
+
+    // Inline payload of events enqueued before payloads were stored separately
     private String payloadJson;
 
     private WebhookStatus status = WebhookStatus.PENDING;
 
     private int attempts;
 
-    @Indexed
+    // Indexed together with status by MongoIndexInitializer; unset once the event is terminal
     private Instant nextAttemptAt;
 
     private Instant lastAttemptAt;
 
     private String lastError;
 
+    // How often the event was replayed from the dead-letter queue
+    private int replays;
+
+    // Lease held by the dispatcher node delivering this event (status IN_FLIGHT)
+    private String leaseOwner;
+
+    private Instant leaseExpiresAt;
+
+    // Identifies the claim batch that acquired the lease
+    private String leaseToken;
+
     private Instant createdAt;
 
+    // Set when the event becomes DELIVERED or FAILED; drives retention
+    private Instant completedAt;
+
 }
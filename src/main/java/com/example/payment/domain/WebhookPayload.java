@@ -0,0 +1,24 @@
+package com.example.payment.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Serialized webhook body, stored once and shared by every {@link WebhookEvent} of the fan-out.
+ */
+@Setter
+@Getter
+@Document("webhook_payloads")
+public class WebhookPayload {
+    @Id
+    private String id;
+
+    private String json;
+
+    private Instant createdAt;
+
+}
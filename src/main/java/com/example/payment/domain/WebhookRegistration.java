@@ -20,6 +20,12 @@ public class WebhookRegistration {
 
     private boolean active = true;
 
+    // Batched delivery: up to batchSize events per POST as a JSON array; 1 = one event per POST
+    private int batchSize = 1;
+
+    // How long a new event may wait for others to fill its batch
+    private long batchLingerMs;
+
     private Instant createdAt;
 
 }
@@ -3,6 +3,8 @@ package com.example.payment.domain;
 public enum WebhookStatus {
     PENDING,
     RETRY,
+    // Claimed by a dispatcher node (see WebhookEvent#leaseOwner) until the lease expires
+    IN_FLIGHT,
     DELIVERED,
     FAILED
 }
@@ -0,0 +1,16 @@
+package com.example.payment.repository;
+
+import com.example.payment.domain.CardToken;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.util.Optional;
+
+public interface CardTokenRepository extends MongoRepository<CardToken, String>, CardTokenRepositoryCustom {
+
+    /**
+     * The token of a fingerprint, with only its id loaded.
+     */
+    @Query(value = "{ 'fingerprint': ?0 }", fields = "{ '_id': 1 }")
+    Optional<CardToken> findIdByFingerprint(String fingerprint);
+}
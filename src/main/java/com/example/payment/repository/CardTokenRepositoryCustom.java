@@ -0,0 +1,34 @@
+package com.example.payment.repository;
+
+import com.example.payment.domain.CardToken;
+
+import java.util.List;
+
+public interface CardTokenRepositoryCustom {
+
+    /**
+     * A new ciphertext for a vaulted card.
+     *
+     * @param read       the token as read, with the ciphertext it had
+     * @param ciphertext binary ciphertext replacing it
+     * @param keyId      id of the key {@code ciphertext} is sealed with
+     */
+    record TokenCiphertextUpdate(CardToken read, byte[] ciphertext, int keyId) {
+    }
+
+    /**
+     * Tokens not sealed with {@code keyId}, in id order after {@code afterId} (null for the first
+     * page). Only the id and ciphertext fields are loaded.
+     */
+    List<CardToken> findNotSealedWith(int keyId, String afterId, int limit);
+
+    long countNotSealedWith(int keyId);
+
+    /**
+     * Stores each update's ciphertext and key id in one unordered bulk write. A token whose
+     * ciphertext changed since it was read is left alone.
+     *
+     * @return number of tokens updated
+     */
+    long replaceCiphertexts(List<TokenCiphertextUpdate> updates);
+}
@@ -0,0 +1,50 @@
+package com.example.payment.repository;
+
+import com.example.payment.domain.CardToken;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+
+public class CardTokenRepositoryCustomImpl implements CardTokenRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    public CardTokenRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public List<CardToken> findNotSealedWith(int keyId, String afterId, int limit) {
+        Criteria criteria = Criteria.where("cardKeyId").ne(keyId);
+        if (afterId != null) {
+            criteria = criteria.and("_id").gt(afterId);
+        }
+        Query page = Query.query(criteria).with(Sort.by("_id")).limit(limit);
+        page.fields().include("_id", "cardCiphertext", "cardKeyId");
+        return mongoTemplate.find(page, CardToken.class);
+    }
+
+    @Override
+    public long countNotSealedWith(int keyId) {
+        return mongoTemplate.count(Query.query(Criteria.where("cardKeyId").ne(keyId)), CardToken.class);
+    }
+
+    @Override
+    public long replaceCiphertexts(List<TokenCiphertextUpdate> updates) {
+        if (updates.isEmpty()) {
+            return 0;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CardToken.class);
+        for (TokenCiphertextUpdate u : updates) {
+            bulk.updateOne(
+                    Query.query(Criteria.where("_id").is(u.read().getId()).and("cardCiphertext").is(u.read().getCardCiphertext())),
+                    new Update().set("cardCiphertext", u.ciphertext()).set("cardKeyId", u.keyId()));
+        }
+        return bulk.execute().getModifiedCount();
+    }
+}
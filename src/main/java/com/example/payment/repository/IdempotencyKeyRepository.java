@@ -0,0 +1,7 @@
+package com.example.payment.repository;
+
+import com.example.payment.domain.IdempotencyKey;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface IdempotencyKeyRepository extends MongoRepository<IdempotencyKey, String>, IdempotencyKeyRepositoryCustom {
+}
@@ -0,0 +1,27 @@
+package com.example.payment.repository;
+
+import java.time.Instant;
+
+public interface IdempotencyKeyRepositoryCustom {
+
+    /**
+     * Marks an in-flight key as completed, its payment created, and ends its lease.
+     *
+     * @return false if the key was not in flight
+     */
+    boolean complete(String key);
+
+    /**
+     * Gives an in-flight key whose lease expired before {@code now} a new lease, for a retry
+     * after the first request died without completing it.
+     *
+     * @return false if the key completed or its lease is still running
+     */
+    boolean takeOverExpiredLease(String key, Instant now, Instant leaseExpiresAt);
+
+    /**
+     * Ends the lease of a key that is still in flight, so a retry can take it over at once. The
+     * key keeps its payment id, so the retry cannot create the payment under another one.
+     */
+    void release(String key);
+}
@@ -0,0 +1,41 @@
+package com.example.payment.repository;
+
+import com.example.payment.domain.IdempotencyKey;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+
+public class IdempotencyKeyRepositoryCustomImpl implements IdempotencyKeyRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    public IdempotencyKeyRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public boolean complete(String key) {
+        Update update = new Update().set("completedAt", Instant.now()).unset("leaseExpiresAt");
+        return mongoTemplate.updateFirst(inFlight(key), update, IdempotencyKey.class).getModifiedCount() == 1;
+    }
+
+    @Override
+    public boolean takeOverExpiredLease(String key, Instant now, Instant leaseExpiresAt) {
+        Query expired = Query.query(Criteria.where("_id").is(key).and("completedAt").is(null)
+                .and("leaseExpiresAt").lte(now));
+        Update update = new Update().set("leaseExpiresAt", leaseExpiresAt);
+        return mongoTemplate.updateFirst(expired, update, IdempotencyKey.class).getModifiedCount() == 1;
+    }
+
+    @Override
+    public void release(String key) {
+        mongoTemplate.updateFirst(inFlight(key), new Update().set("leaseExpiresAt", Instant.now()), IdempotencyKey.class);
+    }
+
+    private static Query inFlight(String key) {
+        return Query.query(Criteria.where("_id").is(key).and("completedAt").is(null));
+    }
+}
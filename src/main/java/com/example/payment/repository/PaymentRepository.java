@@ -3,5 +3,5 @@ package com.example.payment.repository;
 import com.example.payment.domain.Payment;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
-public interface PaymentRepository extends MongoRepository<Payment, String> {
+public interface PaymentRepository extends MongoRepository<Payment, String>, PaymentRepositoryCustom {
 }
@@ -0,0 +1,75 @@
+package com.example.payment.repository;
+
+import com.example.payment.domain.Payment;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+public interface PaymentRepositoryCustom {
+
+    /**
+     * Selects payments for listing and export; null fields do not filter.
+     */
+    record PaymentFilter(String lastName, String zipCode) {
+    }
+
+    /**
+     * Position after the last payment of a page, in (createdAt, id) descending order.
+     */
+    record PageCursor(Instant createdAt, String id) {
+    }
+
+    /**
+     * Inserts new payments, ids already assigned, in one unordered bulk write, so a document that
+     * fails does not keep the others out.
+     *
+     * @return indexes into {@code payments} of the ones that were not inserted
+     */
+    Set<Integer> insertAllUnordered(List<Payment> payments);
+
+    /**
+     * Newest payments first, (createdAt, id) descending, strictly after {@code after} (null for
+     * the first page). Card fields are not loaded.
+     */
+    List<Payment> findPage(PaymentFilter filter, PageCursor after, int limit);
+
+    /**
+     * Every matching payment in the order of {@link #findPage}, read lazily from a cursor in
+     * batches; card fields are not loaded. The stream holds the cursor open and must be closed.
+     */
+    Stream<Payment> streamAll(PaymentFilter filter);
+
+    /**
+     * A new card ciphertext for a payment.
+     *
+     * @param read       the payment as read, with the ciphertext it had
+     * @param ciphertext binary ciphertext replacing it
+     * @param keyId      id of the key {@code ciphertext} is sealed with
+     */
+    record CardCiphertextUpdate(Payment read, byte[] ciphertext, int keyId) {
+    }
+
+    /**
+     * Payments still holding a legacy string ciphertext, in id order after {@code afterId} (null
+     * for the first page). Only {@code id} and {@code cardEncrypted} are loaded.
+     */
+    List<Payment> findLegacyCiphertexts(String afterId, int limit);
+
+    /**
+     * Payments with a card ciphertext not sealed with {@code keyId}, legacy strings included, in id
+     * order after {@code afterId} (null for the first page). Only the card ciphertext fields are loaded.
+     */
+    List<Payment> findNotSealedWith(int keyId, String afterId, int limit);
+
+    long countNotSealedWith(int keyId);
+
+    /**
+     * Stores each update's ciphertext and key id and removes any legacy {@code cardEncrypted}, in
+     * one unordered bulk write. A payment whose ciphertext changed since it was read is left alone.
+     *
+     * @return number of payments updated
+     */
+    long replaceCardCiphertexts(List<CardCiphertextUpdate> updates);
+}
@@ -0,0 +1,133 @@
+package com.example.payment.repository;
+
+import com.example.payment.domain.Payment;
+import com.mongodb.bulk.BulkWriteError;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class PaymentRepositoryCustomImpl implements PaymentRepositoryCustom {
+
+    private static final String[] CIPHERTEXT_FIELDS = {"_id", "cardCiphertext", "cardEncrypted", "cardKeyId"};
+
+    // Everything PaymentResponse shows
+    private static final String[] LIST_FIELDS = {"_id", "firstName", "lastName", "zipCode", "cardLast4", "createdAt"};
+
+    private static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "createdAt", "_id");
+    private static final int EXPORT_BATCH_SIZE = 1000;
+
+    private final MongoTemplate mongoTemplate;
+
+    public PaymentRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Set<Integer> insertAllUnordered(List<Payment> payments) {
+        if (payments.isEmpty()) {
+            return Set.of();
+        }
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Payment.class)
+                    .insert(payments)
+                    .execute();
+            return Set.of();
+        } catch (BulkOperationException e) {
+            // Unordered: everything but the documents with a write error was inserted
+            return e.getErrors().stream().map(BulkWriteError::getIndex).collect(Collectors.toSet());
+        }
+    }
+
+    @Override
+    public List<Payment> findPage(PaymentFilter filter, PageCursor after, int limit) {
+        Criteria criteria = listCriteria(filter);
+        if (after != null) {
+            criteria = criteria.orOperator(
+                    Criteria.where("createdAt").lt(after.createdAt()),
+                    Criteria.where("createdAt").is(after.createdAt()).and("_id").lt(after.id()));
+        }
+        Query page = Query.query(criteria).with(NEWEST_FIRST).limit(limit);
+        page.fields().include(LIST_FIELDS);
+        return mongoTemplate.find(page, Payment.class);
+    }
+
+    @Override
+    public Stream<Payment> streamAll(PaymentFilter filter) {
+        Query all = Query.query(listCriteria(filter)).with(NEWEST_FIRST).cursorBatchSize(EXPORT_BATCH_SIZE);
+        all.fields().include(LIST_FIELDS);
+        return mongoTemplate.stream(all, Payment.class);
+    }
+
+    private static Criteria listCriteria(PaymentFilter filter) {
+        Criteria criteria = new Criteria();
+        if (filter.lastName() != null) {
+            criteria = criteria.and("lastName").is(filter.lastName());
+        }
+        if (filter.zipCode() != null) {
+            criteria = criteria.and("zipCode").is(filter.zipCode());
+        }
+        return criteria;
+    }
+
+    @Override
+    public List<Payment> findLegacyCiphertexts(String afterId, int limit) {
+        Query page = page(Criteria.where("cardEncrypted").ne(null), afterId, limit);
+        page.fields().include("_id", "cardEncrypted");
+        return mongoTemplate.find(page, Payment.class);
+    }
+
+    @Override
+    public List<Payment> findNotSealedWith(int keyId, String afterId, int limit) {
+        Query page = page(notSealedWith(keyId), afterId, limit);
+        page.fields().include(CIPHERTEXT_FIELDS);
+        return mongoTemplate.find(page, Payment.class);
+    }
+
+    @Override
+    public long countNotSealedWith(int keyId) {
+        return mongoTemplate.count(Query.query(notSealedWith(keyId)), Payment.class);
+    }
+
+    private static Criteria notSealedWith(int keyId) {
+        return Criteria.where("cardKeyId").ne(keyId)
+                .orOperator(Criteria.where("cardCiphertext").ne(null), Criteria.where("cardEncrypted").ne(null));
+    }
+
+    private static Query page(Criteria criteria, String afterId, int limit) {
+        if (afterId != null) {
+            criteria = criteria.and("_id").gt(afterId);
+        }
+        return Query.query(criteria).with(Sort.by("_id")).limit(limit);
+    }
+
+    @Override
+    public long replaceCardCiphertexts(List<CardCiphertextUpdate> updates) {
+        if (updates.isEmpty()) {
+            return 0;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Payment.class);
+        for (CardCiphertextUpdate u : updates) {
+            Payment read = u.read();
+            Criteria unchanged = Criteria.where("_id").is(read.getId());
+            if (read.getCardCiphertext() != null) {
+                unchanged = unchanged.and("cardCiphertext").is(read.getCardCiphertext());
+            } else {
+                unchanged = unchanged.and("cardEncrypted").is(read.getCardEncrypted());
+            }
+            bulk.updateOne(Query.query(unchanged), new Update()
+                    .set("cardCiphertext", u.ciphertext())
+                    .set("cardKeyId", u.keyId())
+                    .unset("cardEncrypted"));
+        }
+        return bulk.execute().getModifiedCount();
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.payment.repository;
+
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookStatus;
+import org.bson.Document;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lease-based claiming of due webhook events so several dispatcher nodes can share
+ * the {@code webhook_events} collection without delivering the same event twice.
+ */
+public interface WebhookEventRepositoryCustom {
+
+    /**
+     * Inserts the events in one unordered bulk write. Ids must be assigned by the caller,
+     * since bulk inserts do not write generated ids back to the entities.
+     */
+    void insertAllUnordered(List<WebhookEvent> events);
+
+    /**
+     * Due events of one status, with the time the oldest of them became due.
+     */
+    record DueBacklog(long count, Instant oldestDueAt) {
+    }
+
+    /**
+     * Selects dead letters (FAILED events); null fields do not filter. {@code from}/{@code to}
+     * bound the time of the last attempt, inclusive and exclusive.
+     */
+    record DeadLetterFilter(String targetUrl, Instant from, Instant to) {
+    }
+
+    /**
+     * Atomically moves up to {@code limit} due events in {@code status} (PENDING or RETRY) to
+     * IN_FLIGHT, owned by {@code owner} until {@code now + lease}, and returns the events this
+     * call acquired. Candidates are taken in {@code nextAttemptAt} order, skipping
+     * {@code excludedTargets}. Returned events only carry the fields needed for delivery.
+     */
+    List<WebhookEvent> claimDue(String owner, WebhookStatus status, Instant now, Duration lease, int limit,
+                                Collection<String> excludedTargets);
+
+    /**
+     * Claims the events among {@code ids} that are still due (PENDING or RETRY); ids
+     * that are no longer due or were claimed elsewhere are skipped.
+     */
+    List<WebhookEvent> claimDueByIds(String owner, Collection<String> ids, Instant now, Duration lease);
+
+    /**
+     * Claims up to {@code limit} PENDING events of {@code targetUrl} whether or not they are due
+     * yet, oldest first. Used to fill a batched delivery with events still lingering.
+     */
+    List<WebhookEvent> claimPendingForTarget(String owner, String targetUrl, Instant now, Duration lease, int limit);
+
+    /**
+     * Writes the outcomes of delivery attempts ($set of status, attempts, nextAttemptAt,
+     * lastAttemptAt and lastError) in one unordered bulk write and drops the leases. Events
+     * whose lease {@code owner} no longer holds are left untouched.
+     *
+     * @return number of events updated; lower than the input size if leases were lost
+     */
+    long completeAttempts(List<WebhookEvent> events, String owner);
+
+    /**
+     * Hands claimed events back untouched (status restored, lease dropped) so they can be
+     * claimed again.
+     */
+    void releaseClaims(Collection<WebhookEvent> events, String owner);
+
+    /**
+     * Pushes every due PENDING/RETRY event of {@code targetUrl} back to {@code until} without
+     * claiming it, e.g. while the target's circuit breaker is open.
+     *
+     * @return number of events deferred
+     */
+    long deferTarget(String targetUrl, Instant until);
+
+    /**
+     * Returns IN_FLIGHT events whose lease expired before {@code now} to PENDING, or RETRY if they
+     * had been attempted before, due immediately. The interrupted attempt is counted, so events
+     * that have now had {@code maxAttempts} are FAILED instead.
+     *
+     * @return number of events recovered
+     */
+    long recoverExpiredLeases(Instant now, int maxAttempts);
+
+    /**
+     * Counts the events in {@code status} that are due at {@code now}.
+     */
+    DueBacklog dueBacklog(WebhookStatus status, Instant now);
+
+    /**
+     * Returns the server's query plan for the candidate query issued by {@link #claimDue} for
+     * PENDING events.
+     */
+    Document explainDueQuery(Instant now, int limit);
+
+    /**
+     * Returns up to {@code limit} dead letters matching {@code filter} with an id greater than
+     * {@code afterId} (null for the first page), in id order. Payloads are not loaded.
+     */
+    List<WebhookEvent> findDeadLetters(DeadLetterFilter filter, String afterId, int limit);
+
+    /**
+     * Counts the dead letters matching {@code filter}.
+     */
+    long countDeadLetters(DeadLetterFilter filter);
+
+    /**
+     * Puts the events among {@code ids} that are still FAILED back in the retry queue, due at
+     * {@code now}, with a new attempt budget.
+     *
+     * @return number of events re-queued
+     */
+    long requeueDeadLetters(Collection<String> ids, Instant now);
+
+    /**
+     * Returns up to {@code limit} events in terminal {@code status} completed before
+     * {@code cutoff}, oldest first, with the fields kept by the archive.
+     */
+    List<WebhookEvent> findCompletedBefore(WebhookStatus status, Instant cutoff, int limit);
+
+    /**
+     * Copies the events to {@code webhook_events_archive} in one unordered bulk insert; events
+     * already archived (e.g. by a purge interrupted before its delete) are skipped.
+     */
+    void archive(List<WebhookEvent> events);
+
+    /**
+     * @return number of events deleted
+     */
+    long deleteByIds(Collection<String> ids);
+
+    /**
+     * Sets {@code completedAt} of terminal events written before it existed, to their last
+     * attempt or {@code now}.
+     *
+     * @return number of events updated
+     */
+    long backfillCompletedAt(Instant now);
+
+    /**
+     * The ids among {@code payloadIds} that some event still references.
+     */
+    Set<String> referencedPayloadIds(Collection<String> payloadIds);
+}
@@ -0,0 +1,370 @@
+package com.example.payment.repository;
+
+import com.example.payment.domain.ArchivedWebhookEvent;
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookStatus;
+import com.mongodb.ExplainVerbosity;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+public class WebhookEventRepositoryCustomImpl implements WebhookEventRepositoryCustom {
+
+    private static final List<WebhookStatus> DUE_STATUSES = List.of(WebhookStatus.PENDING, WebhookStatus.RETRY);
+
+    // Everything the dispatcher reads or writes back, plus the lease token its writes are matched on;
+    // createdAt and the rest of the lease bookkeeping stay in Mongo
+    private static final String[] DISPATCH_FIELDS = {
+            "_id", "targetUrl", "payloadId", "payloadJson", "status", "attempts", "nextAttemptAt", "lastAttemptAt",
+            "lastError", "leaseToken"};
+
+    private static final String[] DEAD_LETTER_FIELDS = {
+            "_id", "targetUrl", "payloadId", "attempts", "replays", "lastAttemptAt", "lastError", "createdAt"};
+
+    private static final String[] ARCHIVE_FIELDS = {
+            "_id", "targetUrl", "status", "attempts", "replays", "lastError", "createdAt", "completedAt"};
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+
+    public WebhookEventRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void insertAllUnordered(List<WebhookEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, WebhookEvent.class)
+                .insert(events)
+                .execute();
+    }
+
+    @Override
+    public List<WebhookEvent> claimDue(String owner, WebhookStatus status, Instant now, Duration lease, int limit,
+                                       Collection<String> excludedTargets) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        return claim(owner, now, lease, candidateQuery(status, now, limit, excludedTargets), dueCriteria(status, now));
+    }
+
+    @Override
+    public List<WebhookEvent> claimPendingForTarget(String owner, String targetUrl, Instant now, Duration lease,
+                                                    int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        Query candidates = Query.query(pendingFor(targetUrl)).with(Sort.by("nextAttemptAt")).limit(limit);
+        candidates.fields().include("_id");
+        return claim(owner, now, lease, candidates, pendingFor(targetUrl));
+    }
+
+    @Override
+    public List<WebhookEvent> claimDueByIds(String owner, Collection<String> ids, Instant now, Duration lease) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return claimIds(owner, now, lease, List.copyOf(ids), dueCriteria(now));
+    }
+
+    private List<WebhookEvent> claim(String owner, Instant now, Duration lease, Query candidates, Criteria recheck) {
+        List<Object> ids = mongoTemplate.find(candidates, WebhookEvent.class).stream()
+                .<Object>map(WebhookEvent::getId).toList();
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return claimIds(owner, now, lease, ids, recheck);
+    }
+
+    /**
+     * Moves the events among {@code ids} that still match {@code recheck} to IN_FLIGHT under a
+     * fresh lease token and reads back the ones this call won.
+     */
+    private List<WebhookEvent> claimIds(String owner, Instant now, Duration lease, List<?> ids, Criteria recheck) {
+
+        // Re-check the criteria in the update so a concurrent claimer wins each document at most once
+        String token = UUID.randomUUID().toString();
+        Query claim = Query.query(Criteria.where("_id").in(ids).andOperator(recheck));
+        Update update = new Update()
+                .set("status", WebhookStatus.IN_FLIGHT)
+                .set("leaseOwner", owner)
+                .set("leaseExpiresAt", now.plus(lease))
+                .set("leaseToken", token);
+        if (mongoTemplate.updateMulti(claim, update, WebhookEvent.class).getModifiedCount() == 0) {
+            return List.of();
+        }
+        Query claimed = Query.query(Criteria.where("leaseToken").is(token)).cursorBatchSize(ids.size());
+        claimed.fields().include(DISPATCH_FIELDS);
+        try (Stream<WebhookEvent> stream = mongoTemplate.stream(claimed, WebhookEvent.class)) {
+            return stream.toList();
+        }
+    }
+
+    @Override
+    public long completeAttempts(List<WebhookEvent> events, String owner) {
+        if (events.isEmpty()) {
+            return 0;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, WebhookEvent.class);
+        for (WebhookEvent event : events) {
+            bulk.updateOne(leaseHeldBy(event, owner), outcomeUpdate(event));
+        }
+        return bulk.execute().getModifiedCount();
+    }
+
+    private static Update outcomeUpdate(WebhookEvent event) {
+        Update update = new Update()
+                .set("status", event.getStatus())
+                .set("attempts", event.getAttempts())
+                .set("lastAttemptAt", event.getLastAttemptAt())
+                .set("lastError", event.getLastError())
+                .unset("leaseOwner")
+                .unset("leaseExpiresAt")
+                .unset("leaseToken");
+        // Terminal events drop nextAttemptAt so they fall out of the partial due-event index
+        if (event.getNextAttemptAt() != null) {
+            update.set("nextAttemptAt", event.getNextAttemptAt());
+        } else {
+            update.unset("nextAttemptAt");
+        }
+        if (event.getCompletedAt() != null) {
+            update.set("completedAt", event.getCompletedAt());
+        }
+        return update;
+    }
+
+    @Override
+    public void releaseClaims(Collection<WebhookEvent> events, String owner) {
+        if (events.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, WebhookEvent.class);
+        for (WebhookEvent ev : events) {
+            bulk.updateOne(leaseHeldBy(ev, owner), new Update()
+                    .set("status", ev.getAttempts() == 0 ? WebhookStatus.PENDING : WebhookStatus.RETRY)
+                    .unset("leaseOwner")
+                    .unset("leaseExpiresAt")
+                    .unset("leaseToken"));
+        }
+        bulk.execute();
+    }
+
+    @Override
+    public long deferTarget(String targetUrl, Instant until) {
+        Query due = Query.query(Criteria.where("targetUrl").is(targetUrl)
+                .and("status").in(DUE_STATUSES)
+                .and("nextAttemptAt").lt(until));
+        return mongoTemplate.updateMulti(due, new Update().set("nextAttemptAt", until), WebhookEvent.class)
+                .getModifiedCount();
+    }
+
+    @Override
+    public long recoverExpiredLeases(Instant now, int maxAttempts) {
+        // The lost attempt counts: events out of attempts fail, first attempts go back to PENDING.
+        // Each update moves its events out of IN_FLIGHT, so the later ones do not see them again.
+        long recovered = mongoTemplate.updateMulti(expiredLeases(now, Criteria.where("attempts").gte(maxAttempts - 1)),
+                recoveryUpdate(now).set("status", WebhookStatus.FAILED).set("completedAt", now).unset("nextAttemptAt"),
+                WebhookEvent.class).getModifiedCount();
+        recovered += mongoTemplate.updateMulti(expiredLeases(now, new Criteria().orOperator(
+                        Criteria.where("attempts").is(0), Criteria.where("attempts").exists(false))),
+                recoveryUpdate(now).set("status", WebhookStatus.PENDING).set("nextAttemptAt", now),
+                WebhookEvent.class).getModifiedCount();
+        recovered += mongoTemplate.updateMulti(expiredLeases(now, new Criteria()),
+                recoveryUpdate(now).set("status", WebhookStatus.RETRY).set("nextAttemptAt", now),
+                WebhookEvent.class).getModifiedCount();
+        return recovered;
+    }
+
+    private static Query expiredLeases(Instant now, Criteria attempts) {
+        return Query.query(new Criteria().andOperator(Criteria.where("status").is(WebhookStatus.IN_FLIGHT)
+                .and("leaseExpiresAt").lte(now), attempts));
+    }
+
+    private static Update recoveryUpdate(Instant now) {
+        return new Update()
+                .inc("attempts", 1)
+                .set("lastError", "Lease expired")
+                .unset("leaseOwner")
+                .unset("leaseExpiresAt")
+                .unset("leaseToken");
+    }
+
+    @Override
+    public DueBacklog dueBacklog(WebhookStatus status, Instant now) {
+        long count = mongoTemplate.count(Query.query(dueCriteria(status, now)), WebhookEvent.class);
+        if (count == 0) {
+            return new DueBacklog(0, null);
+        }
+        Query oldest = Query.query(dueCriteria(status, now)).with(Sort.by("nextAttemptAt")).limit(1);
+        oldest.fields().include("nextAttemptAt");
+        WebhookEvent first = mongoTemplate.findOne(oldest, WebhookEvent.class);
+        return new DueBacklog(count, first != null ? first.getNextAttemptAt() : null);
+    }
+
+    @Override
+    public Document explainDueQuery(Instant now, int limit) {
+        Query candidates = candidateQuery(WebhookStatus.PENDING, now, limit, List.of());
+        MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext()
+                .getRequiredPersistentEntity(WebhookEvent.class);
+        QueryMapper mapper = new QueryMapper(mongoTemplate.getConverter());
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(WebhookEvent.class))
+                .find(mapper.getMappedObject(candidates.getQueryObject(), entity))
+                .sort(mapper.getMappedSort(candidates.getSortObject(), entity))
+                .projection(candidates.getFieldsObject())
+                .limit(limit)
+                .explain(ExplainVerbosity.QUERY_PLANNER);
+    }
+
+    @Override
+    public List<WebhookEvent> findDeadLetters(DeadLetterFilter filter, String afterId, int limit) {
+        Criteria criteria = deadLetterCriteria(filter);
+        if (afterId != null) {
+            criteria = criteria.and("_id").gt(afterId);
+        }
+        Query page = Query.query(criteria).with(Sort.by("_id")).limit(limit);
+        page.fields().include(DEAD_LETTER_FIELDS);
+        return mongoTemplate.find(page, WebhookEvent.class);
+    }
+
+    @Override
+    public long countDeadLetters(DeadLetterFilter filter) {
+        return mongoTemplate.count(Query.query(deadLetterCriteria(filter)), WebhookEvent.class);
+    }
+
+    @Override
+    public long requeueDeadLetters(Collection<String> ids, Instant now) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        Query failed = Query.query(Criteria.where("_id").in(ids).and("status").is(WebhookStatus.FAILED));
+        // attempts = 1 keeps replays in the retry lane, with max-attempts - 1 tries left
+        Update update = new Update()
+                .set("status", WebhookStatus.RETRY)
+                .set("attempts", 1)
+                .set("nextAttemptAt", now)
+                .unset("completedAt")
+                .inc("replays", 1);
+        return mongoTemplate.updateMulti(failed, update, WebhookEvent.class).getModifiedCount();
+    }
+
+    @Override
+    public List<WebhookEvent> findCompletedBefore(WebhookStatus status, Instant cutoff, int limit) {
+        Query completed = Query.query(Criteria.where("status").is(status).and("completedAt").lt(cutoff))
+                .with(Sort.by("completedAt"))
+                .limit(limit);
+        completed.fields().include(ARCHIVE_FIELDS);
+        return mongoTemplate.find(completed, WebhookEvent.class);
+    }
+
+    @Override
+    public void archive(List<WebhookEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ArchivedWebhookEvent.class)
+                    .insert(events.stream().map(ArchivedWebhookEvent::from).toList())
+                    .execute();
+        } catch (BulkOperationException e) {
+            // Unordered: everything else was inserted; only duplicates are expected here
+            boolean onlyDuplicates = e.getErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY);
+            if (!onlyDuplicates) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public long deleteByIds(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)), WebhookEvent.class).getDeletedCount();
+    }
+
+    @Override
+    public long backfillCompletedAt(Instant now) {
+        Query legacy = Query.query(Criteria.where("status").in(WebhookStatus.DELIVERED, WebhookStatus.FAILED)
+                .and("completedAt").exists(false));
+        AggregationUpdate update = AggregationUpdate.update()
+                .set("completedAt").toValue(ConditionalOperators.ifNull("lastAttemptAt").then(now));
+        return mongoTemplate.updateMulti(legacy, update, WebhookEvent.class).getModifiedCount();
+    }
+
+    @Override
+    public Set<String> referencedPayloadIds(Collection<String> payloadIds) {
+        if (payloadIds.isEmpty()) {
+            return Set.of();
+        }
+        Query referencing = Query.query(Criteria.where("payloadId").in(payloadIds));
+        return new HashSet<>(mongoTemplate.findDistinct(referencing, "payloadId", WebhookEvent.class, String.class));
+    }
+
+    private static Criteria deadLetterCriteria(DeadLetterFilter filter) {
+        Criteria criteria = Criteria.where("status").is(WebhookStatus.FAILED);
+        if (filter.targetUrl() != null) {
+            criteria = criteria.and("targetUrl").is(filter.targetUrl());
+        }
+        if (filter.from() != null || filter.to() != null) {
+            Criteria lastAttempt = criteria.and("lastAttemptAt");
+            if (filter.from() != null) {
+                lastAttempt.gte(filter.from());
+            }
+            if (filter.to() != null) {
+                lastAttempt.lt(filter.to());
+            }
+        }
+        return criteria;
+    }
+
+    private static Query candidateQuery(WebhookStatus status, Instant now, int limit, Collection<String> excludedTargets) {
+        Criteria due = dueCriteria(status, now);
+        if (!excludedTargets.isEmpty()) {
+            due = due.and("targetUrl").nin(excludedTargets);
+        }
+        Query candidates = Query.query(due).with(Sort.by("nextAttemptAt")).limit(limit);
+        candidates.fields().include("_id");
+        return candidates;
+    }
+
+    private static Criteria dueCriteria(Instant now) {
+        return Criteria.where("status").in(DUE_STATUSES).and("nextAttemptAt").lte(now);
+    }
+
+    private static Criteria dueCriteria(WebhookStatus status, Instant now) {
+        return Criteria.where("status").is(status).and("nextAttemptAt").lte(now);
+    }
+
+    private static Criteria pendingFor(String targetUrl) {
+        return Criteria.where("status").is(WebhookStatus.PENDING).and("targetUrl").is(targetUrl);
+    }
+
+    private static Query leaseHeldBy(WebhookEvent event, String owner) {
+        // The token tells this claim from a later one by the same owner after the lease expired
+        return Query.query(Criteria.where("_id").is(event.getId())
+                .and("status").is(WebhookStatus.IN_FLIGHT)
+                .and("leaseOwner").is(owner)
+                .and("leaseToken").is(event.getLeaseToken()));
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.payment.repository;
+
+import com.example.payment.domain.WebhookPayload;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.util.List;
+
+public interface WebhookPayloadRepository extends MongoRepository<WebhookPayload, String> {
+
+    /**
+     * Ids of the payloads with {@code after < _id < before}, in id order, without their bodies.
+     * ObjectIds start with their creation second, so an id bound is also a time bound.
+     */
+    @Query(value = "{ '_id': { '$gt': ?0, '$lt': ?1 } }", fields = "{ '_id': 1 }", sort = "{ '_id': 1 }")
+    List<WebhookPayload> findIdsBetween(ObjectId after, ObjectId before, Limit limit);
+}
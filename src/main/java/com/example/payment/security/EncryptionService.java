@@ -5,12 +5,27 @@ import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * AES-GCM encryption/decryption service.
- * Expects a Base64-encoded AES key (128/192/256 bits) to be provided.
+ * Expects Base64-encoded AES keys (128/192/256 bits), each under a key id from 0 to 255.
+ * <p>
+ * Ciphers are reused from a small lock-free pool, each with its own {@link SecureRandom} for
+ * IVs, so concurrent callers (virtual threads included) neither repeat the provider lookup nor
+ * contend on a shared random source.
+ * <p>
+ * Two ciphertext formats are supported: the legacy {@code Base64(iv):Base64(ciphertext)} string,
+ * and a compact binary one, {@code version (1) | key id (1) | iv (12) | ciphertext + tag}, which
+ * is a quarter smaller and needs no decoding. The key id names the key a value was sealed with:
+ * new values are sealed with the active key, and any key of the ring decrypts, so keys can be
+ * rotated while both old and new ciphertexts are in use. Legacy strings carry no key id; they
+ * belong to key {@value #DEFAULT_KEY_ID}.
  */
 public class EncryptionService {
 
@@ -18,18 +33,67 @@ public class EncryptionService {
     private static final String TRANSFORMATION = "AES/GCM/NoPadding";
     private static final int GCM_TAG_LENGTH_BITS = 128; // 16 bytes tag
     private static final int IV_LENGTH_BYTES = 12;      // recommended for GCM
+    // 12 bytes encode to exactly 16 Base64 chars, so Base64(iv || ct) == Base64(iv) + Base64(ct)
+    private static final int IV_LENGTH_CHARS = 16;
+    private static final char SEPARATOR = ':';
 
-    private final SecretKey key;
-    private final SecureRandom secureRandom = new SecureRandom();
+    public static final byte FORMAT_V1 = 1;
+    public static final int DEFAULT_KEY_ID = 0;
+    private static final int HEADER_LENGTH = 2;
+    private static final int BINARY_PREFIX_LENGTH = HEADER_LENGTH + IV_LENGTH_BYTES;
+    private static final int GCM_TAG_LENGTH_BYTES = GCM_TAG_LENGTH_BITS / 8;
+
+    private static final int MAX_KEY_ID = 255;
+
+    // Indexed by key id
+    private final SecretKey[] keys = new SecretKey[MAX_KEY_ID + 1];
+    private final int activeKeyId;
+    private final CipherPool pool = new CipherPool(Runtime.getRuntime().availableProcessors() * 2);
 
     /**
      * Creates an EncryptionService using a Base64-encoded AES key.
      * The decoded key must be 16, 24, or 32 bytes long.
      *
-     * @param base64Key Base64-encoded AES key
+     * @param base64Key Base64-encoded AES key, used as key {@value #DEFAULT_KEY_ID}
      */
     public EncryptionService(String base64Key) {
-        this.key = loadKey(base64Key);
+        this(Map.of(DEFAULT_KEY_ID, base64Key), DEFAULT_KEY_ID);
+    }
+
+    /**
+     * Creates an EncryptionService with a keyring.
+     *
+     * @param base64Keys  Base64-encoded AES keys by key id (0-255)
+     * @param activeKeyId id of the key new values are sealed with
+     */
+    public EncryptionService(Map<Integer, String> base64Keys, int activeKeyId) {
+        base64Keys.forEach((id, base64Key) -> {
+            if (id < 0 || id > MAX_KEY_ID) {
+                throw new IllegalArgumentException("Key id must be between 0 and " + MAX_KEY_ID + ": " + id);
+            }
+            keys[id] = loadKey(base64Key);
+        });
+        if (activeKeyId < 0 || activeKeyId > MAX_KEY_ID || keys[activeKeyId] == null) {
+            throw new IllegalArgumentException("Active key id " + activeKeyId + " is not in the keyring");
+        }
+        this.activeKeyId = activeKeyId;
+    }
+
+    /**
+     * @return id of the key {@link #encryptToBinary} seals with
+     */
+    public int activeKeyId() {
+        return activeKeyId;
+    }
+
+    /**
+     * @return id of the key a value written by {@link #encryptToBinary} was sealed with
+     */
+    public static int keyIdOf(byte[] binary) {
+        if (binary.length < HEADER_LENGTH) {
+            throw new IllegalArgumentException("Ciphertext too short: " + binary.length + " bytes");
+        }
+        return binary[1] & 0xFF;
     }
 
     private SecretKey loadKey(String base64Key) {
@@ -45,41 +109,239 @@ public class EncryptionService {
         }
     }
 
+    /**
+     * @return {@code Base64(iv):Base64(ciphertext)}, sealed with key {@value #DEFAULT_KEY_ID}
+     */
     public String encrypt(String plaintext) {
+        CipherContext ctx = pool.acquire();
         try {
-            byte[] iv = new byte[IV_LENGTH_BYTES];
-            secureRandom.nextBytes(iv);
-
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH_BITS, iv));
-
-            byte[] ciphertext = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+            byte[] pt = plaintext.getBytes(StandardCharsets.UTF_8);
+            // iv || ciphertext+tag in one buffer
+            byte[] raw = new byte[IV_LENGTH_BYTES + ctx.cipherLength(pt.length)];
+            int written = seal(ctx, key(DEFAULT_KEY_ID), pt, raw, 0);
 
-            // format: iv:ciphertext (both Base64)
-            return Base64.getEncoder().encodeToString(iv) + ":" +
-                    Base64.getEncoder().encodeToString(ciphertext);
+            // Encode once, then open a gap for the separator after the IV
+            int encodedLength = 4 * Math.ceilDiv(IV_LENGTH_BYTES + written, 3);
+            byte[] out = new byte[encodedLength + 1];
+            Base64.getEncoder().encode(raw, out);
+            System.arraycopy(out, IV_LENGTH_CHARS, out, IV_LENGTH_CHARS + 1, encodedLength - IV_LENGTH_CHARS);
+            out[IV_LENGTH_CHARS] = (byte) SEPARATOR;
+            return new String(out, StandardCharsets.ISO_8859_1);
         } catch (Exception e) {
             throw new RuntimeException("Encryption failure", e);
+        } finally {
+            pool.release(ctx);
         }
     }
 
     public String decrypt(String encoded) {
+        CipherContext ctx = pool.acquire();
         try {
-            String[] parts = encoded.split(":", 2);
-            if (parts.length != 2) {
+            int sep = encoded.indexOf(SEPARATOR);
+            if (sep < 0) {
                 throw new IllegalArgumentException("Invalid ciphertext format");
             }
+            byte[] raw;
+            int ivLength;
+            if (sep == IV_LENGTH_CHARS) {
+                // Our own format: decode both parts as one Base64 string into one buffer
+                byte[] chars = new byte[encoded.length() - 1];
+                for (int i = 0, j = 0; i < encoded.length(); i++) {
+                    if (i != sep) {
+                        chars[j++] = (byte) encoded.charAt(i);
+                    }
+                }
+                raw = new byte[chars.length / 4 * 3];
+                int decoded = Base64.getDecoder().decode(chars, raw);
+                ivLength = IV_LENGTH_BYTES;
+                return decryptInPlace(ctx, key(DEFAULT_KEY_ID), raw, ivLength, decoded - ivLength);
+            }
+            byte[] iv = Base64.getDecoder().decode(encoded.substring(0, sep));
+            byte[] ct = Base64.getDecoder().decode(encoded.substring(sep + 1));
+            raw = new byte[iv.length + ct.length];
+            System.arraycopy(iv, 0, raw, 0, iv.length);
+            System.arraycopy(ct, 0, raw, iv.length, ct.length);
+            return decryptInPlace(ctx, key(DEFAULT_KEY_ID), raw, iv.length, ct.length);
+        } catch (Exception e) {
+            throw new RuntimeException("Decryption failure", e);
+        } finally {
+            pool.release(ctx);
+        }
+    }
 
-            byte[] iv = Base64.getDecoder().decode(parts[0]);
-            byte[] ct = Base64.getDecoder().decode(parts[1]);
-
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH_BITS, iv));
+    /**
+     * @return {@code version | keyId | iv | ciphertext+tag} sealed with the active key, see the class comment
+     */
+    public byte[] encryptToBinary(String plaintext) {
+        CipherContext ctx = pool.acquire();
+        try {
+            byte[] pt = plaintext.getBytes(StandardCharsets.UTF_8);
+            byte[] out = new byte[BINARY_PREFIX_LENGTH + ctx.cipherLength(pt.length)];
+            out[0] = FORMAT_V1;
+            out[1] = (byte) activeKeyId;
+            seal(ctx, keys[activeKeyId], pt, out, HEADER_LENGTH);
+            return out;
+        } catch (Exception e) {
+            throw new RuntimeException("Encryption failure", e);
+        } finally {
+            pool.release(ctx);
+        }
+    }
 
-            byte[] pt = cipher.doFinal(ct);
+    /**
+     * Decrypts a value written by {@link #encryptToBinary} with the key it names; {@code binary}
+     * is left untouched.
+     */
+    public String decrypt(byte[] binary) {
+        CipherContext ctx = pool.acquire();
+        try {
+            SecretKey key = checkBinary(binary);
+            ctx.cipher.init(Cipher.DECRYPT_MODE, key,
+                    new GCMParameterSpec(GCM_TAG_LENGTH_BITS, binary, HEADER_LENGTH, IV_LENGTH_BYTES));
+            byte[] pt = ctx.cipher.doFinal(binary, BINARY_PREFIX_LENGTH, binary.length - BINARY_PREFIX_LENGTH);
             return new String(pt, StandardCharsets.UTF_8);
         } catch (Exception e) {
             throw new RuntimeException("Decryption failure", e);
+        } finally {
+            pool.release(ctx);
+        }
+    }
+
+    /**
+     * Repacks a legacy {@code Base64(iv):Base64(ciphertext)} value into the binary format without
+     * decrypting it: the IV and ciphertext bytes are carried over unchanged.
+     *
+     * @throws IllegalArgumentException if the value is malformed or its IV is not 12 bytes
+     */
+    public byte[] legacyToBinary(String encoded) {
+        int sep = encoded.indexOf(SEPARATOR);
+        if (sep < 0) {
+            throw new IllegalArgumentException("Invalid ciphertext format");
+        }
+        byte[] iv = Base64.getDecoder().decode(encoded.substring(0, sep));
+        byte[] ct = Base64.getDecoder().decode(encoded.substring(sep + 1));
+        if (iv.length != IV_LENGTH_BYTES || ct.length < GCM_TAG_LENGTH_BYTES) {
+            throw new IllegalArgumentException("Unsupported ciphertext: " + iv.length + " byte IV, " + ct.length + " byte body");
+        }
+        byte[] out = new byte[BINARY_PREFIX_LENGTH + ct.length];
+        out[0] = FORMAT_V1;
+        out[1] = DEFAULT_KEY_ID;
+        System.arraycopy(iv, 0, out, HEADER_LENGTH, IV_LENGTH_BYTES);
+        System.arraycopy(ct, 0, out, BINARY_PREFIX_LENGTH, ct.length);
+        return out;
+    }
+
+    private SecretKey checkBinary(byte[] binary) {
+        if (binary.length < BINARY_PREFIX_LENGTH + GCM_TAG_LENGTH_BYTES) {
+            throw new IllegalArgumentException("Ciphertext too short: " + binary.length + " bytes");
+        }
+        if (binary[0] != FORMAT_V1) {
+            throw new IllegalArgumentException("Unsupported ciphertext version: " + binary[0]);
+        }
+        return key(binary[1] & 0xFF);
+    }
+
+    private SecretKey key(int keyId) {
+        SecretKey key = keys[keyId];
+        if (key == null) {
+            throw new IllegalArgumentException("Unknown key id: " + keyId);
+        }
+        return key;
+    }
+
+    /**
+     * Encrypts {@code pt} into {@code out}: a fresh IV at {@code ivOffset}, ciphertext+tag right after it.
+     *
+     * @return bytes of ciphertext+tag written
+     */
+    private int seal(CipherContext ctx, SecretKey key, byte[] pt, byte[] out, int ivOffset)
+            throws GeneralSecurityException {
+        ctx.random.nextBytes(ctx.iv);
+        System.arraycopy(ctx.iv, 0, out, ivOffset, IV_LENGTH_BYTES);
+        ctx.cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH_BITS, out, ivOffset, IV_LENGTH_BYTES));
+        return ctx.cipher.doFinal(pt, 0, pt.length, out, ivOffset + IV_LENGTH_BYTES);
+    }
+
+    /**
+     * Decrypts {@code raw[ivLength, ivLength + ctLength)} over itself; GCM ciphers are copy-safe.
+     */
+    private String decryptInPlace(CipherContext ctx, SecretKey key, byte[] raw, int ivLength, int ctLength)
+            throws GeneralSecurityException {
+        ctx.cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH_BITS, raw, 0, ivLength));
+        int pt = ctx.cipher.doFinal(raw, ivLength, ctLength, raw, ivLength);
+        return new String(raw, ivLength, pt, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A cipher and its IV source; used by one caller at a time.
+     */
+    private static final class CipherContext {
+        final Cipher cipher;
+        final SecureRandom random;
+        final byte[] iv = new byte[IV_LENGTH_BYTES];
+
+        CipherContext() {
+            try {
+                this.cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(TRANSFORMATION + " not available", e);
+            }
+            this.random = newSecureRandom();
+        }
+
+        int cipherLength(int plaintextLength) {
+            return plaintextLength + GCM_TAG_LENGTH_BYTES;
+        }
+
+        private static SecureRandom newSecureRandom() {
+            try {
+                // DRBG instances lock only themselves, unlike NativePRNG's process-wide lock
+                return SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException e) {
+                return new SecureRandom();
+            }
+        }
+    }
+
+    /**
+     * Lock-free pool of {@link CipherContext}s: callers take a context from a slot picked by
+     * thread id (probing the others), and put it back the same way. Nothing blocks, so virtual
+     * threads are never pinned; if every slot is empty a new context is created, and contexts
+     * that find no free slot on release are dropped.
+     */
+    private static final class CipherPool {
+        private final AtomicReferenceArray<CipherContext> slots;
+        private final int mask;
+
+        CipherPool(int minSlots) {
+            int size = Integer.highestOneBit(Math.max(2, minSlots) - 1) << 1;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.mask = size - 1;
+        }
+
+        CipherContext acquire() {
+            int start = home();
+            for (int i = 0; i <= mask; i++) {
+                CipherContext ctx = slots.getAndSet((start + i) & mask, null);
+                if (ctx != null) {
+                    return ctx;
+                }
+            }
+            return new CipherContext();
+        }
+
+        void release(CipherContext ctx) {
+            int start = home();
+            for (int i = 0; i <= mask; i++) {
+                if (slots.compareAndSet((start + i) & mask, null, ctx)) {
+                    return;
+                }
+            }
+        }
+
+        private int home() {
+            long id = Thread.currentThread().threadId();
+            return (int) (id ^ (id >>> 16)) * 0x9E3779B9 >>> 16;
         }
     }
 }
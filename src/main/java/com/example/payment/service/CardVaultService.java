@@ -0,0 +1,139 @@
+package com.example.payment.service;
+
+import com.example.payment.cache.LruCache;
+import com.example.payment.domain.CardToken;
+import com.example.payment.repository.CardTokenRepository;
+import com.example.payment.security.CardFingerprinter;
+import com.example.payment.security.EncryptionService;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Card vault: each distinct card number is encrypted and stored once in {@code card_vault},
+ * keyed by its fingerprint, and payments reference its token. Fingerprints of recently seen
+ * cards map to their token ids in a bounded LRU cache, so a returning card costs one HMAC and
+ * no encryption or vault round trip. The cache only ever holds fingerprints and token ids.
+ */
+@Service
+public class CardVaultService {
+
+    private final CardTokenRepository repository;
+    private final EncryptionService encryptionService;
+    private final CardFingerprinter fingerprinter;
+    private final int parallelism;
+    // fingerprint -> token id; a token is never deleted or re-keyed, so entries cannot go stale
+    private final LruCache<String, String> tokens;
+
+    public CardVaultService(CardTokenRepository repository,
+                            EncryptionService encryptionService,
+                            CardFingerprinter fingerprinter,
+                            @Value("${payment.card-vault.cache-size:100000}") int cacheSize,
+                            @Value("${payment.card-vault.parallelism:8}") int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("payment.card-vault.parallelism must be >= 1");
+        }
+        this.repository = repository;
+        this.encryptionService = encryptionService;
+        this.fingerprinter = fingerprinter;
+        this.parallelism = parallelism;
+        this.tokens = new LruCache<>(cacheSize);
+    }
+
+    /**
+     * @return id of the card's token, vaulting the card if it is new
+     */
+    public String tokenize(String cardNumber) {
+        String fingerprint = fingerprinter.fingerprint(cardNumber);
+        String tokenId = tokens.get(fingerprint);
+        if (tokenId != null) {
+            return tokenId;
+        }
+        tokenId = repository.findIdByFingerprint(fingerprint).map(CardToken::getId)
+                .orElseGet(() -> vault(fingerprint, cardNumber));
+        tokens.put(fingerprint, tokenId);
+        return tokenId;
+    }
+
+    /**
+     * Tokenizes a batch of card numbers, each distinct one once, with up to
+     * {@code payment.card-vault.parallelism} of them being fingerprinted, encrypted and vaulted
+     * at the same time.
+     *
+     * @return token ids in the order of {@code cardNumbers}; null for null card numbers
+     */
+    public List<String> tokenizeAll(List<String> cardNumbers) {
+        Map<String, Future<String>> tokenIds = new HashMap<>();
+        Semaphore permits = new Semaphore(parallelism);
+        // Closing waits for every card of the batch
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String cardNumber : cardNumbers) {
+                if (cardNumber != null) {
+                    tokenIds.computeIfAbsent(cardNumber, card -> workers.submit(() -> {
+                        permits.acquire();
+                        try {
+                            return tokenize(card);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                }
+            }
+        }
+        List<String> ids = new ArrayList<>(cardNumbers.size());
+        for (String cardNumber : cardNumbers) {
+            ids.add(cardNumber != null ? tokenIdOf(tokenIds.get(cardNumber)) : null);
+        }
+        return ids;
+    }
+
+    private static String tokenIdOf(Future<String> tokenId) {
+        return switch (tokenId.state()) {
+            case SUCCESS -> tokenId.resultNow();
+            case FAILED -> throw tokenId.exceptionNow() instanceof RuntimeException e
+                    ? e : new IllegalStateException(tokenId.exceptionNow());
+            default -> throw new IllegalStateException("Tokenization was interrupted");
+        };
+    }
+
+    private String vault(String fingerprint, String cardNumber) {
+        CardToken token = new CardToken();
+        token.setId(new ObjectId().toHexString());
+        token.setFingerprint(fingerprint);
+        token.setCardCiphertext(encryptionService.encryptToBinary(cardNumber));
+        token.setCardKeyId(encryptionService.activeKeyId());
+        token.setCardLast4(cardNumber.length() >= 4 ? cardNumber.substring(cardNumber.length() - 4) : null);
+        token.setCreatedAt(Instant.now());
+        try {
+            repository.insert(token);
+            return token.getId();
+        } catch (DuplicateKeyException e) {
+            // Vaulted concurrently by another request or node; the unique index keeps one token
+            return repository.findIdByFingerprint(fingerprint).map(CardToken::getId).orElseThrow(() -> e);
+        }
+    }
+
+    /**
+     * @return the card number of a token, or null if the token does not exist
+     */
+    public String decryptCardNumber(String tokenId) {
+        return repository.findById(tokenId)
+                .map(token -> encryptionService.decrypt(token.getCardCiphertext()))
+                .orElse(null);
+    }
+
+    public LruCache.Stats cacheStats() {
+        return tokens.stats();
+    }
+}
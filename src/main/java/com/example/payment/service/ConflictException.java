@@ -0,0 +1,11 @@
+package com.example.payment.service;
+
+/**
+ * The request conflicts with work still in progress, such as a running rotation or replay, and
+ * may succeed if retried later. Answered with 409 and its message.
+ */
+public class ConflictException extends RuntimeException {
+    public ConflictException(String message) {
+        super(message);
+    }
+}
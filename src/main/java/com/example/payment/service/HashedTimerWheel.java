@@ -0,0 +1,146 @@
+package com.example.payment.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel: deadlines are hashed by tick into a fixed ring of buckets, so scheduling
+ * is O(1) and each tick only scans one bucket. Entries further out than one turn of the wheel
+ * carry a round count. Precision is one tick; items expiring on the same tick are handed to
+ * the callback together, on the wheel's own thread.
+ */
+final class HashedTimerWheel<T> implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(HashedTimerWheel.class);
+
+    private record Entry<T>(T item, long deadlineMs) {
+    }
+
+    private static final class Slot<T> {
+        final T item;
+        long rounds;
+
+        Slot(T item, long rounds) {
+            this.item = item;
+            this.rounds = rounds;
+        }
+    }
+
+    private final long tickMs;
+    private final int mask;
+    private final int capacity;
+    private final List<List<Slot<T>>> buckets;
+    private final Consumer<List<T>> onExpired;
+    // Producers only touch this queue; buckets belong to the wheel thread
+    private final Queue<Entry<T>> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final long startMs;
+    private final Thread worker;
+    private long tick;
+
+    /**
+     * @param ticksPerWheel rounded up to a power of two
+     * @param capacity      scheduled items beyond this are refused
+     */
+    HashedTimerWheel(String name, long tickMs, int ticksPerWheel, int capacity, Consumer<List<T>> onExpired) {
+        if (tickMs < 1 || ticksPerWheel < 1 || capacity < 1) {
+            throw new IllegalArgumentException("tickMs, ticksPerWheel and capacity must be >= 1");
+        }
+        int wheelSize = 1;
+        while (wheelSize < ticksPerWheel) {
+            wheelSize <<= 1;
+        }
+        this.tickMs = tickMs;
+        this.mask = wheelSize - 1;
+        this.capacity = capacity;
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.onExpired = onExpired;
+        this.startMs = System.currentTimeMillis();
+        this.worker = Thread.ofPlatform().name(name).daemon().start(this::run);
+    }
+
+    /**
+     * Schedules {@code item} to expire at {@code deadline}; past deadlines expire on the next tick.
+     *
+     * @return false if the wheel is full
+     */
+    boolean schedule(T item, Instant deadline) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        // Round sub-millisecond deadlines up
+        long deadlineMs = deadline.toEpochMilli() + (deadline.getNano() % 1_000_000 == 0 ? 0 : 1);
+        incoming.add(new Entry<>(item, deadlineMs));
+        return true;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    @Override
+    public void close() {
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            long sleepMs = startMs + (tick + 1) * tickMs - System.currentTimeMillis();
+            if (sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            tick++;
+            transferIncoming();
+            List<T> expired = expire(buckets.get((int) (tick & mask)));
+            if (!expired.isEmpty()) {
+                size.addAndGet(-expired.size());
+                try {
+                    onExpired.accept(expired);
+                } catch (Exception e) {
+                    log.error("Timer wheel callback failed for {} items: {}", expired.size(), e.toString());
+                }
+            }
+        }
+    }
+
+    private void transferIncoming() {
+        Entry<T> entry;
+        while ((entry = incoming.poll()) != null) {
+            // Round up so an item never fires before its deadline; overdue items go to this tick
+            long deadlineTick = Math.max(tick, Math.ceilDiv(entry.deadlineMs() - startMs, tickMs));
+            long rounds = (deadlineTick - tick) / buckets.size();
+            buckets.get((int) (deadlineTick & mask)).add(new Slot<>(entry.item(), rounds));
+        }
+    }
+
+    private List<T> expire(List<Slot<T>> bucket) {
+        List<T> expired = new ArrayList<>();
+        Iterator<Slot<T>> it = bucket.iterator();
+        while (it.hasNext()) {
+            Slot<T> slot = it.next();
+            if (slot.rounds <= 0) {
+                expired.add(slot.item);
+                it.remove();
+            } else {
+                slot.rounds--;
+            }
+        }
+        return expired;
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.Payment;
+import com.example.payment.repository.PaymentRepository;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Group commit of new payments. With {@code payment.group-commit.enabled}, concurrent
+ * {@link #save} calls queue their payment and one writer thread inserts whatever arrived within
+ * {@code window-us} of the first, up to {@code max-batch}, with a single {@code insertMany};
+ * each caller blocks until its own payment is stored. Under load, that turns many single-document
+ * round trips into a few bulk ones at the cost of at most one window of latency. Disabled,
+ * {@link #save} is a plain {@code save}.
+ */
+@Service
+public class PaymentBatchWriter {
+    private static final Logger log = LoggerFactory.getLogger(PaymentBatchWriter.class);
+
+    // How often an idle writer checks for shutdown
+    private static final long IDLE_POLL_MS = 100;
+
+    public record Stats(boolean enabled, long batches, long payments, int queued) {
+    }
+
+    private record Pending(Payment payment, CompletableFuture<Payment> saved) {
+    }
+
+    private final PaymentRepository repository;
+    private final boolean enabled;
+    private final int maxBatch;
+    private final long windowNanos;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private volatile boolean running = true;
+    private final Thread writer;
+
+    public PaymentBatchWriter(PaymentRepository repository,
+                              @Value("${payment.group-commit.enabled:false}") boolean enabled,
+                              @Value("${payment.group-commit.max-batch:64}") int maxBatch,
+                              @Value("${payment.group-commit.window-us:200}") long windowMicros) {
+        if (maxBatch < 1 || windowMicros < 0) {
+            throw new IllegalArgumentException("payment.group-commit.max-batch must be >= 1 and window-us >= 0");
+        }
+        this.repository = repository;
+        this.enabled = enabled;
+        this.maxBatch = maxBatch;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.writer = enabled ? Thread.ofVirtual().name("payment-group-commit").start(this::run) : null;
+    }
+
+    /**
+     * Stores a new payment, assigning its id first when group commit is on.
+     *
+     * @return the stored payment
+     */
+    public Payment save(Payment p) {
+        if (!enabled || !running) {
+            return repository.save(p);
+        }
+        // Bulk inserts do not write generated ids back to the entities
+        if (p.getId() == null) {
+            p.setId(new ObjectId().toHexString());
+        }
+        Pending pending = new Pending(p, new CompletableFuture<>());
+        queue.add(pending);
+        if (!running && queue.remove(pending)) {
+            // Queued after the writer's last drain
+            return repository.save(p);
+        }
+        try {
+            return pending.saved().join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(enabled, batches.get(), written.get(), queue.size());
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            // The writer drains what is queued before it exits
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        try {
+            while (running) {
+                Pending first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long left = deadline - System.nanoTime();
+                    // Past the window, still take what is already queued
+                    Pending next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running = false;
+        Pending next;
+        while ((next = queue.poll()) != null) {
+            batch.add(next);
+            if (batch.size() == maxBatch || queue.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        write(batch);
+    }
+
+    private void write(List<Pending> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Payment> payments = batch.stream().map(Pending::payment).toList();
+        try {
+            repository.insert(payments);
+            batches.incrementAndGet();
+            written.addAndGet(payments.size());
+            batch.forEach(pending -> pending.saved().complete(pending.payment()));
+        } catch (RuntimeException e) {
+            // insertMany stops at the first failure; save() upserts by id, so writing the batch one
+            // by one neither duplicates what was inserted nor gives up on the rest
+            log.warn("Group commit of {} payments failed, saving them one by one: {}", payments.size(), e.toString());
+            for (Pending pending : batch) {
+                try {
+                    pending.saved().complete(repository.save(pending.payment()));
+                    written.incrementAndGet();
+                } catch (RuntimeException single) {
+                    pending.saved().completeExceptionally(single);
+                }
+            }
+        }
+    }
+}
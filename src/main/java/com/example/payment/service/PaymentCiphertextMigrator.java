@@ -0,0 +1,99 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.Payment;
+import com.example.payment.repository.PaymentRepository;
+import com.example.payment.repository.PaymentRepositoryCustom.CardCiphertextUpdate;
+import com.example.payment.security.EncryptionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts card numbers still stored as legacy {@code Base64(iv):Base64(ciphertext)} strings to
+ * the binary format, in the background after startup. Payments are paged in id order in batches
+ * of {@code payment.ciphertext-migration.batch-size}, with a pause between batches; values are
+ * repacked without decrypting, and each is only replaced if it is unchanged since it was read,
+ * so the migration can run on several nodes at once and be interrupted at any point.
+ */
+@Service
+public class PaymentCiphertextMigrator {
+    private static final Logger log = LoggerFactory.getLogger(PaymentCiphertextMigrator.class);
+
+    private final PaymentRepository repository;
+    private final EncryptionService encryptionService;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long pauseMs;
+
+    public PaymentCiphertextMigrator(PaymentRepository repository,
+                                     EncryptionService encryptionService,
+                                     @Value("${payment.ciphertext-migration.enabled:true}") boolean enabled,
+                                     @Value("${payment.ciphertext-migration.batch-size:500}") int batchSize,
+                                     @Value("${payment.ciphertext-migration.pause-ms:100}") long pauseMs) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("payment.ciphertext-migration.batch-size must be >= 1");
+        }
+        this.repository = repository;
+        this.encryptionService = encryptionService;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.pauseMs = pauseMs;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (enabled) {
+            Thread.ofVirtual().name("payment-ciphertext-migrator").start(this::migrate);
+        }
+    }
+
+    /**
+     * @return number of payments converted
+     */
+    public long migrate() {
+        long converted = 0;
+        long skipped = 0;
+        String after = null;
+        try {
+            while (true) {
+                List<Payment> batch = repository.findLegacyCiphertexts(after, batchSize);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                List<CardCiphertextUpdate> updates = new ArrayList<>(batch.size());
+                for (Payment p : batch) {
+                    try {
+                        // Legacy strings were all sealed with the original key
+                        updates.add(new CardCiphertextUpdate(p, encryptionService.legacyToBinary(p.getCardEncrypted()),
+                                EncryptionService.DEFAULT_KEY_ID));
+                    } catch (RuntimeException e) {
+                        // Still readable through the legacy path; the cursor moves past it
+                        skipped++;
+                        log.warn("Payment {} keeps its legacy card ciphertext: {}", p.getId(), e.toString());
+                    }
+                }
+                converted += repository.replaceCardCiphertexts(updates);
+                if (batch.size() < batchSize) {
+                    break;
+                }
+                after = batch.getLast().getId();
+                Thread.sleep(pauseMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // Converted batches stay converted; the next start continues with the rest
+            log.warn("Card ciphertext migration failed: {}", e.toString());
+        }
+        if (converted > 0 || skipped > 0) {
+            log.info("Converted {} legacy card ciphertexts ({} skipped)", converted, skipped);
+        }
+        return converted;
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.payment.service;
+
+import com.example.payment.cache.LruCache;
+import com.example.payment.domain.IdempotencyKey;
+import com.example.payment.domain.Payment;
+import com.example.payment.repository.IdempotencyKeyRepository;
+import com.example.payment.security.CardFingerprinter;
+import com.example.payment.service.PaymentService.NewPayment;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code Idempotency-Key} handling of {@code POST /api/payments}: a key creates at most one
+ * payment, and repeats of the request get that payment back without another write. Keys are
+ * claimed in {@code payment_idempotency_keys}, whose {@code _id} makes the claim atomic across
+ * nodes. On this node, repeats of a request still in flight wait for it instead of racing it, and
+ * recently completed keys are answered from memory.
+ */
+@Service
+public class PaymentIdempotencyService {
+    private static final Logger log = LoggerFactory.getLogger(PaymentIdempotencyService.class);
+
+    static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * @param created the payment if this call created it; null for a replay, which only knows its id
+     */
+    public record Outcome(String paymentId, Payment created) {
+        public boolean replayed() {
+            return created == null;
+        }
+    }
+
+    private record InFlight(String requestFingerprint, CompletableFuture<String> paymentId) {
+    }
+
+    private record Completed(String requestFingerprint, String paymentId) {
+    }
+
+    private final IdempotencyKeyRepository repository;
+    private final PaymentService paymentService;
+    private final CardFingerprinter fingerprinter;
+    private final Duration lease;
+    private final ConcurrentHashMap<String, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final LruCache<String, Completed> completed;
+
+    public PaymentIdempotencyService(IdempotencyKeyRepository repository,
+                                     PaymentService paymentService,
+                                     CardFingerprinter fingerprinter,
+                                     @Value("${payment.idempotency.ttl-ms:86400000}") long ttlMs,
+                                     @Value("${payment.idempotency.lease-ms:60000}") long leaseMs,
+                                     @Value("${payment.idempotency.cache-size:10000}") int cacheSize) {
+        if (ttlMs < 1 || leaseMs < 1) {
+            throw new IllegalArgumentException("payment.idempotency.ttl-ms and lease-ms must be >= 1");
+        }
+        this.repository = repository;
+        this.paymentService = paymentService;
+        this.fingerprinter = fingerprinter;
+        this.lease = Duration.ofMillis(leaseMs);
+        // Not kept longer than the stored key
+        this.completed = new LruCache<>(cacheSize, Duration.ofMillis(ttlMs));
+    }
+
+    /**
+     * Creates the payment unless {@code key} already created one.
+     *
+     * @throws IllegalArgumentException if the key is malformed or was used with a different request
+     * @throws ConflictException        if another node is still processing the key
+     */
+    public Outcome createPayment(String key, NewPayment request) {
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency-Key must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        String fingerprint = fingerprint(request);
+        Completed done = completed.get(key);
+        if (done != null) {
+            requireSameRequest(done.requestFingerprint(), fingerprint);
+            return new Outcome(done.paymentId(), null);
+        }
+        InFlight mine = new InFlight(fingerprint, new CompletableFuture<>());
+        InFlight running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            requireSameRequest(running.requestFingerprint(), fingerprint);
+            return new Outcome(await(running.paymentId()), null);
+        }
+        try {
+            Outcome outcome = claimAndCreate(key, fingerprint, request);
+            completed.put(key, new Completed(fingerprint, outcome.paymentId()));
+            mine.paymentId().complete(outcome.paymentId());
+            return outcome;
+        } catch (RuntimeException e) {
+            mine.paymentId().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private Outcome claimAndCreate(String key, String fingerprint, NewPayment request) {
+        Instant now = Instant.now();
+        IdempotencyKey claim = new IdempotencyKey();
+        claim.setId(key);
+        claim.setRequestFingerprint(fingerprint);
+        // Claimed with the id its payment will get, so a takeover can tell whether it was created
+        claim.setPaymentId(new ObjectId().toHexString());
+        claim.setLeaseExpiresAt(now.plus(lease));
+        claim.setCreatedAt(now);
+        try {
+            repository.insert(claim);
+        } catch (DuplicateKeyException e) {
+            IdempotencyKey existing = repository.findById(key)
+                    .orElseThrow(() -> new ConflictException("Idempotency-Key is being released, retry"));
+            requireSameRequest(existing.getRequestFingerprint(), fingerprint);
+            if (existing.getCompletedAt() != null) {
+                return new Outcome(existing.getPaymentId(), null);
+            }
+            if (!repository.takeOverExpiredLease(key, now, now.plus(lease))) {
+                throw new ConflictException("A request with this Idempotency-Key is still in progress");
+            }
+            claim = existing;
+            if (paymentService.findPayment(claim.getPaymentId()).isPresent()) {
+                // The first request created the payment but did not complete the key
+                complete(key);
+                return new Outcome(claim.getPaymentId(), null);
+            }
+        }
+        Payment p;
+        try {
+            p = paymentService.createPayment(claim.getPaymentId(), request.firstName(), request.lastName(),
+                    request.zipCode(), request.cardNumber());
+        } catch (RuntimeException e) {
+            // The payment may or may not exist; a retry takes the key over at once and finds out
+            repository.release(key);
+            throw e;
+        }
+        complete(key);
+        return new Outcome(p.getId(), p);
+    }
+
+    private void complete(String key) {
+        try {
+            repository.complete(key);
+        } catch (RuntimeException e) {
+            // The payment exists under the claimed id, so a takeover replays it instead of creating another
+            log.warn("Could not complete Idempotency-Key {}: {}", key, e.toString());
+        }
+    }
+
+    private String fingerprint(NewPayment request) {
+        // Keyed, as the request contains the card number
+        return fingerprinter.fingerprint(String.join("\u0000", request.firstName(), request.lastName(),
+                request.zipCode(), request.cardNumber()));
+    }
+
+    private static void requireSameRequest(String expected, String actual) {
+        if (!expected.equals(actual)) {
+            throw new IllegalArgumentException("Idempotency-Key was already used with a different request");
+        }
+    }
+
+    private static String await(CompletableFuture<String> paymentId) {
+        try {
+            return paymentId.join();
+        } catch (CompletionException e) {
+            // The first request failed; its waiters fail the same way
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+}
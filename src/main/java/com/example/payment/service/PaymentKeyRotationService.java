@@ -0,0 +1,285 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.CardToken;
+import com.example.payment.domain.Payment;
+import com.example.payment.repository.CardTokenRepository;
+import com.example.payment.repository.CardTokenRepositoryCustom.TokenCiphertextUpdate;
+import com.example.payment.repository.PaymentRepository;
+import com.example.payment.repository.PaymentRepositoryCustom.CardCiphertextUpdate;
+import com.example.payment.security.EncryptionService;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Re-encrypts card numbers with the active key, online, after a key has been added to the
+ * keyring. A rotation is a background job that streams the payments, then the vaulted cards, not
+ * sealed with that key in {@code _id} order, one page ({@code payment.key-rotation.page-size})
+ * at a time, and hands each page to a worker that decrypts, re-encrypts and writes it back in one bulk write. At most
+ * {@code parallelism} pages are in flight, which bounds memory, and the job averages at most its
+ * rate, so regular traffic keeps its throughput. Jobs are tracked in memory on the node that
+ * started them; a rotation can be restarted at any time and continues with what is left.
+ */
+@Service
+public class PaymentKeyRotationService {
+    private static final Logger log = LoggerFactory.getLogger(PaymentKeyRotationService.class);
+
+    // Finished jobs kept for progress queries
+    private static final int MAX_FINISHED_JOBS = 20;
+
+    public enum State {
+        RUNNING,
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+
+    /**
+     * Counts cover payments and vaulted cards together.
+     *
+     * @param keyId  id of the key card numbers are re-encrypted with
+     * @param failed card numbers that could not be decrypted, e.g. because their key left the ring
+     */
+    public record Progress(String id, State state, int keyId, int ratePerSecond, long total, long scanned,
+                           long rotated, long failed, Instant startedAt, Instant finishedAt, String error) {
+    }
+
+    private final PaymentRepository repository;
+    private final CardTokenRepository cardTokenRepository;
+    private final PaymentService paymentService;
+    private final EncryptionService encryptionService;
+    private final int defaultRate;
+    private final int pageSize;
+    private final int parallelism;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    // Guarded by this; insertion order, so the eldest finished jobs are dropped first
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+
+    public PaymentKeyRotationService(PaymentRepository repository,
+                                     CardTokenRepository cardTokenRepository,
+                                     PaymentService paymentService,
+                                     EncryptionService encryptionService,
+                                     @Value("${payment.key-rotation.rate-per-second:2000}") int defaultRate,
+                                     @Value("${payment.key-rotation.page-size:500}") int pageSize,
+                                     @Value("${payment.key-rotation.parallelism:4}") int parallelism) {
+        if (defaultRate < 1 || pageSize < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("payment.key-rotation.rate-per-second, page-size and parallelism must be >= 1");
+        }
+        this.repository = repository;
+        this.cardTokenRepository = cardTokenRepository;
+        this.paymentService = paymentService;
+        this.encryptionService = encryptionService;
+        this.defaultRate = defaultRate;
+        this.pageSize = pageSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Starts re-encrypting every card number not sealed with the active key. One rotation runs at a time.
+     *
+     * @param ratePerSecond card numbers re-encrypted per second; null for the configured default
+     * @throws ConflictException if another rotation is still running
+     */
+    public synchronized Progress startRotation(Integer ratePerSecond) {
+        for (Job job : jobs.values()) {
+            if (job.state == State.RUNNING) {
+                throw new ConflictException("Key rotation " + job.id + " is still running");
+            }
+        }
+        Job job = new Job(UUID.randomUUID().toString(), encryptionService.activeKeyId(),
+                ratePerSecond != null ? ratePerSecond : defaultRate);
+        jobs.put(job.id, job);
+        pruneFinished();
+        log.info("Starting key rotation {} to key {} ({}/s)", job.id, job.keyId, job.rate);
+        executor.execute(() -> run(job));
+        return job.progress();
+    }
+
+    /**
+     * @return the job's progress, or null if it is unknown to this node
+     */
+    public synchronized Progress progress(String id) {
+        Job job = jobs.get(id);
+        return job != null ? job.progress() : null;
+    }
+
+    public synchronized List<Progress> rotations() {
+        return jobs.values().stream().map(Job::progress).toList();
+    }
+
+    /**
+     * Asks a running job to stop; pages already handed to workers are still written.
+     *
+     * @return the job's progress, or null if it is unknown to this node
+     */
+    public synchronized Progress cancel(String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return null;
+        }
+        job.cancelled = true;
+        return job.progress();
+    }
+
+    private void run(Job job) {
+        try {
+            job.total = repository.countNotSealedWith(job.keyId) + cardTokenRepository.countNotSealedWith(job.keyId);
+            streamPages(job, (after, limit) -> repository.findNotSealedWith(job.keyId, after, limit),
+                    Payment::getId, page -> rotatePayments(job, page));
+            streamPages(job, (after, limit) -> cardTokenRepository.findNotSealedWith(job.keyId, after, limit),
+                    CardToken::getId, page -> rotateTokens(job, page));
+            if (job.error != null) {
+                job.finish(State.FAILED, job.error);
+            } else {
+                job.finish(job.cancelled ? State.CANCELLED : State.COMPLETED, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.finish(State.CANCELLED, null);
+        } catch (Exception e) {
+            log.error("Key rotation {} failed: {}", job.id, e.toString());
+            job.finish(State.FAILED, e.toString());
+        }
+        log.info("Key rotation {} {}: {} of {} card numbers re-encrypted, {} failed",
+                job.id, job.state, job.rotated.get(), job.total, job.failed.get());
+    }
+
+    private <T> void streamPages(Job job, BiFunction<String, Integer, List<T>> reader, Function<T, String> idOf,
+                                 ToLongFunction<List<T>> rotator) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(parallelism);
+        // Closing waits for the pages still in flight
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            String after = null;
+            while (!job.cancelled && job.error == null) {
+                long pageStarted = System.nanoTime();
+                int limit = Math.min(pageSize, job.rate);
+                List<T> page = reader.apply(after, limit);
+                if (page.isEmpty()) {
+                    break;
+                }
+                after = idOf.apply(page.getLast());
+                job.scanned.addAndGet(page.size());
+                inFlight.acquire();
+                workers.execute(() -> {
+                    try {
+                        job.rotated.addAndGet(rotator.applyAsLong(page));
+                    } catch (Exception e) {
+                        log.error("Key rotation {} could not write a page: {}", job.id, e.toString());
+                        job.error = e.toString();
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+                if (page.size() < limit) {
+                    break;
+                }
+                // Pace pages so the job averages at most its rate
+                long pageNanos = TimeUnit.SECONDS.toNanos(page.size()) / job.rate;
+                TimeUnit.NANOSECONDS.sleep(pageStarted + pageNanos - System.nanoTime());
+            }
+        }
+    }
+
+    private long rotatePayments(Job job, List<Payment> page) {
+        List<CardCiphertextUpdate> updates = new ArrayList<>(page.size());
+        for (Payment p : page) {
+            try {
+                byte[] current = p.getCardCiphertext();
+                if (current != null && EncryptionService.keyIdOf(current) == job.keyId) {
+                    // Already sealed with the key; only cardKeyId is missing
+                    updates.add(new CardCiphertextUpdate(p, current, job.keyId));
+                } else {
+                    byte[] ciphertext = encryptionService.encryptToBinary(paymentService.decryptCardNumber(p));
+                    updates.add(new CardCiphertextUpdate(p, ciphertext, job.keyId));
+                }
+            } catch (RuntimeException e) {
+                // Stays behind for a later run, e.g. once its key is back in the ring
+                job.failed.incrementAndGet();
+                log.warn("Payment {} could not be re-encrypted: {}", p.getId(), e.toString());
+            }
+        }
+        return repository.replaceCardCiphertexts(updates);
+    }
+
+    private long rotateTokens(Job job, List<CardToken> page) {
+        List<TokenCiphertextUpdate> updates = new ArrayList<>(page.size());
+        for (CardToken token : page) {
+            try {
+                byte[] ciphertext = encryptionService.encryptToBinary(encryptionService.decrypt(token.getCardCiphertext()));
+                updates.add(new TokenCiphertextUpdate(token, ciphertext, job.keyId));
+            } catch (RuntimeException e) {
+                job.failed.incrementAndGet();
+                log.warn("Card token {} could not be re-encrypted: {}", token.getId(), e.toString());
+            }
+        }
+        return cardTokenRepository.replaceCiphertexts(updates);
+    }
+
+    private void pruneFinished() {
+        long finished = jobs.values().stream().filter(job -> job.state != State.RUNNING).count();
+        Iterator<Job> it = jobs.values().iterator();
+        while (finished > MAX_FINISHED_JOBS && it.hasNext()) {
+            if (it.next().state != State.RUNNING) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Interrupted jobs end as CANCELLED; card numbers they did not reach keep their old key
+        executor.shutdownNow();
+    }
+
+    private static final class Job {
+        final String id;
+        final int keyId;
+        final int rate;
+        final Instant startedAt = Instant.now();
+        final AtomicLong scanned = new AtomicLong();
+        final AtomicLong rotated = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        volatile long total;
+        volatile boolean cancelled;
+        volatile State state = State.RUNNING;
+        volatile Instant finishedAt;
+        volatile String error;
+
+        Job(String id, int keyId, int rate) {
+            this.id = id;
+            this.keyId = keyId;
+            this.rate = rate;
+        }
+
+        void finish(State state, String error) {
+            this.error = error;
+            this.finishedAt = Instant.now();
+            this.state = state;
+        }
+
+        Progress progress() {
+            return new Progress(id, state, keyId, rate, total, scanned.get(), rotated.get(), failed.get(),
+                    startedAt, finishedAt, error);
+        }
+    }
+}
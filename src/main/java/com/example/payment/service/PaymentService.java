@@ -2,56 +2,192 @@ package com.example.payment.service;
 
 import com.example.payment.domain.Payment;
 import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookPayload;
 import com.example.payment.domain.WebhookRegistration;
 import com.example.payment.domain.WebhookStatus;
 import com.example.payment.repository.PaymentRepository;
+import com.example.payment.repository.PaymentRepositoryCustom.PageCursor;
+import com.example.payment.repository.PaymentRepositoryCustom.PaymentFilter;
 import com.example.payment.repository.WebhookEventRepository;
-import com.example.payment.repository.WebhookRegistrationRepository;
+import com.example.payment.repository.WebhookPayloadRepository;
 import com.example.payment.security.EncryptionService;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
 
 @Service
 public class PaymentService {
     private static final Logger log = LoggerFactory.getLogger(PaymentService.class);
 
+    /**
+     * @param nextCursor cursor for the next page, or null if this was the last one
+     */
+    public record PaymentPage(List<Payment> items, String nextCursor) {
+    }
+
+    public record NewPayment(String firstName, String lastName, String zipCode, String cardNumber) {
+    }
+
     private final PaymentRepository paymentRepository;
-    private final WebhookRegistrationRepository webhookRegistrationRepository;
+    private final PaymentBatchWriter batchWriter;
+    private final WebhookRegistry webhookRegistry;
     private final WebhookEventRepository webhookEventRepository;
+    private final WebhookPayloadRepository webhookPayloadRepository;
     private final EncryptionService encryptionService;
+    private final CardVaultService cardVaultService;
     private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
 
     public PaymentService(PaymentRepository paymentRepository,
-                          WebhookRegistrationRepository webhookRegistrationRepository,
+                          PaymentBatchWriter batchWriter,
+                          WebhookRegistry webhookRegistry,
                           WebhookEventRepository webhookEventRepository,
+                          WebhookPayloadRepository webhookPayloadRepository,
                           EncryptionService encryptionService,
-                          ObjectMapper objectMapper) {
+                          CardVaultService cardVaultService,
+                          ObjectMapper objectMapper,
+                          ApplicationEventPublisher eventPublisher) {
         this.paymentRepository = paymentRepository;
-        this.webhookRegistrationRepository = webhookRegistrationRepository;
+        this.batchWriter = batchWriter;
+        this.webhookRegistry = webhookRegistry;
         this.webhookEventRepository = webhookEventRepository;
+        this.webhookPayloadRepository = webhookPayloadRepository;
         this.encryptionService = encryptionService;
+        this.cardVaultService = cardVaultService;
         this.objectMapper = objectMapper;
+        this.eventPublisher = eventPublisher;
     }
 
     @Transactional
     public Payment createPayment(String firstName, String lastName, String zipCode, String cardNumber) {
+        return createPayment(null, firstName, lastName, zipCode, cardNumber);
+    }
+
+    /**
+     * @param id id for the payment, or null to generate one; saving again under the same id
+     *           replaces the payment rather than adding another
+     */
+    @Transactional
+    public Payment createPayment(String id, String firstName, String lastName, String zipCode, String cardNumber) {
+        Payment p = newPayment(firstName, lastName, zipCode, cardNumber);
+        p.setId(id);
+        p.setCardTokenId(cardNumber != null ? cardVaultService.tokenize(cardNumber) : null);
+        // Joins concurrent creations into one insert when group commit is enabled
+        p = batchWriter.save(p);
+
+        try {
+            List<WebhookRegistration> targets = webhookRegistry.activeRegistrations();
+            if (targets.isEmpty()) {
+                return p;
+            }
+            Instant now = Instant.now();
+            // The body is stored once; every event of the fan-out references it
+            WebhookPayload stored = payloadOf(p, now);
+            webhookPayloadRepository.insert(stored);
+
+            List<WebhookEvent> events = eventsFor(targets, stored, now);
+            // One round trip for the whole fan-out, whatever the number of subscribers
+            webhookEventRepository.insertAllUnordered(events);
+            eventPublisher.publishEvent(new WebhookEventsEnqueued(events, stored));
+        } catch (Exception e) {
+            log.error("Failed to enqueue webhook events for payment {}", p.getId(), e);
+        }
+        return p;
+    }
+
+    /**
+     * Creates a batch of payments with a fixed number of round trips: card numbers are
+     * tokenized in parallel by the {@link CardVaultService}, then payments, webhook payloads and
+     * the events of every subscriber are each written in one bulk insert. A payment the insert
+     * rejects does not keep the others, or their webhooks, from being stored.
+     *
+     * @return the payments in the order of {@code requests}, null where a payment was not stored
+     */
+    public List<Payment> createPayments(List<NewPayment> requests) {
+        if (requests.isEmpty()) {
+            return List.of();
+        }
+        List<String> tokenIds = cardVaultService.tokenizeAll(requests.stream().map(NewPayment::cardNumber).toList());
+        List<Payment> payments = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            NewPayment req = requests.get(i);
+            Payment p = newPayment(req.firstName(), req.lastName(), req.zipCode(), req.cardNumber());
+            // Bulk inserts do not write generated ids back to the entities
+            p.setId(new ObjectId().toHexString());
+            p.setCardTokenId(tokenIds.get(i));
+            payments.add(p);
+        }
+        Set<Integer> rejected = paymentRepository.insertAllUnordered(payments);
+        if (!rejected.isEmpty()) {
+            log.warn("{} of {} bulk payments were not stored", rejected.size(), payments.size());
+            for (int i : rejected) {
+                payments.set(i, null);
+            }
+        }
+        List<Payment> stored = payments.stream().filter(Objects::nonNull).toList();
+        if (stored.isEmpty()) {
+            return payments;
+        }
+
+        try {
+            List<WebhookRegistration> targets = webhookRegistry.activeRegistrations();
+            if (targets.isEmpty()) {
+                return payments;
+            }
+            Instant now = Instant.now();
+            List<WebhookPayload> payloads = new ArrayList<>(stored.size());
+            List<List<WebhookEvent>> fanOuts = new ArrayList<>(stored.size());
+            List<WebhookEvent> events = new ArrayList<>(stored.size() * targets.size());
+            for (Payment p : stored) {
+                WebhookPayload payload = payloadOf(p, now);
+                List<WebhookEvent> fanOut = eventsFor(targets, payload, now);
+                payloads.add(payload);
+                fanOuts.add(fanOut);
+                events.addAll(fanOut);
+            }
+            webhookPayloadRepository.insert(payloads);
+            webhookEventRepository.insertAllUnordered(events);
+            for (int i = 0; i < payloads.size(); i++) {
+                eventPublisher.publishEvent(new WebhookEventsEnqueued(fanOuts.get(i), payloads.get(i)));
+            }
+        } catch (Exception e) {
+            log.error("Failed to enqueue webhook events for {} payments from {}", stored.size(),
+                    stored.getFirst().getId(), e);
+        }
+        return payments;
+    }
+
+    private static Payment newPayment(String firstName, String lastName, String zipCode, String cardNumber) {
         Payment p = new Payment();
         p.setFirstName(firstName);
         p.setLastName(lastName);
         p.setZipCode(zipCode);
-        p.setCreatedAt(Instant.now());
+        // Mongo keeps milliseconds; finer precision would make the response written through on
+        // creation differ, ETag included, from the one later read back
+        p.setCreatedAt(Instant.now().truncatedTo(ChronoUnit.MILLIS));
         p.setCardLast4(cardNumber != null && cardNumber.length() >= 4 ? cardNumber.substring(cardNumber.length() - 4) : null);
-        p.setCardEncrypted(encryptionService.encrypt(cardNumber));
-        p = paymentRepository.save(p);
+        return p;
+    }
 
+    private WebhookPayload payloadOf(Payment p, Instant now) throws JsonProcessingException {
         // Build webhook payload (no sensitive data)
         Map<String, Object> payload = new HashMap<>();
         payload.put("type", "payment.created");
@@ -64,23 +200,95 @@ public class PaymentService {
         data.put("createdAt", p.getCreatedAt());
         payload.put("data", data);
 
+        WebhookPayload stored = new WebhookPayload();
+        stored.setId(new ObjectId().toHexString());
+        stored.setJson(objectMapper.writeValueAsString(payload));
+        stored.setCreatedAt(now);
+        return stored;
+    }
+
+    private static List<WebhookEvent> eventsFor(List<WebhookRegistration> targets, WebhookPayload payload, Instant now) {
+        List<WebhookEvent> events = new ArrayList<>(targets.size());
+        for (WebhookRegistration target : targets) {
+            WebhookEvent ev = new WebhookEvent();
+            ev.setId(new ObjectId().toHexString());
+            ev.setTargetUrl(target.getEndpointUrl());
+            ev.setPayloadId(payload.getId());
+            ev.setStatus(WebhookStatus.PENDING);
+            ev.setAttempts(0);
+            ev.setCreatedAt(now);
+            // Batched subscribers: the event lingers so later ones can join its POST
+            ev.setNextAttemptAt(target.getBatchSize() > 1 ? now.plusMillis(target.getBatchLingerMs()) : now);
+            events.add(ev);
+        }
+        return events;
+    }
+
+    public Optional<Payment> findPayment(String id) {
+        return paymentRepository.findById(id);
+    }
+
+    /**
+     * One page of payments, newest first. Pages are keyed on (createdAt, id) rather than
+     * skipped over, so every page costs the same however deep the client has paged.
+     *
+     * @param cursor {@code nextCursor} of the previous page, or null for the first one
+     * @throws IllegalArgumentException if the cursor is not one this service issued
+     */
+    public PaymentPage listPayments(PaymentFilter filter, String cursor, int limit) {
+        List<Payment> items = paymentRepository.findPage(filter, decodeCursor(cursor), limit);
+        String nextCursor = items.size() == limit ? encodeCursor(items.getLast()) : null;
+        return new PaymentPage(items, nextCursor);
+    }
+
+    /**
+     * Every payment matching {@code filter}, newest first, read lazily from a database cursor.
+     * The caller must close the stream.
+     */
+    public Stream<Payment> streamPayments(PaymentFilter filter) {
+        return paymentRepository.streamAll(filter);
+    }
+
+    static String encodeCursor(Payment last) {
+        String position = last.getCreatedAt().toEpochMilli() + ":" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static PageCursor decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
         try {
-            String json = objectMapper.writeValueAsString(payload);
-            List<String> targets = webhookRegistrationRepository.findByActiveTrue()
-                    .stream().map(WebhookRegistration::getEndpointUrl).toList();
-            for (String target : targets) {
-                WebhookEvent ev = new WebhookEvent();
-                ev.setTargetUrl(target);
-                ev.setPayloadJson(json);
-                ev.setStatus(WebhookStatus.PENDING);
-                ev.setAttempts(0);
-                ev.setCreatedAt(Instant.now());
-                ev.setNextAttemptAt(Instant.now());
-                webhookEventRepository.save(ev);
+            String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            int sep = position.indexOf(':');
+            String id = position.substring(sep + 1);
+            if (sep < 1 || !ObjectId.isValid(id)) {
+                throw new IllegalArgumentException("Invalid cursor");
             }
-        } catch (Exception e) {
-            log.error("Failed to enqueue webhook events for payment {}", p.getId(), e);
+            return new PageCursor(Instant.ofEpochMilli(Long.parseLong(position, 0, sep, 10)), id);
+        } catch (IllegalArgumentException e) {
+            // Also covers bad base64 and NumberFormatException
+            throw new IllegalArgumentException("Invalid cursor");
         }
-        return p;
+    }
+
+    /**
+     * Decrypts a payment's card number from wherever it is stored: the vault, the binary
+     * {@code cardCiphertext} of payments created before it, or the legacy {@code cardEncrypted}
+     * string of payments the {@link PaymentCiphertextMigrator} has not converted yet.
+     *
+     * @return the card number, or null if the payment has none
+     */
+    public String decryptCardNumber(Payment p) {
+        if (p.getCardTokenId() != null) {
+            return cardVaultService.decryptCardNumber(p.getCardTokenId());
+        }
+        if (p.getCardCiphertext() != null) {
+            return encryptionService.decrypt(p.getCardCiphertext());
+        }
+        if (p.getCardEncrypted() != null) {
+            return encryptionService.decrypt(p.getCardEncrypted());
+        }
+        return null;
     }
 }
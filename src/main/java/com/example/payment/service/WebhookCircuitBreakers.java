@@ -0,0 +1,167 @@
+package com.example.payment.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * One circuit breaker per webhook target URL. After {@code failure-threshold} consecutive
+ * failures a breaker opens for {@code open-ms}; once that elapses a single probe delivery is
+ * let through (half-open) and its result closes or re-opens the breaker.
+ */
+@Component
+public class WebhookCircuitBreakers {
+    private static final Logger log = LoggerFactory.getLogger(WebhookCircuitBreakers.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public enum Permit {
+        // Deliver normally
+        ALLOW,
+        // Deliver as the single half-open probe; report the result
+        PROBE,
+        // Do not call the endpoint
+        REJECT
+    }
+
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final ConcurrentMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    public WebhookCircuitBreakers(@Value("${webhook.breaker.failure-threshold:5}") int failureThreshold,
+                                  @Value("${webhook.breaker.open-ms:30000}") long openMs) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("webhook.breaker.failure-threshold must be >= 1");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDuration = Duration.ofMillis(openMs);
+    }
+
+    public Permit acquire(String target, Instant now) {
+        Breaker breaker = breakers.get(target);
+        return breaker == null ? Permit.ALLOW : breaker.acquire(now);
+    }
+
+    public void onSuccess(String target) {
+        Breaker breaker = breakers.get(target);
+        if (breaker != null) {
+            breaker.onSuccess(target);
+        }
+    }
+
+    /**
+     * Records a failed delivery.
+     *
+     * @return the time until which the endpoint should be left alone if this failure opened
+     * the breaker, otherwise null
+     */
+    public Instant onFailure(String target, Instant now) {
+        return breakers.computeIfAbsent(target, t -> new Breaker()).onFailure(target, now);
+    }
+
+    /**
+     * Hands back a probe permit that was not used (e.g. the host had no free slot).
+     */
+    public void abandonProbe(String target) {
+        Breaker breaker = breakers.get(target);
+        if (breaker != null) {
+            breaker.abandonProbe();
+        }
+    }
+
+    /**
+     * Targets that would currently be rejected; their events need not be claimed.
+     */
+    public Set<String> rejectingTargets(Instant now) {
+        Set<String> rejecting = new HashSet<>();
+        breakers.forEach((target, breaker) -> {
+            if (breaker.rejects(now)) {
+                rejecting.add(target);
+            }
+        });
+        return rejecting;
+    }
+
+    public State state(String target) {
+        Breaker breaker = breakers.get(target);
+        return breaker == null ? State.CLOSED : breaker.state();
+    }
+
+    private final class Breaker {
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private Instant openUntil;
+        private boolean probeInFlight;
+
+        synchronized Permit acquire(Instant now) {
+            return switch (state) {
+                case CLOSED -> Permit.ALLOW;
+                case OPEN -> {
+                    if (now.isBefore(openUntil)) {
+                        yield Permit.REJECT;
+                    }
+                    state = State.HALF_OPEN;
+                    probeInFlight = true;
+                    yield Permit.PROBE;
+                }
+                case HALF_OPEN -> {
+                    if (probeInFlight) {
+                        yield Permit.REJECT;
+                    }
+                    probeInFlight = true;
+                    yield Permit.PROBE;
+                }
+            };
+        }
+
+        synchronized void onSuccess(String target) {
+            if (state != State.CLOSED) {
+                log.info("Circuit for webhook target {} closed", target);
+            }
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            probeInFlight = false;
+        }
+
+        synchronized Instant onFailure(String target, Instant now) {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                state = State.OPEN;
+                probeInFlight = false;
+                openUntil = now.plus(openDuration);
+                log.warn("Circuit for webhook target {} opened until {} after {} consecutive failures",
+                        target, openUntil, consecutiveFailures);
+                return openUntil;
+            }
+            return null;
+        }
+
+        synchronized void abandonProbe() {
+            probeInFlight = false;
+        }
+
+        synchronized boolean rejects(Instant now) {
+            return switch (state) {
+                case CLOSED -> false;
+                case OPEN -> now.isBefore(openUntil);
+                case HALF_OPEN -> probeInFlight;
+            };
+        }
+
+        synchronized State state() {
+            return state;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookStatus;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scheduling lanes of the dispatcher. First attempts (FRESH) and retries (RETRY) are claimed by
+ * separate queries; retries may hold at most {@code retryConcurrency} delivery slots, so a retry
+ * storm always leaves room for new payments. While both lanes have work, free slots are split
+ * by weight, carrying the fractional remainder over so small splits stay fair over time.
+ */
+public final class WebhookDispatchLanes {
+
+    public enum Lane {
+        FRESH(WebhookStatus.PENDING),
+        RETRY(WebhookStatus.RETRY);
+
+        private final WebhookStatus status;
+
+        Lane(WebhookStatus status) {
+            this.status = status;
+        }
+
+        public WebhookStatus status() {
+            return status;
+        }
+    }
+
+    public record LaneStats(Lane lane, int inFlight, int maxInFlight, long started, long queueDepth,
+                            long oldestDueAgeMs) {
+    }
+
+    private final int concurrency;
+    private final int retryConcurrency;
+    private final int freshWeight;
+    private final int retryWeight;
+    private final Semaphore retryPermits;
+    private final Map<Lane, AtomicInteger> inFlight = new EnumMap<>(Lane.class);
+    private final Map<Lane, LongAdder> started = new EnumMap<>(Lane.class);
+
+    // Guarded by this; only the sweep splits capacity
+    private double freshCredit;
+    private volatile boolean retryBusy;
+
+    WebhookDispatchLanes(int concurrency, int retryConcurrency, int freshWeight, int retryWeight) {
+        if (retryConcurrency < 1 || retryConcurrency > concurrency || freshWeight < 1 || retryWeight < 1) {
+            throw new IllegalArgumentException(
+                    "webhook.dispatch.retry-concurrency must be between 1 and concurrency, lane weights >= 1");
+        }
+        this.concurrency = concurrency;
+        this.retryConcurrency = retryConcurrency;
+        this.freshWeight = freshWeight;
+        this.retryWeight = retryWeight;
+        this.retryPermits = new Semaphore(retryConcurrency);
+        for (Lane lane : Lane.values()) {
+            inFlight.put(lane, new AtomicInteger());
+            started.put(lane, new LongAdder());
+        }
+    }
+
+    /**
+     * A delivery counts as a retry as soon as one of its events was attempted before.
+     */
+    static Lane laneOf(List<WebhookEvent> events) {
+        for (WebhookEvent ev : events) {
+            if (ev.getAttempts() > 0) {
+                return Lane.RETRY;
+            }
+        }
+        return Lane.FRESH;
+    }
+
+    /**
+     * How many of {@code free} delivery slots the FRESH lane may claim this round. Everything,
+     * unless retries are waiting and could use some of them.
+     */
+    synchronized int freshShare(int free) {
+        int retryRoom = Math.min(free, retryPermits.availablePermits());
+        if (!retryBusy || retryRoom == 0) {
+            return free;
+        }
+        double exact = (double) free * freshWeight / (freshWeight + retryWeight) + freshCredit;
+        int share = (int) exact;
+        freshCredit = exact - share;
+        return Math.max(share, free - retryRoom);
+    }
+
+    /**
+     * How many of {@code free} delivery slots the RETRY lane may claim.
+     */
+    int retryCapacity(int free) {
+        return Math.min(free, retryPermits.availablePermits());
+    }
+
+    /**
+     * Records the result of a RETRY page; a full page, or one that could not be claimed for lack
+     * of slots, means retries are (or may be) waiting.
+     */
+    void onRetryPage(int limit, int claimed) {
+        retryBusy = limit == 0 || claimed == limit;
+    }
+
+    boolean tryAcquire(Lane lane) {
+        if (lane == Lane.RETRY && !retryPermits.tryAcquire()) {
+            return false;
+        }
+        inFlight.get(lane).incrementAndGet();
+        return true;
+    }
+
+    void onStarted(Lane lane) {
+        started.get(lane).increment();
+    }
+
+    void release(Lane lane) {
+        inFlight.get(lane).decrementAndGet();
+        if (lane == Lane.RETRY) {
+            retryPermits.release();
+        }
+    }
+
+    LaneStats stats(Lane lane, long queueDepth, Duration oldestDueAge) {
+        return new LaneStats(lane, inFlight.get(lane).get(), lane == Lane.RETRY ? retryConcurrency : concurrency,
+                started.get(lane).sum(), queueDepth, oldestDueAge.toMillis());
+    }
+}
@@ -1,112 +1,696 @@
 package com.example.payment.service;
 
 import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookPayload;
+import com.example.payment.domain.WebhookRegistration;
 import com.example.payment.domain.WebhookStatus;
 import com.example.payment.repository.WebhookEventRepository;
+import com.example.payment.repository.WebhookEventRepositoryCustom;
+import com.example.payment.repository.WebhookPayloadRepository;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
 
+import java.net.InetAddress;
 import java.net.URI;
+import java.net.UnknownHostException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.DateTimeException;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class WebhookDispatcherService {
     private static final Logger log = LoggerFactory.getLogger(WebhookDispatcherService.class);
 
+    private static final int WHEEL_TICKS = 512;
+    // Deadlines beyond this are left to the sweep
+    private static final int WHEEL_CAPACITY = 100_000;
+    // Retry-After values beyond this are capped; a misbehaving endpoint cannot park events for days
+    private static final Duration MAX_RETRY_AFTER = Duration.ofHours(1);
+
     private final WebhookEventRepository repository;
+    private final WebhookPayloadRepository payloadRepository;
+    private final WebhookOutcomeWriter outcomeWriter;
+    private final WebhookCircuitBreakers breakers;
+    private final WebhookRegistry registry;
     private final HttpClient httpClient;
 
     private final boolean enabled;
     private final int maxAttempts;
     private final long baseBackoffMs;
     private final long maxBackoffMs;
+    private final int concurrency;
+    private final int maxPerHost;
+    private final String nodeId;
+    private final Duration lease;
+    private final int batchSize;
+
+    // Deliveries run on virtual threads; a semaphore bounds how many are in flight globally and
+    // an adaptive limit per target host keeps one slow or throttling subscriber from holding up
+    // everyone else.
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore inFlightPermits;
+    private final ConcurrentMap<String, WebhookHostLimiter> hostLimiters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> targetHosts = new ConcurrentHashMap<>();
+    private final WebhookDispatchLanes lanes;
+
+    // Deadlines of events this node enqueued or attempted fire from the wheel; Mongo polling is
+    // only a reconciliation sweep for events the wheel does not know about
+    private final HashedTimerWheel<String> deadlineWheel;
+    // Set when a sweep stopped for lack of capacity; the next finished delivery resumes it
+    private final AtomicBoolean backlogged = new AtomicBoolean();
+    private final ReentrantLock sweepLock = new ReentrantLock();
 
     public WebhookDispatcherService(WebhookEventRepository repository,
+                                    WebhookPayloadRepository payloadRepository,
+                                    WebhookOutcomeWriter outcomeWriter,
+                                    WebhookCircuitBreakers breakers,
+                                    WebhookRegistry registry,
                                     HttpClient httpClient,
                                     @Value("${webhook.dispatch.enabled:true}") boolean enabled,
                                     @Value("${webhook.dispatch.max-attempts:8}") int maxAttempts,
                                     @Value("${webhook.dispatch.base-backoff-ms:2000}") long baseBackoffMs,
-                                    @Value("${webhook.dispatch.max-backoff-ms:120000}") long maxBackoffMs) {
+                                    @Value("${webhook.dispatch.max-backoff-ms:120000}") long maxBackoffMs,
+                                    @Value("${webhook.dispatch.concurrency:3}") int concurrency,
+                                    @Value("${webhook.dispatch.max-per-host:4}") int maxPerHost,
+                                    @Value("${webhook.dispatch.node-id:}") String nodeId,
+                                    @Value("${webhook.dispatch.lease-ms:120000}") long leaseMs,
+                                    @Value("${webhook.dispatch.batch-size:100}") int batchSize,
+                                    @Value("${webhook.dispatch.wheel-tick-ms:50}") long wheelTickMs,
+                                    @Value("${webhook.dispatch.retry-concurrency:2}") int retryConcurrency,
+                                    @Value("${webhook.dispatch.fresh-weight:3}") int freshWeight,
+                                    @Value("${webhook.dispatch.retry-weight:1}") int retryWeight) {
+        if (concurrency < 1 || maxPerHost < 1 || batchSize < 1 || wheelTickMs < 1) {
+            throw new IllegalArgumentException("webhook.dispatch.concurrency, max-per-host, batch-size and wheel-tick-ms must be >= 1");
+        }
         this.repository = repository;
+        this.payloadRepository = payloadRepository;
+        this.outcomeWriter = outcomeWriter;
+        this.breakers = breakers;
+        this.registry = registry;
         this.httpClient = httpClient;
         this.enabled = enabled;
         this.maxAttempts = maxAttempts;
         this.baseBackoffMs = baseBackoffMs;
         this.maxBackoffMs = maxBackoffMs;
+        this.concurrency = concurrency;
+        this.maxPerHost = maxPerHost;
+        this.nodeId = nodeId == null || nodeId.isBlank() ? defaultNodeId() : nodeId;
+        this.lease = Duration.ofMillis(leaseMs);
+        this.batchSize = batchSize;
+        this.inFlightPermits = new Semaphore(concurrency);
+        this.lanes = new WebhookDispatchLanes(concurrency, retryConcurrency, freshWeight, retryWeight);
+        this.deadlineWheel = new HashedTimerWheel<>("webhook-deadline-wheel", wheelTickMs, WHEEL_TICKS, WHEEL_CAPACITY,
+                this::onDeadlines);
     }
 
-    @Scheduled(fixedDelayString = "${webhook.dispatch.base-backoff-ms:2000}")
+    /**
+     * Reconciliation sweep: claims whatever is due in Mongo, e.g. events enqueued or abandoned by
+     * other nodes and deadlines that did not fit the wheel. Each round claims a page of first
+     * attempts and a page of retries, sized by {@link WebhookDispatchLanes}.
+     */
+    @Scheduled(fixedDelayString = "${webhook.dispatch.sweep-interval-ms:15000}")
     public void dispatchLoop() {
         if (!enabled) return;
-        List<WebhookEvent> due = repository.findByStatusInAndNextAttemptAtLessThanEqual(
-                new ArrayList<>(EnumSet.of(WebhookStatus.PENDING, WebhookStatus.RETRY)), Instant.now());
-        for (WebhookEvent ev : due) {
-            tryDispatch(ev);
+        if (!sweepLock.tryLock()) {
+            // A sweep is running; make sure one follows if it stops for lack of capacity
+            backlogged.set(true);
+            return;
+        }
+        try {
+            Set<String> excluded = saturatedTargets();
+            excluded.addAll(breakers.rejectingTargets(Instant.now()));
+            while (true) {
+                // Only claim what can start right away so leases are not spent waiting locally
+                int free = inFlightPermits.availablePermits();
+                if (free == 0) {
+                    backlogged.set(true);
+                    return;
+                }
+                int freshLimit = Math.min(batchSize, lanes.freshShare(free));
+                List<WebhookEvent> fresh = claimLane(WebhookDispatchLanes.Lane.FRESH, freshLimit, excluded);
+                int submitted = dispatchClaimed(fresh, excluded, Map.of());
+
+                // Retries get what the first attempts left, within their own budget
+                int retryLimit = Math.min(batchSize, lanes.retryCapacity(inFlightPermits.availablePermits()));
+                List<WebhookEvent> retries = claimLane(WebhookDispatchLanes.Lane.RETRY, retryLimit, excluded);
+                lanes.onRetryPage(retryLimit, retries.size());
+                submitted += dispatchClaimed(retries, excluded, Map.of());
+
+                // A full page means more work is due: fetch the next one now instead of on the next tick
+                boolean more = (freshLimit > 0 && fresh.size() == freshLimit)
+                        || (retryLimit > 0 && retries.size() == retryLimit);
+                if (!more || submitted == 0) return;
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    private List<WebhookEvent> claimLane(WebhookDispatchLanes.Lane lane, int limit, Set<String> excluded) {
+        if (limit == 0) {
+            return List.of();
+        }
+        return repository.claimDue(nodeId, lane.status(), Instant.now(), lease, limit, excluded);
+    }
+
+    /**
+     * Hand-off of a payment's fan-out right after it was persisted: due events are claimed and
+     * attempted at once, lingering ones (batched targets) go on the wheel. Without free capacity
+     * the events are left to the sweep, which the next finished delivery resumes.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onEnqueued(WebhookEventsEnqueued enqueued) {
+        if (!enabled) return;
+        Instant now = Instant.now();
+        List<String> due = new ArrayList<>();
+        for (WebhookEvent ev : enqueued.events()) {
+            if (ev.getNextAttemptAt().isAfter(now)) {
+                deadlineWheel.schedule(ev.getId(), ev.getNextAttemptAt());
+            } else {
+                due.add(ev.getId());
+            }
+        }
+        if (due.isEmpty()) return;
+        if (inFlightPermits.availablePermits() == 0) {
+            backlogged.set(true);
+            return;
         }
+        WebhookPayload payload = enqueued.payload();
+        executor.execute(() -> claimAndDispatch(due, Map.of(payload.getId(), payload.getJson())));
+    }
+
+    /**
+     * Events made due again outside the dispatcher, e.g. by a dead-letter replay, are attempted
+     * right away if there is capacity; otherwise the sweep picks them up.
+     */
+    public void onRequeued(List<String> ids) {
+        if (!enabled || ids.isEmpty()) return;
+        if (inFlightPermits.availablePermits() == 0) {
+            backlogged.set(true);
+            return;
+        }
+        List<String> copy = List.copyOf(ids);
+        executor.execute(() -> claimAndDispatch(copy, Map.of()));
+    }
+
+    /**
+     * Wheel callback: claims the events whose deadline passed and dispatches them off the
+     * wheel thread. Events another node took in the meantime are simply not claimed.
+     */
+    private void onDeadlines(List<String> ids) {
+        if (!enabled) return;
+        executor.execute(() -> {
+            // A previous attempt's outcome may still be buffered; it must land before the re-claim
+            outcomeWriter.flush();
+            claimAndDispatch(ids, Map.of());
+        });
     }
 
-    private void tryDispatch(WebhookEvent ev) {
-        ev.setLastAttemptAt(Instant.now());
-        ev.setAttempts(ev.getAttempts() + 1);
+    private void claimAndDispatch(List<String> ids, Map<String, String> knownPayloads) {
         try {
-            int attempt = ev.getAttempts();
+            for (int from = 0; from < ids.size(); from += batchSize) {
+                List<String> page = ids.subList(from, Math.min(ids.size(), from + batchSize));
+                List<WebhookEvent> claimed = repository.claimDueByIds(nodeId, page, Instant.now(), lease);
+                dispatchClaimed(claimed, new HashSet<>(), knownPayloads);
+            }
+        } catch (Exception e) {
+            // The events stay due in Mongo and are picked up by the sweep
+            log.warn("Failed to dispatch {} webhook events directly: {}", ids.size(), e.toString());
+        }
+    }
+
+    /**
+     * Starts a delivery for each batch of claimed events and hands back the claims that cannot
+     * start now; their targets are added to {@code excluded}.
+     *
+     * @return number of deliveries started
+     */
+    private int dispatchClaimed(List<WebhookEvent> claimed, Set<String> excluded, Map<String, String> knownPayloads) {
+        int submitted = 0;
+        List<WebhookEvent> unsubmitted = new ArrayList<>();
+        for (Delivery delivery : planDeliveries(claimed, knownPayloads)) {
+            String target = delivery.target();
+            WebhookCircuitBreakers.Permit permit = breakers.acquire(target, Instant.now());
+            if (permit != WebhookCircuitBreakers.Permit.REJECT) {
+                boolean probe = permit == WebhookCircuitBreakers.Permit.PROBE;
+                WebhookDispatchLanes.Lane lane = WebhookDispatchLanes.laneOf(delivery.events());
+                if (inFlightPermits.tryAcquire()) {
+                    if (lanes.tryAcquire(lane)) {
+                        if (submit(delivery, lane, probe)) {
+                            lanes.onStarted(lane);
+                            submitted++;
+                            continue;
+                        }
+                        lanes.release(lane);
+                    }
+                    inFlightPermits.release();
+                }
+                backlogged.set(true);
+                if (probe) {
+                    breakers.abandonProbe(target);
+                }
+            }
+            unsubmitted.addAll(delivery.events());
+            excluded.add(target);
+        }
+        if (!unsubmitted.isEmpty()) {
+            // No free slot or open circuit: hand the claims back for a later poll or another node
+            repository.releaseClaims(unsubmitted, nodeId);
+        }
+        return submitted;
+    }
+
+    /**
+     * Groups claimed events into deliveries: one per event, except for targets registered for
+     * batched delivery, whose events are sent as JSON arrays of up to their batch size. A
+     * batch that is not full is topped up with the target's events still lingering.
+     */
+    private List<Delivery> planDeliveries(List<WebhookEvent> claimed, Map<String, String> knownPayloads) {
+        if (claimed.isEmpty()) {
+            return List.of();
+        }
+        List<WebhookEvent> all = new ArrayList<>(claimed);
+        Map<String, List<WebhookEvent>> batched = new LinkedHashMap<>();
+        Map<String, Integer> batchSizes = new HashMap<>();
+        for (WebhookEvent ev : claimed) {
+            WebhookRegistration registration = registry.find(ev.getTargetUrl());
+            if (registration != null && registration.getBatchSize() > 1) {
+                batched.computeIfAbsent(ev.getTargetUrl(), t -> new ArrayList<>()).add(ev);
+                batchSizes.put(ev.getTargetUrl(), registration.getBatchSize());
+            }
+        }
+        batched.forEach((target, events) -> {
+            int size = batchSizes.get(target);
+            int room = (size - events.size() % size) % size;
+            if (room > 0) {
+                List<WebhookEvent> lingering = repository.claimPendingForTarget(nodeId, target, Instant.now(), lease, room);
+                events.addAll(lingering);
+                all.addAll(lingering);
+            }
+        });
+
+        Map<String, String> payloads = loadPayloads(all, knownPayloads);
+        List<Delivery> deliveries = new ArrayList<>();
+        for (WebhookEvent ev : claimed) {
+            if (!batched.containsKey(ev.getTargetUrl())) {
+                deliveries.add(new Delivery(ev.getTargetUrl(), List.of(ev), payloadOf(ev, payloads)));
+            }
+        }
+        batched.forEach((target, events) -> {
+            int size = batchSizes.get(target);
+            List<WebhookEvent> batch = new ArrayList<>(size);
+            StringJoiner body = new StringJoiner(",", "[", "]");
+            for (WebhookEvent ev : events) {
+                String payload = payloadOf(ev, payloads);
+                if (payload == null) {
+                    // Fails on its own instead of taking the rest of the batch with it
+                    deliveries.add(new Delivery(target, List.of(ev), null));
+                    continue;
+                }
+                batch.add(ev);
+                body.add(payload);
+                if (batch.size() == size) {
+                    deliveries.add(new Delivery(target, batch, body.toString()));
+                    batch = new ArrayList<>(size);
+                    body = new StringJoiner(",", "[", "]");
+                }
+            }
+            if (!batch.isEmpty()) {
+                deliveries.add(new Delivery(target, batch, body.toString()));
+            }
+        });
+        return deliveries;
+    }
+
+    @Scheduled(fixedDelayString = "${webhook.dispatch.lease-recovery-interval-ms:30000}")
+    public void recoverExpiredLeases() {
+        if (!enabled) return;
+        long recovered = repository.recoverExpiredLeases(Instant.now(), maxAttempts);
+        if (recovered > 0) {
+            log.warn("Recovered {} webhook events with expired leases", recovered);
+        }
+    }
+
+    /**
+     * Loads the payloads referenced by a claimed page in one query; events of the same fan-out
+     * share a single copy. Payloads already in hand are not read again.
+     */
+    private Map<String, String> loadPayloads(List<WebhookEvent> events, Map<String, String> known) {
+        Set<String> ids = new HashSet<>();
+        for (WebhookEvent ev : events) {
+            if (ev.getPayloadId() != null && !known.containsKey(ev.getPayloadId())) {
+                ids.add(ev.getPayloadId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return known;
+        }
+        Map<String, String> payloads = new HashMap<>(known);
+        for (WebhookPayload payload : payloadRepository.findAllById(ids)) {
+            payloads.put(payload.getId(), payload.getJson());
+        }
+        return payloads;
+    }
+
+    private static String payloadOf(WebhookEvent ev, Map<String, String> payloads) {
+        return ev.getPayloadId() != null ? payloads.get(ev.getPayloadId()) : ev.getPayloadJson();
+    }
+
+    /**
+     * Targets whose host is at its current limit or paused by a Retry-After; claiming their
+     * events would only hand them back.
+     */
+    private Set<String> saturatedTargets() {
+        Set<String> saturated = new HashSet<>();
+        Instant now = Instant.now();
+        targetHosts.forEach((target, host) -> {
+            WebhookHostLimiter limiter = hostLimiters.get(host);
+            if (limiter != null && limiter.saturated(now)) {
+                saturated.add(target);
+            }
+        });
+        return saturated;
+    }
+
+    private WebhookHostLimiter limiterOf(String target) {
+        String host = targetHosts.computeIfAbsent(target, WebhookDispatcherService::hostOf);
+        return hostLimiters.computeIfAbsent(host, h -> new WebhookHostLimiter(maxPerHost));
+    }
+
+    /**
+     * Hands the delivery to a virtual thread unless its target host is at its in-flight limit.
+     * The caller must hold a global permit.
+     */
+    private boolean submit(Delivery delivery, WebhookDispatchLanes.Lane lane, boolean probe) {
+        WebhookHostLimiter limiter = limiterOf(delivery.target());
+        if (!limiter.tryAcquire(Instant.now())) {
+            return false;
+        }
+        executor.execute(() -> {
+            try {
+                tryDispatch(delivery, probe, limiter);
+            } finally {
+                limiter.release();
+                lanes.release(lane);
+                inFlightPermits.release();
+                if (backlogged.compareAndSet(true, false)) {
+                    dispatchLoop();
+                }
+            }
+        });
+        return true;
+    }
+
+    public record Stats(int concurrency, int inFlight, int wheelSize, List<WebhookDispatchLanes.LaneStats> lanes) {
+    }
+
+    /**
+     * In-flight deliveries per lane, plus each lane's queue depth and the age of its oldest due
+     * event as stored in Mongo.
+     */
+    public Stats stats() {
+        Instant now = Instant.now();
+        List<WebhookDispatchLanes.LaneStats> laneStats = new ArrayList<>();
+        for (WebhookDispatchLanes.Lane lane : WebhookDispatchLanes.Lane.values()) {
+            WebhookEventRepositoryCustom.DueBacklog backlog = repository.dueBacklog(lane.status(), now);
+            Duration age = backlog.oldestDueAt() == null ? Duration.ZERO : Duration.between(backlog.oldestDueAt(), now);
+            laneStats.add(lanes.stats(lane, backlog.count(), age));
+        }
+        return new Stats(concurrency, concurrency - inFlightPermits.availablePermits(), deadlineWheel.size(), laneStats);
+    }
+
+    /**
+     * Blocks until no delivery is in flight or the timeout elapses.
+     */
+    boolean awaitIdle(Duration timeout) throws InterruptedException {
+        if (!inFlightPermits.tryAcquire(concurrency, timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        inFlightPermits.release(concurrency);
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        deadlineWheel.close();
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Webhook deliveries still running at shutdown: {}", concurrency - inFlightPermits.availablePermits());
+            executor.shutdownNow();
+        }
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    private static String hostOf(String targetUrl) {
+        try {
+            String authority = URI.create(targetUrl).getAuthority();
+            return authority != null ? authority : targetUrl;
+        } catch (IllegalArgumentException e) {
+            // Invalid URLs fail in tryDispatch; group them under their raw value
+            return targetUrl;
+        }
+    }
+
+    /**
+     * Status codes that count against the target's circuit breaker; other non-2xx answers
+     * still prove the endpoint is reachable.
+     */
+    private static boolean isEndpointFailure(int status) {
+        return status >= 500 || status == 408 || status == 429;
+    }
+
+    /**
+     * Status codes that mean the host is overloaded (or timed out) and should get less traffic.
+     */
+    private static boolean isOverload(int status) {
+        return status == 429 || status == 503 || status == 504 || status == 599;
+    }
+
+    /**
+     * Parses a Retry-After header, either delta-seconds or an HTTP-date, capped at
+     * {@link #MAX_RETRY_AFTER}.
+     *
+     * @return the time before which the endpoint asked not to be called, or null if the value is
+     * missing, malformed or already past
+     */
+    static Instant parseRetryAfter(String value, Instant now) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        String trimmed = value.trim();
+        Instant until;
+        try {
+            until = trimmed.chars().allMatch(Character::isDigit)
+                    // Clamped first: plusSeconds overflows on values near Long.MAX_VALUE
+                    ? now.plusSeconds(Math.min(Long.parseLong(trimmed), MAX_RETRY_AFTER.getSeconds()))
+                    : DateTimeFormatter.RFC_1123_DATE_TIME.parse(trimmed, Instant::from);
+        } catch (NumberFormatException | DateTimeException e) {
+            return null;
+        }
+        if (!until.isAfter(now)) {
+            return null;
+        }
+        Instant cap = now.plus(MAX_RETRY_AFTER);
+        return until.isAfter(cap) ? cap : until;
+    }
+
+    /**
+     * Feeds a failure to the target's breaker. If that opens it, the target's other due events
+     * are deferred in one update, without touching the endpoint.
+     *
+     * @return end of the open period, or null if the breaker did not open
+     */
+    private Instant reportEndpointFailure(String target) {
+        Instant until = breakers.onFailure(target, Instant.now());
+        if (until != null) {
+            deferTarget(target, until);
+        }
+        return until;
+    }
+
+    private void deferTarget(String target, Instant until) {
+        try {
+            long deferred = repository.deferTarget(target, until);
+            log.info("Deferred {} webhook events for {} until {}", deferred, target, until);
+        } catch (Exception e) {
+            log.warn("Failed to defer webhook events for {}: {}", target, e.toString());
+        }
+    }
+
+    /**
+     * Applies a Retry-After sent with a 429/503: the host is paused and the target's other due
+     * events are deferred, once per new pause.
+     *
+     * @return the time to retry no earlier than, or null without a usable header
+     */
+    private Instant applyRetryAfter(String target, WebhookHostLimiter limiter, int status, String header) {
+        if (status != 429 && status != 503) {
+            return null;
+        }
+        Instant until = parseRetryAfter(header, Instant.now());
+        if (until != null && limiter.pauseUntil(until)) {
+            log.info("Webhook target {} asked to retry after {}", target, until);
+            deferTarget(target, until);
+        }
+        return until;
+    }
+
+    private void tryDispatch(Delivery delivery, boolean probe, WebhookHostLimiter limiter) {
+        String target = delivery.target();
+        List<WebhookEvent> events = delivery.events();
+        Instant startedAt = Instant.now();
+        int attempt = 0;
+        for (WebhookEvent ev : events) {
+            ev.setLastAttemptAt(startedAt);
+            ev.setAttempts(ev.getAttempts() + 1);
+            attempt = Math.max(attempt, ev.getAttempts());
+        }
+        boolean breakerReported = false;
+        try {
+            if (delivery.body() == null) {
+                throw new IllegalStateException("Payload " + events.getFirst().getPayloadId() + " not found");
+            }
 
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(ev.getTargetUrl()))
+                    .uri(URI.create(target))
                     .timeout(Duration.ofSeconds(30))
                     .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(ev.getPayloadJson()))
+                    .POST(HttpRequest.BodyPublishers.ofString(delivery.body()))
                     .build();
 
             int status;
+            String retryAfter = null;
+            long sentNanos = System.nanoTime();
             try {
                 HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
                 status = response.statusCode();
+                retryAfter = response.headers().firstValue("Retry-After").orElse(null);
             } catch (Exception ex) {
-                log.warn("Webhook POST to {} failed: {}", ev.getTargetUrl(), ex.toString());
+                log.warn("Webhook POST to {} failed: {}", target, ex.toString());
                 status = 599; // custom network error
             }
+            long doneNanos = System.nanoTime();
+            if (isOverload(status)) {
+                limiter.onOverload(sentNanos, doneNanos);
+            } else {
+                limiter.onSuccess(sentNanos, doneNanos);
+            }
 
-            if (status >= 200 && status < 300) {
-                ev.setStatus(WebhookStatus.DELIVERED);
-                ev.setNextAttemptAt(null);
-                ev.setLastError(null);
+            Instant openUntil = null;
+            if (isEndpointFailure(status)) {
+                openUntil = reportEndpointFailure(target);
             } else {
-                if (attempt >= maxAttempts) {
-                    ev.setStatus(WebhookStatus.FAILED);
-                    ev.setLastError("HTTP " + status);
+                breakers.onSuccess(target);
+            }
+            breakerReported = true;
+
+            if (status >= 200 && status < 300) {
+                Instant completedAt = Instant.now();
+                for (WebhookEvent ev : events) {
+                    ev.setStatus(WebhookStatus.DELIVERED);
                     ev.setNextAttemptAt(null);
-                } else {
-                    ev.setStatus(WebhookStatus.RETRY);
-                    long backoff = Math.min(maxBackoffMs, (long) (baseBackoffMs * Math.pow(2, Math.max(0, attempt - 1))));
-                    ev.setNextAttemptAt(Instant.now().plusMillis(backoff));
-                    ev.setLastError("HTTP " + status);
+                    ev.setLastError(null);
+                    ev.setCompletedAt(completedAt);
                 }
+            } else {
+                Instant next = latest(Instant.now().plusMillis(backoffMs(attempt)),
+                        applyRetryAfter(target, limiter, status, retryAfter), openUntil);
+                failAttempt(events, "HTTP " + status, next);
             }
         } catch (Exception e) {
-            log.error("Unexpected error dispatching webhook {}: {}", ev.getId(), e.toString());
+            log.error("Unexpected error dispatching webhook {}: {}",
+                    events.size() == 1 ? events.getFirst().getId() : events.size() + " events to " + target, e.toString());
+            failAttempt(events, e.getMessage(), Instant.now().plusMillis(backoffMs(attempt)));
+        } finally {
+            if (probe && !breakerReported) {
+                breakers.abandonProbe(target);
+            }
+            for (WebhookEvent ev : events) {
+                outcomeWriter.record(ev, nodeId);
+                if (ev.getStatus() == WebhookStatus.RETRY) {
+                    deadlineWheel.schedule(ev.getId(), ev.getNextAttemptAt());
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a failed attempt. Events with attempts left are retried together at {@code next};
+     * the others are FAILED.
+     */
+    private void failAttempt(List<WebhookEvent> events, String error, Instant next) {
+        for (WebhookEvent ev : events) {
             if (ev.getAttempts() >= maxAttempts) {
                 ev.setStatus(WebhookStatus.FAILED);
                 ev.setNextAttemptAt(null);
-                ev.setLastError(e.getMessage());
+                ev.setCompletedAt(Instant.now());
             } else {
                 ev.setStatus(WebhookStatus.RETRY);
-                long backoff = Math.min(maxBackoffMs, (long) (baseBackoffMs * Math.pow(2, Math.max(0, ev.getAttempts() - 1))));
-                ev.setNextAttemptAt(Instant.now().plusMillis(backoff));
-                ev.setLastError(e.getMessage());
+                ev.setNextAttemptAt(next);
             }
-        } finally {
-            repository.save(ev);
+            ev.setLastError(error);
         }
     }
+
+    /**
+     * Full-jitter backoff: uniformly random up to the exponential ceiling, so retries of events
+     * that failed together do not come back together.
+     */
+    private long backoffMs(int attempt) {
+        long ceiling = Math.min(maxBackoffMs, (long) (baseBackoffMs * Math.pow(2, Math.max(0, attempt - 1))));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static Instant latest(Instant first, Instant... others) {
+        Instant latest = first;
+        for (Instant other : others) {
+            if (other != null && other.isAfter(latest)) {
+                latest = other;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * One POST: a single event's payload, or a JSON array of a batch's payloads. A null body
+     * means the event's payload could not be loaded.
+     */
+    private record Delivery(String target, List<WebhookEvent> events, String body) {
+    }
 }
@@ -0,0 +1,13 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookPayload;
+
+import java.util.List;
+
+/**
+ * Published once the webhook fan-out of a payment is persisted, so the local dispatcher can
+ * attempt it right away instead of waiting for a sweep.
+ */
+public record WebhookEventsEnqueued(List<WebhookEvent> events, WebhookPayload payload) {
+}
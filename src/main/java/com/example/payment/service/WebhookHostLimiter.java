@@ -0,0 +1,112 @@
+package com.example.payment.service;
+
+import java.time.Instant;
+
+/**
+ * Adaptive (AIMD) in-flight limit for one target host. Each successful delivery raises the limit
+ * by {@code 1/limit}, i.e. by about one per round of deliveries, up to {@code maxLimit}. Overload
+ * answers cut it in half and a latency well above the lowest recently seen trims it by a tenth;
+ * deliveries sent before a cut do not cut again, so one congestion event counts once. A
+ * Retry-After pauses the host altogether.
+ */
+final class WebhookHostLimiter {
+
+    static final double OVERLOAD_DECREASE = 0.5;
+    static final double LATENCY_DECREASE = 0.9;
+    // A delivery is slow if it took this many times the minimum RTT, and at least MIN_LATENCY_RISE longer
+    static final double LATENCY_TOLERANCE = 2.0;
+    static final long MIN_LATENCY_RISE_NANOS = 50_000_000;
+    // The minimum RTT is re-learned every RTT_WINDOW samples so it can follow a slower baseline
+    static final int RTT_WINDOW = 100;
+
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private long minRttNanos = Long.MAX_VALUE;
+    private long windowMinRttNanos = Long.MAX_VALUE;
+    private int windowSamples;
+    private long lastDecreaseNanos = Long.MIN_VALUE;
+    private Instant pausedUntil = Instant.MIN;
+
+    WebhookHostLimiter(int maxLimit) {
+        this.maxLimit = maxLimit;
+        this.limit = maxLimit;
+    }
+
+    synchronized boolean tryAcquire(Instant now) {
+        if (saturated(now)) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    synchronized void release() {
+        inFlight--;
+    }
+
+    /**
+     * Whether a delivery to this host would be refused right now.
+     */
+    synchronized boolean saturated(Instant now) {
+        return now.isBefore(pausedUntil) || inFlight >= (int) limit;
+    }
+
+    /**
+     * A delivery completed without an overload signal; times are {@link System#nanoTime()}.
+     */
+    synchronized void onSuccess(long startNanos, long endNanos) {
+        long rtt = endNanos - startNanos;
+        boolean slow = minRttNanos != Long.MAX_VALUE
+                && rtt > LATENCY_TOLERANCE * minRttNanos
+                && rtt - minRttNanos > MIN_LATENCY_RISE_NANOS;
+        sampleRtt(rtt);
+        if (slow) {
+            decrease(startNanos, endNanos, LATENCY_DECREASE);
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * The host answered 429/503 or timed out.
+     */
+    synchronized void onOverload(long startNanos, long endNanos) {
+        decrease(startNanos, endNanos, OVERLOAD_DECREASE);
+    }
+
+    /**
+     * Refuses deliveries until {@code until}.
+     *
+     * @return false if the host was already paused at least that long
+     */
+    synchronized boolean pauseUntil(Instant until) {
+        if (!until.isAfter(pausedUntil)) {
+            return false;
+        }
+        pausedUntil = until;
+        return true;
+    }
+
+    synchronized int limit() {
+        return (int) limit;
+    }
+
+    private void sampleRtt(long rtt) {
+        minRttNanos = Math.min(minRttNanos, rtt);
+        windowMinRttNanos = Math.min(windowMinRttNanos, rtt);
+        if (++windowSamples == RTT_WINDOW) {
+            minRttNanos = windowMinRttNanos;
+            windowMinRttNanos = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+    }
+
+    private void decrease(long startNanos, long endNanos, double factor) {
+        if (startNanos - lastDecreaseNanos < 0 && lastDecreaseNanos != Long.MIN_VALUE) {
+            return;
+        }
+        limit = Math.max(1, limit * factor);
+        lastDecreaseNanos = endNanos;
+    }
+}
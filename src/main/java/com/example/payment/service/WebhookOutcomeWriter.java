@@ -0,0 +1,114 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.repository.WebhookEventRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Buffers delivery outcomes and writes them back as bulk {@code $set} updates, flushing when
+ * {@code webhook.outcome.flush-size} outcomes are pending, every
+ * {@code webhook.outcome.flush-interval-ms}, and on shutdown.
+ */
+@Service
+public class WebhookOutcomeWriter {
+    private static final Logger log = LoggerFactory.getLogger(WebhookOutcomeWriter.class);
+
+    private record Outcome(WebhookEvent event, String owner) {
+    }
+
+    private final WebhookEventRepository repository;
+    private final int flushSize;
+
+    private final Queue<Outcome> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger buffered = new AtomicInteger();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    public WebhookOutcomeWriter(WebhookEventRepository repository,
+                                @Value("${webhook.outcome.flush-size:100}") int flushSize) {
+        if (flushSize < 1) {
+            throw new IllegalArgumentException("webhook.outcome.flush-size must be >= 1");
+        }
+        this.repository = repository;
+        this.flushSize = flushSize;
+    }
+
+    /**
+     * Queues the outcome of a delivery attempt made under {@code owner}'s lease.
+     */
+    public void record(WebhookEvent event, String owner) {
+        buffer.add(new Outcome(event, owner));
+        if (buffered.incrementAndGet() >= flushSize && flushLock.tryLock()) {
+            // Whoever crosses the threshold flushes; if a flush is already running it drains this too
+            try {
+                drain();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${webhook.outcome.flush-interval-ms:200}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            drain();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    int pending() {
+        return buffered.get();
+    }
+
+    private void drain() {
+        while (true) {
+            List<Outcome> batch = new ArrayList<>(flushSize);
+            Outcome next;
+            while (batch.size() < flushSize && (next = buffer.poll()) != null) {
+                batch.add(next);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            buffered.addAndGet(-batch.size());
+            write(batch);
+        }
+    }
+
+    private void write(List<Outcome> batch) {
+        // A node has a single owner id, but group anyway so the lease guard stays exact
+        batch.stream()
+                .collect(Collectors.groupingBy(Outcome::owner))
+                .forEach((owner, outcomes) -> {
+                    List<WebhookEvent> events = outcomes.stream().map(Outcome::event).toList();
+                    try {
+                        long written = repository.completeAttempts(events, owner);
+                        if (written < events.size()) {
+                            log.warn("{} of {} webhook outcomes were not recorded: lease lost", events.size() - written, events.size());
+                        }
+                    } catch (Exception e) {
+                        // Leases expire and the events are retried, so delivery stays at-least-once
+                        log.error("Failed to write {} webhook outcomes: {}", events.size(), e.toString());
+                    }
+                });
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.WebhookRegistration;
+import com.example.payment.repository.WebhookRegistrationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process snapshot of the active webhook registrations, so the payment write path does not
+ * query {@code webhook_registrations} on every request. Local registrations are applied
+ * immediately; changes made on other nodes are picked up by the periodic refresh.
+ */
+@Service
+public class WebhookRegistry {
+    private static final Logger log = LoggerFactory.getLogger(WebhookRegistry.class);
+
+    public record Stats(long hits, long misses, int size, Instant lastRefreshAt) {
+    }
+
+    private final WebhookRegistrationRepository repository;
+
+    private volatile List<WebhookRegistration> active;
+    private volatile Map<String, WebhookRegistration> byEndpoint = Map.of();
+    private volatile Instant lastRefreshAt;
+    // Bumped by every local change so a refresh that raced with one is redone
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public WebhookRegistry(WebhookRegistrationRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Active registrations, loaded from Mongo only on first use.
+     */
+    public List<WebhookRegistration> activeRegistrations() {
+        List<WebhookRegistration> snapshot = active;
+        if (snapshot != null) {
+            hits.increment();
+            return snapshot;
+        }
+        misses.increment();
+        return refresh();
+    }
+
+    /**
+     * The active registration of {@code endpointUrl}, or null if there is none.
+     */
+    public WebhookRegistration find(String endpointUrl) {
+        loaded();
+        return byEndpoint.get(endpointUrl);
+    }
+
+    // Like activeRegistrations() but not counted: hits and misses describe the payment path,
+    // not the dispatcher's per-event lookups
+    private List<WebhookRegistration> loaded() {
+        List<WebhookRegistration> snapshot = active;
+        return snapshot != null ? snapshot : refresh();
+    }
+
+    @Scheduled(fixedDelayString = "${webhook.registry.refresh-ms:30000}",
+            initialDelayString = "${webhook.registry.refresh-ms:30000}")
+    public List<WebhookRegistration> refresh() {
+        while (true) {
+            long gen = generation.get();
+            List<WebhookRegistration> loaded = List.copyOf(repository.findByActiveTrue());
+            synchronized (this) {
+                if (generation.get() == gen) {
+                    replace(loaded);
+                    lastRefreshAt = Instant.now();
+                    log.debug("Webhook registry refreshed: {} active", loaded.size());
+                    return loaded;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a registration saved on this node without waiting for the next refresh.
+     */
+    public synchronized void put(WebhookRegistration registration) {
+        generation.incrementAndGet();
+        List<WebhookRegistration> snapshot = active;
+        if (snapshot == null) {
+            // Not loaded yet; the first read will see the saved document
+            return;
+        }
+        List<WebhookRegistration> updated = new ArrayList<>(snapshot.size() + 1);
+        for (WebhookRegistration w : snapshot) {
+            if (!w.getEndpointUrl().equals(registration.getEndpointUrl())) {
+                updated.add(w);
+            }
+        }
+        if (registration.isActive()) {
+            updated.add(registration);
+        }
+        replace(List.copyOf(updated));
+    }
+
+    // Callers hold the monitor; readers see either the old or the new pair of snapshots
+    private void replace(List<WebhookRegistration> registrations) {
+        Map<String, WebhookRegistration> index = new HashMap<>(registrations.size());
+        for (WebhookRegistration w : registrations) {
+            index.put(w.getEndpointUrl(), w);
+        }
+        byEndpoint = Map.copyOf(index);
+        active = registrations;
+    }
+
+    public Stats stats() {
+        List<WebhookRegistration> snapshot = active;
+        return new Stats(hits.sum(), misses.sum(), snapshot == null ? 0 : snapshot.size(), lastRefreshAt);
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.repository.WebhookEventRepository;
+import com.example.payment.repository.WebhookEventRepositoryCustom.DeadLetterFilter;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dead-letter queue of the dispatcher: FAILED webhook events can be listed and replayed. A
+ * replay is a background job that pages through the matching events in id order and re-queues
+ * them at no more than its rate, pausing while the due retry backlog is above
+ * {@code webhook.replay.max-backlog}, so even a replay of millions of events neither floods the
+ * dispatcher nor the subscribers. Jobs are tracked in memory on the node that started them.
+ */
+@Service
+public class WebhookReplayService {
+    private static final Logger log = LoggerFactory.getLogger(WebhookReplayService.class);
+
+    // Finished jobs kept for progress queries
+    private static final int MAX_FINISHED_JOBS = 20;
+
+    public enum State {
+        RUNNING,
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+
+    public record DeadLetter(String id, String targetUrl, String payloadId, int attempts, int replays,
+                             Instant lastAttemptAt, String lastError, Instant createdAt) {
+    }
+
+    /**
+     * @param nextAfter cursor for the next page, or null if this was the last one
+     */
+    public record DeadLetterPage(List<DeadLetter> items, String nextAfter) {
+    }
+
+    public record Progress(String id, State state, String targetUrl, Instant from, Instant to, int ratePerSecond,
+                           long total, long scanned, long requeued, boolean throttled, Instant startedAt,
+                           Instant finishedAt, String error) {
+    }
+
+    private final WebhookEventRepository repository;
+    private final WebhookDispatcherService dispatcher;
+    private final int defaultRate;
+    private final int pageSize;
+    private final long maxBacklog;
+    private final long backlogPollMs;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    // Guarded by this; insertion order, so the eldest finished jobs are dropped first
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+
+    public WebhookReplayService(WebhookEventRepository repository,
+                                WebhookDispatcherService dispatcher,
+                                @Value("${webhook.replay.rate-per-second:100}") int defaultRate,
+                                @Value("${webhook.replay.page-size:500}") int pageSize,
+                                @Value("${webhook.replay.max-backlog:1000}") long maxBacklog,
+                                @Value("${webhook.replay.backlog-poll-ms:1000}") long backlogPollMs) {
+        if (defaultRate < 1 || pageSize < 1 || maxBacklog < 1) {
+            throw new IllegalArgumentException("webhook.replay.rate-per-second, page-size and max-backlog must be >= 1");
+        }
+        this.repository = repository;
+        this.dispatcher = dispatcher;
+        this.defaultRate = defaultRate;
+        this.pageSize = pageSize;
+        this.maxBacklog = maxBacklog;
+        this.backlogPollMs = backlogPollMs;
+    }
+
+    public DeadLetterPage deadLetters(DeadLetterFilter filter, String afterId, int limit) {
+        List<WebhookEvent> events = repository.findDeadLetters(filter, afterId, limit);
+        List<DeadLetter> items = new ArrayList<>(events.size());
+        for (WebhookEvent ev : events) {
+            items.add(new DeadLetter(ev.getId(), ev.getTargetUrl(), ev.getPayloadId(), ev.getAttempts(), ev.getReplays(),
+                    ev.getLastAttemptAt(), ev.getLastError(), ev.getCreatedAt()));
+        }
+        String nextAfter = events.size() == limit ? events.getLast().getId() : null;
+        return new DeadLetterPage(items, nextAfter);
+    }
+
+    /**
+     * Starts replaying the dead letters matching {@code filter}. One replay runs at a time.
+     *
+     * @param ratePerSecond events re-queued per second; null for the configured default
+     * @throws ConflictException if another replay is still running
+     */
+    public synchronized Progress startReplay(DeadLetterFilter filter, Integer ratePerSecond) {
+        for (Job job : jobs.values()) {
+            if (job.state == State.RUNNING) {
+                throw new ConflictException("Replay " + job.id + " is still running");
+            }
+        }
+        Job job = new Job(UUID.randomUUID().toString(), filter, ratePerSecond != null ? ratePerSecond : defaultRate);
+        jobs.put(job.id, job);
+        pruneFinished();
+        log.info("Starting dead-letter replay {} (target {}, {} to {}, {}/s)",
+                job.id, filter.targetUrl(), filter.from(), filter.to(), job.rate);
+        executor.execute(() -> run(job));
+        return job.progress();
+    }
+
+    /**
+     * @return the job's progress, or null if it is unknown to this node
+     */
+    public synchronized Progress progress(String id) {
+        Job job = jobs.get(id);
+        return job != null ? job.progress() : null;
+    }
+
+    public synchronized List<Progress> replays() {
+        return jobs.values().stream().map(Job::progress).toList();
+    }
+
+    /**
+     * Asks a running job to stop after its current page.
+     *
+     * @return the job's progress, or null if it is unknown to this node
+     */
+    public synchronized Progress cancel(String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return null;
+        }
+        job.cancelled = true;
+        return job.progress();
+    }
+
+    private void run(Job job) {
+        try {
+            job.total = repository.countDeadLetters(job.filter);
+            String after = null;
+            while (!job.cancelled && awaitBacklogBelowLimit(job)) {
+                long pageStarted = System.nanoTime();
+                int limit = Math.min(pageSize, job.rate);
+                List<WebhookEvent> page = repository.findDeadLetters(job.filter, after, limit);
+                if (page.isEmpty()) {
+                    break;
+                }
+                after = page.getLast().getId();
+                List<String> ids = page.stream().map(WebhookEvent::getId).toList();
+                job.requeued.addAndGet(repository.requeueDeadLetters(ids, Instant.now()));
+                job.scanned.addAndGet(ids.size());
+                dispatcher.onRequeued(ids);
+                if (page.size() < limit) {
+                    break;
+                }
+                // Pace pages so the job averages at most its rate
+                long pageNanos = TimeUnit.SECONDS.toNanos(page.size()) / job.rate;
+                TimeUnit.NANOSECONDS.sleep(pageStarted + pageNanos - System.nanoTime());
+            }
+            job.finish(job.cancelled ? State.CANCELLED : State.COMPLETED, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.finish(State.CANCELLED, null);
+        } catch (Exception e) {
+            log.error("Dead-letter replay {} failed: {}", job.id, e.toString());
+            job.finish(State.FAILED, e.toString());
+        }
+        log.info("Dead-letter replay {} {}: {} of {} events re-queued",
+                job.id, job.state, job.requeued.get(), job.total);
+    }
+
+    /**
+     * Waits while the retry lane has more due events than {@code max-backlog}.
+     *
+     * @return false if the job was cancelled meanwhile
+     */
+    private boolean awaitBacklogBelowLimit(Job job) throws InterruptedException {
+        while (repository.dueBacklog(WebhookDispatchLanes.Lane.RETRY.status(), Instant.now()).count() >= maxBacklog) {
+            job.throttled = true;
+            if (job.cancelled) {
+                return false;
+            }
+            Thread.sleep(backlogPollMs);
+        }
+        job.throttled = false;
+        return !job.cancelled;
+    }
+
+    private void pruneFinished() {
+        long finished = jobs.values().stream().filter(job -> job.state != State.RUNNING).count();
+        Iterator<Job> it = jobs.values().iterator();
+        while (finished > MAX_FINISHED_JOBS && it.hasNext()) {
+            if (it.next().state != State.RUNNING) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Interrupted jobs end as CANCELLED; events they did not reach stay FAILED
+        executor.shutdownNow();
+    }
+
+    private static final class Job {
+        final String id;
+        final DeadLetterFilter filter;
+        final int rate;
+        final Instant startedAt = Instant.now();
+        final AtomicLong scanned = new AtomicLong();
+        final AtomicLong requeued = new AtomicLong();
+        volatile long total;
+        volatile boolean throttled;
+        volatile boolean cancelled;
+        volatile State state = State.RUNNING;
+        volatile Instant finishedAt;
+        volatile String error;
+
+        Job(String id, DeadLetterFilter filter, int rate) {
+            this.id = id;
+            this.filter = filter;
+            this.rate = rate;
+        }
+
+        void finish(State state, String error) {
+            this.error = error;
+            this.finishedAt = Instant.now();
+            this.throttled = false;
+            this.state = state;
+        }
+
+        Progress progress() {
+            return new Progress(id, state, filter.targetUrl(), filter.from(), filter.to(), rate, total, scanned.get(),
+                    requeued.get(), throttled, startedAt, finishedAt, error);
+        }
+    }
+}
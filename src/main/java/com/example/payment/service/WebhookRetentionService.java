@@ -0,0 +1,153 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookPayload;
+import com.example.payment.domain.WebhookStatus;
+import com.example.payment.repository.WebhookEventRepository;
+import com.example.payment.repository.WebhookPayloadRepository;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Purges terminal webhook events once they are older than their retention, so
+ * {@code webhook_events} stays proportional to pending work rather than lifetime volume.
+ * Deletes run in batches of {@code webhook.retention.batch-size}, at most
+ * {@code max-batches-per-run} per status and run, so a large backlog is worked off gradually
+ * instead of in one long delete. Purged events can be kept as compact records in
+ * {@code webhook_events_archive}; payloads no event references any more are purged as well.
+ */
+@Service
+public class WebhookRetentionService {
+    private static final Logger log = LoggerFactory.getLogger(WebhookRetentionService.class);
+
+    private final WebhookEventRepository repository;
+    private final WebhookPayloadRepository payloadRepository;
+    private final boolean enabled;
+    private final Duration deliveredRetention;
+    private final Duration failedRetention;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final boolean archive;
+
+    // Terminal events written before completedAt existed are stamped once per process
+    private volatile boolean backfilled;
+
+    // Where the next orphaned-payload scan resumes; null to start from the oldest payload
+    private volatile ObjectId payloadCursor;
+
+    public WebhookRetentionService(WebhookEventRepository repository,
+                                   WebhookPayloadRepository payloadRepository,
+                                   @Value("${webhook.retention.enabled:true}") boolean enabled,
+                                   @Value("${webhook.retention.delivered-ms:604800000}") long deliveredMs,
+                                   @Value("${webhook.retention.failed-ms:2592000000}") long failedMs,
+                                   @Value("${webhook.retention.batch-size:1000}") int batchSize,
+                                   @Value("${webhook.retention.max-batches-per-run:50}") int maxBatchesPerRun,
+                                   @Value("${webhook.retention.archive:false}") boolean archive) {
+        if (deliveredMs < 1 || failedMs < 1 || batchSize < 1 || maxBatchesPerRun < 1) {
+            throw new IllegalArgumentException(
+                    "webhook.retention.delivered-ms, failed-ms, batch-size and max-batches-per-run must be >= 1");
+        }
+        this.repository = repository;
+        this.payloadRepository = payloadRepository;
+        this.enabled = enabled;
+        this.deliveredRetention = Duration.ofMillis(deliveredMs);
+        this.failedRetention = Duration.ofMillis(failedMs);
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.archive = archive;
+    }
+
+    @Scheduled(fixedDelayString = "${webhook.retention.interval-ms:60000}",
+            initialDelayString = "${webhook.retention.interval-ms:60000}")
+    public void purge() {
+        if (!enabled) return;
+        Instant now = Instant.now();
+        try {
+            if (!backfilled) {
+                long stamped = repository.backfillCompletedAt(now);
+                if (stamped > 0) {
+                    log.info("Stamped completedAt on {} terminal webhook events", stamped);
+                }
+                backfilled = true;
+            }
+            long events = purgeEvents(WebhookStatus.DELIVERED, now.minus(deliveredRetention))
+                    + purgeEvents(WebhookStatus.FAILED, now.minus(failedRetention));
+            // A payload is inserted just before its events; only consider ones older than any retention
+            Duration grace = deliveredRetention.compareTo(failedRetention) < 0 ? deliveredRetention : failedRetention;
+            long payloads = purgeOrphanedPayloads(now.minus(grace));
+            if (events > 0 || payloads > 0) {
+                log.info("Purged {} terminal webhook events{} and {} orphaned payloads",
+                        events, archive ? " (archived)" : "", payloads);
+            }
+        } catch (Exception e) {
+            // Nothing is lost; the next run continues where this one stopped
+            log.warn("Webhook retention purge failed: {}", e.toString());
+        }
+    }
+
+    private long purgeEvents(WebhookStatus status, Instant cutoff) {
+        long purged = 0;
+        for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+            List<WebhookEvent> expired = repository.findCompletedBefore(status, cutoff, batchSize);
+            if (expired.isEmpty()) {
+                break;
+            }
+            // Archive first: a purge interrupted in between re-archives, which is skipped as a duplicate
+            if (archive) {
+                repository.archive(expired);
+            }
+            purged += repository.deleteByIds(expired.stream().map(WebhookEvent::getId).toList());
+            if (expired.size() < batchSize) {
+                break;
+            }
+        }
+        return purged;
+    }
+
+    private long purgeOrphanedPayloads(Instant cutoff) {
+        ObjectId before = idFloor(cutoff);
+        // Resumed across runs, so payloads still referenced at the head cannot hide newer orphans
+        ObjectId after = payloadCursor != null ? payloadCursor : idFloor(Instant.EPOCH);
+        long purged = 0;
+        for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+            List<String> ids = payloadRepository.findIdsBetween(after, before, Limit.of(batchSize)).stream()
+                    .map(WebhookPayload::getId).toList();
+            if (ids.isEmpty()) {
+                // Reached the cutoff; the next scan starts over
+                payloadCursor = null;
+                return purged;
+            }
+            Set<String> orphans = new HashSet<>(ids);
+            orphans.removeAll(repository.referencedPayloadIds(ids));
+            if (!orphans.isEmpty()) {
+                payloadRepository.deleteAllById(orphans);
+                purged += orphans.size();
+            }
+            if (ids.size() < batchSize) {
+                payloadCursor = null;
+                return purged;
+            }
+            after = new ObjectId(ids.getLast());
+        }
+        payloadCursor = after;
+        return purged;
+    }
+
+    /**
+     * Lowest ObjectId created at {@code time}: its timestamp followed by zero bytes.
+     */
+    static ObjectId idFloor(Instant time) {
+        return new ObjectId(String.format("%08x", time.getEpochSecond()) + "0".repeat(16));
+    }
+}
@@ -11,12 +11,22 @@ import java.util.List;
 @Service
 public class WebhookService {
     private final WebhookRegistrationRepository repository;
+    private final WebhookRegistry registry;
 
-    public WebhookService(WebhookRegistrationRepository repository) {
+    public WebhookService(WebhookRegistrationRepository repository, WebhookRegistry registry) {
         this.repository = repository;
+        this.registry = registry;
     }
 
     public WebhookRegistration register(String endpointUrl) {
+        return register(endpointUrl, null, null);
+    }
+
+    /**
+     * Registers or re-activates an endpoint. Null batch settings leave an existing registration's
+     * values unchanged (new registrations get one event per POST).
+     */
+    public WebhookRegistration register(String endpointUrl, Integer batchSize, Long batchLingerMs) {
         validateUrl(endpointUrl);
         if (repository.existsByEndpointUrl(endpointUrl)) {
             // idempotent: return existing or create active again
@@ -25,20 +35,35 @@ public class WebhookService {
             if (!existing.isEmpty()) {
                 WebhookRegistration w = existing.getFirst();
                 w.setActive(true);
-                return repository.save(w);
+                applyBatching(w, batchSize, batchLingerMs);
+                WebhookRegistration saved = repository.save(w);
+                registry.put(saved);
+                return saved;
             }
         }
         WebhookRegistration reg = new WebhookRegistration();
         reg.setEndpointUrl(endpointUrl);
         reg.setActive(true);
         reg.setCreatedAt(Instant.now());
-        return repository.save(reg);
+        applyBatching(reg, batchSize, batchLingerMs);
+        WebhookRegistration saved = repository.save(reg);
+        registry.put(saved);
+        return saved;
     }
 
     public List<WebhookRegistration> listActive() {
         return repository.findByActiveTrue();
     }
 
+    private static void applyBatching(WebhookRegistration reg, Integer batchSize, Long batchLingerMs) {
+        if (batchSize != null) {
+            reg.setBatchSize(batchSize);
+        }
+        if (batchLingerMs != null) {
+            reg.setBatchLingerMs(batchLingerMs);
+        }
+    }
+
     private void validateUrl(String url) {
         try {
             URI uri = URI.create(url);
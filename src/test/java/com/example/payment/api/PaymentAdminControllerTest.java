@@ -0,0 +1,136 @@
+package com.example.payment.api;
+
+import com.example.payment.cache.LruCache;
+import com.example.payment.service.CardVaultService;
+import com.example.payment.service.PaymentBatchWriter;
+import com.example.payment.service.PaymentKeyRotationService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Instant;
+
+import static org.hamcrest.Matchers.is;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = PaymentAdminController.class)
+@Import(PaymentAdminControllerTest.TestConfig.class)
+class PaymentAdminControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    PaymentKeyRotationService keyRotationService;
+
+    @Autowired
+    CardVaultService cardVaultService;
+
+    @Autowired
+    PaymentReadCache readCache;
+
+    @Autowired
+    PaymentBatchWriter batchWriter;
+
+    static class TestConfig {
+        @Bean
+        public PaymentBatchWriter paymentBatchWriter() {
+            return mock(PaymentBatchWriter.class);
+        }
+
+        @Bean
+        public PaymentReadCache paymentReadCache() {
+            return mock(PaymentReadCache.class);
+        }
+
+        @Bean
+        public CardVaultService cardVaultService() {
+            return mock(CardVaultService.class);
+        }
+
+        @Bean
+        public PaymentKeyRotationService paymentKeyRotationService() {
+            return mock(PaymentKeyRotationService.class);
+        }
+    }
+
+    private static PaymentKeyRotationService.Progress progress(String id) {
+        return new PaymentKeyRotationService.Progress(id, PaymentKeyRotationService.State.RUNNING, 2, 500, 1000, 400,
+                390, 1, Instant.now(), null, null);
+    }
+
+    @Test
+    void shouldExposeCardVaultCacheStats() throws Exception {
+        given(cardVaultService.cacheStats()).willReturn(new LruCache.Stats(90, 10, 2, 8, 100));
+
+        mockMvc.perform(get("/api/admin/payments/card-vault/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.hits", is(90)))
+                .andExpect(jsonPath("$.capacity", is(100)));
+    }
+
+    @Test
+    void shouldExposeGroupCommitStats() throws Exception {
+        given(batchWriter.stats()).willReturn(new PaymentBatchWriter.Stats(true, 12, 480, 3));
+
+        mockMvc.perform(get("/api/admin/payments/group-commit/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.enabled", is(true)))
+                .andExpect(jsonPath("$.payments", is(480)));
+    }
+
+    @Test
+    void shouldExposeReadCacheStats() throws Exception {
+        given(readCache.stats()).willReturn(new LruCache.Stats(5, 1, 0, 1, 10000));
+
+        mockMvc.perform(get("/api/admin/payments/read-cache/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.misses", is(1)));
+    }
+
+    @Test
+    void shouldStartRotationWithLocation() throws Exception {
+        given(keyRotationService.startRotation(500)).willReturn(progress("job-1"));
+
+        mockMvc.perform(post("/api/admin/payments/key-rotations")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ratePerSecond\":500}"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", "/api/admin/payments/key-rotations/job-1"))
+                .andExpect(jsonPath("$.keyId", is(2)));
+    }
+
+    @Test
+    void shouldRejectInvalidRotationRate() throws Exception {
+        mockMvc.perform(post("/api/admin/payments/key-rotations")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ratePerSecond\":0}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldReportAndCancelRotation() throws Exception {
+        given(keyRotationService.progress("job-1")).willReturn(progress("job-1"));
+        given(keyRotationService.cancel("job-1")).willReturn(progress("job-1"));
+
+        mockMvc.perform(get("/api/admin/payments/key-rotations/job-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.rotated", is(390)))
+                .andExpect(jsonPath("$.failed", is(1)));
+        mockMvc.perform(delete("/api/admin/payments/key-rotations/job-1"))
+                .andExpect(status().isAccepted());
+        mockMvc.perform(get("/api/admin/payments/key-rotations/unknown"))
+                .andExpect(status().isNotFound());
+    }
+}
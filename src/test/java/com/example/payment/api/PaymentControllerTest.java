@@ -2,8 +2,14 @@ package com.example.payment.api;
 
 import com.example.payment.api.dto.PaymentRequest;
 import com.example.payment.domain.Payment;
+import com.example.payment.repository.PaymentRepositoryCustom.PaymentFilter;
+import com.example.payment.service.ConflictException;
+import com.example.payment.service.PaymentIdempotencyService;
 import com.example.payment.service.PaymentService;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.Validator;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -14,13 +20,31 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -37,11 +61,30 @@ class PaymentControllerTest {
     @Autowired
     PaymentService paymentService;
 
+    @Autowired
+    PaymentIdempotencyService idempotencyService;
+
     static class TestConfig {
         @org.springframework.context.annotation.Bean
         public PaymentService paymentService() {
             return org.mockito.Mockito.mock(PaymentService.class);
         }
+
+        @org.springframework.context.annotation.Bean
+        public PaymentReadCache paymentReadCache(PaymentService paymentService) {
+            return new PaymentReadCache(paymentService, 100, 60_000);
+        }
+
+        @org.springframework.context.annotation.Bean
+        public PaymentIdempotencyService paymentIdempotencyService() {
+            return org.mockito.Mockito.mock(PaymentIdempotencyService.class);
+        }
+
+        @org.springframework.context.annotation.Bean
+        public PaymentBulkIngestor paymentBulkIngestor(PaymentService paymentService, ObjectMapper objectMapper,
+                                                       Validator validator) {
+            return new PaymentBulkIngestor(paymentService, objectMapper, validator, 2, 5);
+        }
     }
 
     private static Stream<PaymentRequest> invalidRequests() {
@@ -108,7 +151,75 @@ class PaymentControllerTest {
                     .andExpect(header().string("Location", containsString("/api/payments/id-123")))
                     .andExpect(jsonPath("$.id", is("id-123")))
                     .andExpect(jsonPath("$.firstName", is("Jane")))
-                    .andExpect(jsonPath("$.cardLast4", is("4242")));
+                    .andExpect(jsonPath("$.cardLast4", is("4242")))
+                    .andExpect(header().exists("ETag"));
+        }
+
+        @Test
+        @DisplayName("should create through the Idempotency-Key and mark replays")
+        void shouldCreateIdempotently() throws Exception {
+            // given
+            reset(paymentService);
+            Payment p = new Payment();
+            p.setId("id-idem");
+            p.setFirstName("Jane");
+            p.setCardLast4("4242");
+            given(idempotencyService.createPayment(eq("key-1"), any(PaymentService.NewPayment.class)))
+                    .willReturn(new PaymentIdempotencyService.Outcome("id-idem", p))
+                    .willReturn(new PaymentIdempotencyService.Outcome("id-idem", null));
+            PaymentRequest req = new PaymentRequest();
+            req.setFirstName("Jane");
+            req.setLastName("Doe");
+            req.setZipCode("12345");
+            req.setCardNumber("4242424242424242");
+            String body = objectMapper.writeValueAsString(req);
+
+            // when
+            String etag = mockMvc.perform(post("/api/payments").header("Idempotency-Key", "key-1")
+                            .contentType(MediaType.APPLICATION_JSON).content(body))
+                    .andExpect(status().isCreated())
+                    .andExpect(header().doesNotExist("Idempotent-Replayed"))
+                    .andReturn().getResponse().getHeader("ETag");
+
+            // then: the replay is served from the read cache the first response filled
+            mockMvc.perform(post("/api/payments").header("Idempotency-Key", "key-1")
+                            .contentType(MediaType.APPLICATION_JSON).content(body))
+                    .andExpect(status().isCreated())
+                    .andExpect(header().string("Idempotent-Replayed", "true"))
+                    .andExpect(header().string("Location", containsString("/api/payments/id-idem")))
+                    .andExpect(header().string("ETag", etag))
+                    .andExpect(jsonPath("$.id", is("id-idem")));
+            then(paymentService).should(never()).createPayment(anyString(), anyString(), anyString(), anyString());
+            then(paymentService).should(never()).findPayment("id-idem");
+        }
+
+        @Test
+        @DisplayName("should answer a key reused with another request with 400, one in progress elsewhere with 409 and other failures with 500")
+        void shouldMapIdempotencyConflicts() throws Exception {
+            // given
+            given(idempotencyService.createPayment(eq("reused"), any(PaymentService.NewPayment.class)))
+                    .willThrow(new IllegalArgumentException("Idempotency-Key was already used with a different request"));
+            given(idempotencyService.createPayment(eq("busy"), any(PaymentService.NewPayment.class)))
+                    .willThrow(new ConflictException("A request with this Idempotency-Key is still in progress"));
+            given(idempotencyService.createPayment(eq("broken"), any(PaymentService.NewPayment.class)))
+                    .willThrow(new IllegalStateException("Tokenization was interrupted"));
+            PaymentRequest req = new PaymentRequest();
+            req.setFirstName("Jane");
+            req.setLastName("Doe");
+            req.setZipCode("12345");
+            req.setCardNumber("4242424242424242");
+
+            // when/then
+            mockMvc.perform(post("/api/payments").header("Idempotency-Key", "reused")
+                            .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(req)))
+                    .andExpect(status().isBadRequest());
+            mockMvc.perform(post("/api/payments").header("Idempotency-Key", "busy")
+                            .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(req)))
+                    .andExpect(status().isConflict());
+            mockMvc.perform(post("/api/payments").header("Idempotency-Key", "broken")
+                            .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(req)))
+                    .andExpect(status().isInternalServerError())
+                    .andExpect(jsonPath("$.message", is("Internal server error")));
         }
 
         @ParameterizedTest(name = "invalid request -> {index}")
@@ -122,4 +233,276 @@ class PaymentControllerTest {
                     .andExpect(jsonPath("$.errors", aMapWithSize(greaterThanOrEqualTo(1))));
         }
     }
+
+    @Nested
+    @DisplayName("GET /api/payments/{id}")
+    class GetPayment {
+        private Payment payment(String id) {
+            Payment p = new Payment();
+            p.setId(id);
+            p.setFirstName("Jane");
+            p.setLastName("Doe");
+            p.setZipCode("12345");
+            p.setCardLast4("4242");
+            p.setCreatedAt(Instant.now());
+            return p;
+        }
+
+        @Test
+        @DisplayName("should read through once and answer repeat reads with 304")
+        void shouldReadThroughAndAnswerNotModified() throws Exception {
+            // given
+            given(paymentService.findPayment("id-get")).willReturn(Optional.of(payment("id-get")));
+
+            // when
+            String etag = mockMvc.perform(get("/api/payments/id-get"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.id", is("id-get")))
+                    .andExpect(jsonPath("$.cardLast4", is("4242")))
+                    .andReturn().getResponse().getHeader("ETag");
+
+            // then
+            mockMvc.perform(get("/api/payments/id-get").header("If-None-Match", etag))
+                    .andExpect(status().isNotModified())
+                    .andExpect(header().string("ETag", etag));
+            mockMvc.perform(get("/api/payments/id-get").header("If-None-Match", "\"other\""))
+                    .andExpect(status().isOk());
+            then(paymentService).should(times(1)).findPayment("id-get");
+        }
+
+        @Test
+        @DisplayName("should serve a created payment from the cache")
+        void shouldServeCreatedPaymentWithoutLookup() throws Exception {
+            // given
+            given(paymentService.createPayment(anyString(), anyString(), anyString(), anyString()))
+                    .willReturn(payment("id-new"));
+            PaymentRequest req = new PaymentRequest();
+            req.setFirstName("Jane");
+            req.setLastName("Doe");
+            req.setZipCode("12345");
+            req.setCardNumber("4242424242424242");
+            String etag = mockMvc.perform(post("/api/payments")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(req)))
+                    .andReturn().getResponse().getHeader("ETag");
+
+            // when/then
+            mockMvc.perform(get("/api/payments/id-new"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("ETag", etag));
+            then(paymentService).should(never()).findPayment("id-new");
+        }
+
+        @Test
+        @DisplayName("should return 404 for unknown ids")
+        void shouldReturnNotFound() throws Exception {
+            given(paymentService.findPayment("missing")).willReturn(Optional.empty());
+
+            mockMvc.perform(get("/api/payments/missing"))
+                    .andExpect(status().isNotFound());
+        }
+    }
+
+    @Nested
+    @DisplayName("GET /api/payments")
+    class ListPayments {
+        private Payment payment(String id, String lastName) {
+            Payment p = new Payment();
+            p.setId(id);
+            p.setFirstName("Jane");
+            p.setLastName(lastName);
+            p.setZipCode("12345");
+            p.setCardLast4("4242");
+            p.setCreatedAt(Instant.parse("2025-03-01T10:15:30Z"));
+            return p;
+        }
+
+        @Test
+        @DisplayName("should return a page with the filters and cursor passed through")
+        void shouldListPage() throws Exception {
+            // given
+            given(paymentService.listPayments(new PaymentFilter("Doe", "12345"), "abc", 2))
+                    .willReturn(new PaymentService.PaymentPage(List.of(payment("p2", "Doe"), payment("p1", "Doe")), "next"));
+
+            // when/then
+            mockMvc.perform(get("/api/payments")
+                            .param("lastName", "Doe").param("zipCode", "12345")
+                            .param("cursor", "abc").param("limit", "2"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.items", hasSize(2)))
+                    .andExpect(jsonPath("$.items[0].id", is("p2")))
+                    .andExpect(jsonPath("$.items[0].cardLast4", is("4242")))
+                    .andExpect(jsonPath("$.nextCursor", is("next")));
+        }
+
+        @Test
+        @DisplayName("should reject limits out of range and bad cursors with 400")
+        void shouldRejectBadParameters() throws Exception {
+            given(paymentService.listPayments(new PaymentFilter(null, null), "bad", 50))
+                    .willThrow(new IllegalArgumentException("Invalid cursor"));
+
+            mockMvc.perform(get("/api/payments").param("limit", "501"))
+                    .andExpect(status().isBadRequest());
+            mockMvc.perform(get("/api/payments").param("limit", "0"))
+                    .andExpect(status().isBadRequest());
+            mockMvc.perform(get("/api/payments").param("cursor", "bad"))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("$.message", is("Invalid cursor")));
+        }
+
+        @Test
+        @DisplayName("should stream the export as one JSON object per line and close the cursor")
+        void shouldExportNdjson() throws Exception {
+            // given
+            AtomicBoolean closed = new AtomicBoolean();
+            given(paymentService.streamPayments(new PaymentFilter(null, "12345")))
+                    .willReturn(Stream.of(payment("p2", "Doe"), payment("p1", "Roe")).onClose(() -> closed.set(true)));
+
+            // when
+            MvcResult started = mockMvc.perform(get("/api/payments/export").param("zipCode", "12345"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            assertEquals(1_800_000L, started.getRequest().getAsyncContext().getTimeout(),
+                    "payment.export.timeout-ms, not the application-wide async timeout");
+            String body = mockMvc.perform(asyncDispatch(started))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType("application/x-ndjson"))
+                    .andReturn().getResponse().getContentAsString();
+
+            // then
+            String[] lines = body.split("\n", -1);
+            assertEquals(3, lines.length);
+            assertEquals("p2", objectMapper.readTree(lines[0]).get("id").asText());
+            assertEquals("Roe", objectMapper.readTree(lines[1]).get("lastName").asText());
+            assertEquals("", lines[2]);
+            assertTrue(closed.get());
+        }
+    }
+
+    @Nested
+    @DisplayName("POST /api/payments/bulk")
+    class BulkCreate {
+        private static final String JANE = "{\"firstName\":\"Jane\",\"lastName\":\"Doe\",\"zipCode\":\"12345\",\"cardNumber\":\"4242424242424242\"}";
+        private static final String JOHN = "{\"firstName\":\"John\",\"lastName\":\"Roe\",\"zipCode\":\"54321\",\"cardNumber\":\"5555444433332222\"}";
+        private static final String BAD_ZIP = "{\"firstName\":\"Jim\",\"lastName\":\"Poe\",\"zipCode\":\"x\",\"cardNumber\":\"4242424242424242\"}";
+
+        @BeforeEach
+        void resetService() {
+            // The mock is shared by the whole context
+            reset(paymentService);
+        }
+
+        private List<JsonNode> results(MockHttpServletRequestBuilder request) throws Exception {
+            MvcResult started = mockMvc.perform(request).andExpect(request().asyncStarted()).andReturn();
+            assertEquals(1_800_000L, started.getRequest().getAsyncContext().getTimeout());
+            String body = mockMvc.perform(asyncDispatch(started))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType("application/x-ndjson"))
+                    .andReturn().getResponse().getContentAsString();
+            List<JsonNode> results = new ArrayList<>();
+            for (String line : body.split("\n")) {
+                results.add(objectMapper.readTree(line));
+            }
+            return results;
+        }
+
+        private void createPaymentsAsGiven() {
+            given(paymentService.createPayments(anyList())).willAnswer(inv -> {
+                List<PaymentService.NewPayment> batch = inv.getArgument(0);
+                List<Payment> created = new ArrayList<>();
+                for (PaymentService.NewPayment req : batch) {
+                    Payment p = new Payment();
+                    p.setId("id-" + req.lastName());
+                    p.setLastName(req.lastName());
+                    p.setCardLast4(req.cardNumber().substring(req.cardNumber().length() - 4));
+                    created.add(p);
+                }
+                return created;
+            });
+        }
+
+        @Test
+        @DisplayName("should create valid NDJSON items in chunks and report every item in order")
+        void shouldIngestNdjson() throws Exception {
+            // given
+            createPaymentsAsGiven();
+
+            // when
+            List<JsonNode> results = results(post("/api/payments/bulk")
+                    .contentType("application/x-ndjson")
+                    .content(JANE + "\n" + BAD_ZIP + "\n" + JOHN + "\n[]\n" + JANE + "\n"));
+
+            // then
+            assertEquals(5, results.size());
+            assertEquals("CREATED", results.get(0).get("status").asText());
+            assertEquals("id-Doe", results.get(0).get("payment").get("id").asText());
+            assertEquals("INVALID", results.get(1).get("status").asText());
+            assertTrue(results.get(1).get("errors").has("zipCode"));
+            assertEquals("id-Roe", results.get(2).get("payment").get("id").asText());
+            assertEquals("INVALID", results.get(3).get("status").asText());
+            assertEquals(4, results.get(4).get("index").asInt());
+            then(paymentService).should(times(3)).createPayments(anyList());
+        }
+
+        @Test
+        @DisplayName("should accept a JSON array and stop at malformed input or the item limit")
+        void shouldIngestArrayAndStopAtBrokenBody() throws Exception {
+            // given
+            createPaymentsAsGiven();
+
+            // when
+            List<JsonNode> broken = results(post("/api/payments/bulk")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("[" + JANE + "," + JOHN + "," + JANE + ", {\"firstName\": ]"));
+            List<JsonNode> tooMany = results(post("/api/payments/bulk")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("[" + String.join(",", JANE, JANE, JANE, JANE, JANE, JANE, JANE) + "]"));
+
+            // then
+            assertEquals(4, broken.size());
+            assertEquals("CREATED", broken.get(2).get("status").asText());
+            assertEquals(3, broken.get(3).get("index").asInt());
+            assertTrue(broken.get(3).get("errors").get("body").asText().startsWith("Malformed JSON"));
+            assertEquals(6, tooMany.size());
+            assertEquals("INVALID", tooMany.get(5).get("status").asText());
+        }
+
+        @Test
+        @DisplayName("should report the items of a chunk that could not be stored as FAILED and go on")
+        void shouldReportFailedChunk() throws Exception {
+            // given
+            given(paymentService.createPayments(anyList()))
+                    .willThrow(new RuntimeException("mongo down"))
+                    .willReturn(List.of(new Payment()));
+
+            // when
+            List<JsonNode> results = results(post("/api/payments/bulk")
+                    .contentType("application/x-ndjson")
+                    .content(JANE + "\n" + JOHN + "\n" + JANE));
+
+            // then
+            assertEquals("FAILED", results.get(0).get("status").asText());
+            assertEquals("FAILED", results.get(1).get("status").asText());
+            assertEquals("CREATED", results.get(2).get("status").asText());
+        }
+
+        @Test
+        @DisplayName("should report only the payment of a chunk that was not stored as FAILED")
+        void shouldReportFailedItemOfChunk() throws Exception {
+            // given
+            Payment jane = new Payment();
+            jane.setId("id-Doe");
+            given(paymentService.createPayments(anyList())).willReturn(Arrays.asList(jane, null));
+
+            // when
+            List<JsonNode> results = results(post("/api/payments/bulk")
+                    .contentType("application/x-ndjson")
+                    .content(JANE + "\n" + JOHN));
+
+            // then
+            assertEquals("CREATED", results.get(0).get("status").asText());
+            assertEquals("id-Doe", results.get(0).get("payment").get("id").asText());
+            assertEquals("FAILED", results.get(1).get("status").asText());
+        }
+    }
 }
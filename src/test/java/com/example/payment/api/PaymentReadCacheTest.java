@@ -0,0 +1,63 @@
+package com.example.payment.api;
+
+import com.example.payment.api.dto.PaymentResponse;
+import com.example.payment.domain.Payment;
+import com.example.payment.repository.PaymentRepository;
+import com.example.payment.repository.WebhookEventRepository;
+import com.example.payment.repository.WebhookPayloadRepository;
+import com.example.payment.repository.WebhookRegistrationRepository;
+import com.example.payment.security.EncryptionService;
+import com.example.payment.service.CardVaultService;
+import com.example.payment.service.PaymentBatchWriter;
+import com.example.payment.service.PaymentService;
+import com.example.payment.service.WebhookRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+class PaymentReadCacheTest {
+
+    private final PaymentRepository paymentRepository = mock(PaymentRepository.class);
+    private final WebhookRegistrationRepository registrationRepository = mock(WebhookRegistrationRepository.class);
+    private final PaymentService paymentService = new PaymentService(paymentRepository,
+            new PaymentBatchWriter(paymentRepository, false, 1, 0), new WebhookRegistry(registrationRepository),
+            mock(WebhookEventRepository.class), mock(WebhookPayloadRepository.class), mock(EncryptionService.class),
+            mock(CardVaultService.class), new ObjectMapper(), mock(ApplicationEventPublisher.class));
+
+    @Test
+    void shouldGiveTheSameEtagWrittenThroughOnCreationAndReadBackFromMongo() {
+        // given
+        given(paymentRepository.save(any(Payment.class))).willAnswer(inv -> {
+            Payment p = inv.getArgument(0);
+            p.setId("p1");
+            return p;
+        });
+        given(registrationRepository.findByActiveTrue()).willReturn(List.of());
+        Payment created = paymentService.createPayment("Jane", "Doe", "12345", "4242424242424242");
+        // What Mongo hands back: a BSON date, millisecond precision
+        Payment stored = new Payment();
+        stored.setId(created.getId());
+        stored.setFirstName(created.getFirstName());
+        stored.setLastName(created.getLastName());
+        stored.setZipCode(created.getZipCode());
+        stored.setCardLast4(created.getCardLast4());
+        stored.setCreatedAt(Date.from(created.getCreatedAt()).toInstant());
+        given(paymentRepository.findById("p1")).willReturn(Optional.of(stored));
+
+        // when: this node writes through, another node reads through
+        PaymentReadCache.Entry writtenThrough = new PaymentReadCache(paymentService, 10, 60_000)
+                .put(PaymentResponse.from(created));
+        PaymentReadCache.Entry readThrough = new PaymentReadCache(paymentService, 10, 60_000).get("p1");
+
+        // then
+        assertEquals(writtenThrough.etag(), readThrough.etag());
+        assertEquals(writtenThrough.response().getCreatedAt(), readThrough.response().getCreatedAt());
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.payment.api;
+
+import com.example.payment.service.ConflictException;
+import com.example.payment.service.WebhookDispatchLanes;
+import com.example.payment.service.WebhookDispatcherService;
+import com.example.payment.service.WebhookRegistry;
+import com.example.payment.service.WebhookReplayService;
+import com.example.payment.repository.WebhookEventRepositoryCustom.DeadLetterFilter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = WebhookAdminController.class)
+@Import(WebhookAdminControllerTest.TestConfig.class)
+class WebhookAdminControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    WebhookRegistry webhookRegistry;
+
+    @Autowired
+    WebhookDispatcherService webhookDispatcherService;
+
+    @Autowired
+    WebhookReplayService webhookReplayService;
+
+    static class TestConfig {
+        @Bean
+        public WebhookRegistry webhookRegistry() {
+            return mock(WebhookRegistry.class);
+        }
+
+        @Bean
+        public WebhookDispatcherService webhookDispatcherService() {
+            return mock(WebhookDispatcherService.class);
+        }
+
+        @Bean
+        public WebhookReplayService webhookReplayService() {
+            return mock(WebhookReplayService.class);
+        }
+    }
+
+    @Test
+    void shouldExposeRegistryStats() throws Exception {
+        given(webhookRegistry.stats()).willReturn(new WebhookRegistry.Stats(10, 2, 3, Instant.now()));
+
+        mockMvc.perform(get("/api/admin/webhooks/registry/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.hits", is(10)))
+                .andExpect(jsonPath("$.misses", is(2)))
+                .andExpect(jsonPath("$.size", is(3)));
+    }
+
+    @Test
+    void shouldExposeDispatchStatsPerLane() throws Exception {
+        given(webhookDispatcherService.stats()).willReturn(new WebhookDispatcherService.Stats(32, 5, 7, List.of(
+                new WebhookDispatchLanes.LaneStats(WebhookDispatchLanes.Lane.FRESH, 1, 32, 100, 0, 0),
+                new WebhookDispatchLanes.LaneStats(WebhookDispatchLanes.Lane.RETRY, 4, 16, 40, 1200, 90_000))));
+
+        mockMvc.perform(get("/api/admin/webhooks/dispatch/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.inFlight", is(5)))
+                .andExpect(jsonPath("$.lanes[1].lane", is("RETRY")))
+                .andExpect(jsonPath("$.lanes[1].queueDepth", is(1200)))
+                .andExpect(jsonPath("$.lanes[1].oldestDueAgeMs", is(90_000)));
+    }
+
+    private static WebhookReplayService.Progress progress(String id, WebhookReplayService.State state) {
+        return new WebhookReplayService.Progress(id, state, "https://example.com/hook", null, null, 100,
+                1000, 200, 200, false, Instant.now(), null, null);
+    }
+
+    @Test
+    void shouldListDeadLettersWithFilters() throws Exception {
+        Instant from = Instant.parse("2026-01-01T00:00:00Z");
+        DeadLetterFilter filter = new DeadLetterFilter("https://example.com/hook", from, null);
+        given(webhookReplayService.deadLetters(filter, "abc", 50)).willReturn(new WebhookReplayService.DeadLetterPage(
+                List.of(new WebhookReplayService.DeadLetter("d1", "https://example.com/hook", "p1", 8, 0, from, "HTTP 500", from)),
+                "d1"));
+
+        mockMvc.perform(get("/api/admin/webhooks/dead-letters")
+                        .param("targetUrl", "https://example.com/hook")
+                        .param("from", "2026-01-01T00:00:00Z")
+                        .param("after", "abc")
+                        .param("limit", "50"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0].id", is("d1")))
+                .andExpect(jsonPath("$.items[0].lastError", is("HTTP 500")))
+                .andExpect(jsonPath("$.nextAfter", is("d1")));
+    }
+
+    @Test
+    void shouldRejectOversizedDeadLetterPage() throws Exception {
+        mockMvc.perform(get("/api/admin/webhooks/dead-letters").param("limit", "5000"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldStartReplayAsBackgroundJob() throws Exception {
+        given(webhookReplayService.startReplay(new DeadLetterFilter("https://example.com/hook", null, null), 50))
+                .willReturn(progress("job-1", WebhookReplayService.State.RUNNING));
+
+        mockMvc.perform(post("/api/admin/webhooks/dead-letters/replays")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"targetUrl\":\"https://example.com/hook\",\"ratePerSecond\":50}"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", "/api/admin/webhooks/dead-letters/replays/job-1"))
+                .andExpect(jsonPath("$.state", is("RUNNING")));
+    }
+
+    @Test
+    void shouldRejectInvalidReplayRate() throws Exception {
+        mockMvc.perform(post("/api/admin/webhooks/dead-letters/replays")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ratePerSecond\":0}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldAnswerConflictWhileAnotherReplayRuns() throws Exception {
+        given(webhookReplayService.startReplay(new DeadLetterFilter(null, null, null), null)).willThrow(new ConflictException("Replay job-1 is still running"));
+
+        mockMvc.perform(post("/api/admin/webhooks/dead-letters/replays")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{}"))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void shouldReportAndCancelReplay() throws Exception {
+        given(webhookReplayService.progress("job-1")).willReturn(progress("job-1", WebhookReplayService.State.RUNNING));
+        given(webhookReplayService.cancel("job-1")).willReturn(progress("job-1", WebhookReplayService.State.RUNNING));
+
+        mockMvc.perform(get("/api/admin/webhooks/dead-letters/replays/job-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.requeued", is(200)))
+                .andExpect(jsonPath("$.total", is(1000)));
+        mockMvc.perform(delete("/api/admin/webhooks/dead-letters/replays/job-1"))
+                .andExpect(status().isAccepted());
+        mockMvc.perform(get("/api/admin/webhooks/dead-letters/replays/unknown"))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -20,6 +20,7 @@ import java.time.Instant;
 import java.util.List;
 
 import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
@@ -79,7 +80,7 @@ class WebhookControllerTest {
             reg.setEndpointUrl("https://example.com/hook");
             reg.setActive(true);
             reg.setCreatedAt(Instant.now());
-            given(webhookService.register(anyString())).willReturn(reg);
+            given(webhookService.register(anyString(), any(), any())).willReturn(reg);
 
             WebhookRegisterRequest req = new WebhookRegisterRequest();
             req.setEndpointUrl("https://example.com/hook");
@@ -93,6 +94,32 @@ class WebhookControllerTest {
                     .andExpect(jsonPath("$.active", is(true)));
         }
 
+        @Test
+        void shouldPassBatchSettings() throws Exception {
+            WebhookRegistration reg = new WebhookRegistration();
+            reg.setId("w1");
+            reg.setEndpointUrl("https://example.com/hook");
+            reg.setBatchSize(50);
+            reg.setBatchLingerMs(500);
+            given(webhookService.register("https://example.com/hook", 50, 500L)).willReturn(reg);
+
+            mockMvc.perform(post("/api/webhooks")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"endpointUrl\":\"https://example.com/hook\",\"batchSize\":50,\"batchLingerMs\":500}"))
+                    .andExpect(status().isCreated())
+                    .andExpect(jsonPath("$.batchSize", is(50)))
+                    .andExpect(jsonPath("$.batchLingerMs", is(500)));
+        }
+
+        @ParameterizedTest(name = "invalid batchSize: {0}")
+        @ValueSource(ints = {0, 1001})
+        void shouldValidateBatchSize(int batchSize) throws Exception {
+            mockMvc.perform(post("/api/webhooks")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"endpointUrl\":\"https://example.com/hook\",\"batchSize\":" + batchSize + "}"))
+                    .andExpect(status().isBadRequest());
+        }
+
         @ParameterizedTest(name = "invalid endpoint: {0}")
         @ValueSource(strings = {"", "ftp://x", "http://", "not-a-url"})
         void shouldValidateBadUrl(String url) throws Exception {
@@ -101,7 +128,7 @@ class WebhookControllerTest {
 
             // Service performs URL validation and throws IllegalArgumentException
             if (!url.isBlank()) {
-                given(webhookService.register(url))
+                given(webhookService.register(url, null, null))
                         .willThrow(new IllegalArgumentException("Invalid endpointUrl: bad url"));
             }
 
@@ -0,0 +1,84 @@
+package com.example.payment.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LruCacheTest {
+
+    @Test
+    void shouldEvictLeastRecentlyUsedEntry() {
+        // given: one segment
+        LruCache<String, String> cache = new LruCache<>(1);
+        cache.put("a", "1");
+
+        // when
+        cache.put("b", "2");
+
+        // then
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+        assertEquals(new LruCache.Stats(1, 1, 1, 1, 1), cache.stats());
+    }
+
+    @Test
+    void shouldKeepRecentlyReadEntriesWithinASegment() {
+        // given: capacity 3 has two segments; keys 0, 2, 4 share the first one, which holds 2 entries
+        LruCache<Integer, String> cache = new LruCache<>(3);
+        cache.put(0, "zero");
+        cache.put(2, "two");
+
+        // when: 0 is read, so 2 is the eldest when 4 arrives
+        assertEquals("zero", cache.get(0));
+        cache.put(4, "four");
+
+        // then
+        assertEquals("zero", cache.get(0));
+        assertNull(cache.get(2));
+        assertEquals("four", cache.get(4));
+    }
+
+    @Test
+    void shouldStayWithinCapacity() {
+        // given
+        LruCache<Integer, Integer> cache = new LruCache<>(100);
+
+        // when
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(i, i);
+        }
+
+        // then
+        assertTrue(cache.size() <= 100);
+        assertEquals(10_000 - cache.size(), cache.stats().evictions());
+        cache.invalidate(9_999);
+        assertNull(cache.get(9_999));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void shouldExpireEntriesAfterTheirTimeToLive() {
+        // given
+        AtomicLong now = new AtomicLong();
+        LruCache<String, String> cache = new LruCache<>(10, Duration.ofNanos(100), now::get);
+        cache.put("a", "1");
+
+        // when / then
+        now.set(99);
+        assertEquals("1", cache.get("a"));
+        cache.put("b", "2");
+        now.set(100);
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+        assertEquals(1, cache.stats().evictions());
+    }
+
+    @Test
+    void shouldRejectEmptyCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new LruCache<>(0));
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.payment.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BeansConfigTest {
+
+    @Test
+    void shouldBuildKeyringFromLegacyKeyAndKeyList() {
+        assertEquals(Map.of(0, "k0=", 1, "k1=", 7, "k7+/"), BeansConfig.keyring("k0=", " 1:k1=, 7:k7+/ ,"));
+        assertEquals(Map.of(2, "k2"), BeansConfig.keyring("", "2:k2"));
+        assertEquals(Map.of(0, "k0"), BeansConfig.keyring("k0", ""));
+    }
+
+    @Test
+    void shouldRejectMalformedOrDuplicateEntries() {
+        assertThrows(IllegalArgumentException.class, () -> BeansConfig.keyring("", "k1"));
+        assertThrows(IllegalArgumentException.class, () -> BeansConfig.keyring("k0", "0:k1"));
+        assertThrows(IllegalArgumentException.class, () -> BeansConfig.keyring("", "x:k1"));
+    }
+}
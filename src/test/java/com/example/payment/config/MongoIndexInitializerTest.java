@@ -0,0 +1,187 @@
+package com.example.payment.config;
+
+import com.example.payment.domain.CardToken;
+import com.example.payment.domain.IdempotencyKey;
+import com.example.payment.domain.Payment;
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.repository.WebhookEventRepository;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+class MongoIndexInitializerTest {
+
+    private MongoTemplate mongoTemplate;
+    private IndexOperations indexOps;
+    private WebhookEventRepository repository;
+
+    @BeforeEach
+    void setup() {
+        mongoTemplate = mock(MongoTemplate.class);
+        indexOps = mock(IndexOperations.class);
+        repository = mock(WebhookEventRepository.class);
+        given(mongoTemplate.indexOps(WebhookEvent.class)).willReturn(indexOps);
+    }
+
+    private static IndexInfo indexNamed(String name) {
+        return IndexInfo.indexInfoOf(new Document("name", name).append("key", new Document(name, 1)));
+    }
+
+    @Nested
+    @DisplayName("ensureWebhookEventIndexes")
+    class EnsureIndexes {
+        @Test
+        void shouldCreatePartialDueIndexAndDropSupersededOnes() {
+            // given
+            given(indexOps.getIndexInfo()).willReturn(List.of(
+                    indexNamed("_id_"),
+                    indexNamed(MongoIndexInitializer.LEGACY_NEXT_ATTEMPT_INDEX),
+                    indexNamed(MongoIndexInitializer.DUE_COMPOUND_INDEX)));
+            MongoIndexInitializer initializer = new MongoIndexInitializer(mongoTemplate, repository, "partial", false, 100, 86_400_000);
+
+            // when
+            initializer.ensureWebhookEventIndexes();
+
+            // then
+            ArgumentCaptor<IndexDefinition> captor = ArgumentCaptor.forClass(IndexDefinition.class);
+            then(indexOps).should(times(6)).createIndex(captor.capture());
+            IndexDefinition due = captor.getAllValues().getFirst();
+            assertEquals(new Document("status", 1).append("nextAttemptAt", 1), due.getIndexKeys());
+            assertEquals(MongoIndexInitializer.DUE_PARTIAL_INDEX, due.getIndexOptions().getString("name"));
+            assertNotNull(due.getIndexOptions().get("partialFilterExpression"));
+            then(indexOps).should().dropIndex(MongoIndexInitializer.LEGACY_NEXT_ATTEMPT_INDEX);
+            then(indexOps).should().dropIndex(MongoIndexInitializer.DUE_COMPOUND_INDEX);
+        }
+
+        @Test
+        void shouldCreatePlainCompoundIndexWhenConfigured() {
+            // given
+            given(indexOps.getIndexInfo()).willReturn(List.of(indexNamed("_id_")));
+            MongoIndexInitializer initializer = new MongoIndexInitializer(mongoTemplate, repository, "compound", false, 100, 86_400_000);
+
+            // when
+            initializer.ensureWebhookEventIndexes();
+
+            // then
+            ArgumentCaptor<IndexDefinition> captor = ArgumentCaptor.forClass(IndexDefinition.class);
+            then(indexOps).should(times(6)).createIndex(captor.capture());
+            IndexDefinition due = captor.getAllValues().getFirst();
+            assertEquals(MongoIndexInitializer.DUE_COMPOUND_INDEX, due.getIndexOptions().getString("name"));
+            assertNull(due.getIndexOptions().get("partialFilterExpression"));
+            then(indexOps).should(never()).dropIndex(anyString());
+        }
+
+        @Test
+        void shouldRejectUnknownStrategy() {
+            assertThrows(IllegalArgumentException.class,
+                    () -> new MongoIndexInitializer(mongoTemplate, repository, "hashed", false, 100, 86_400_000));
+        }
+
+        @Test
+        void shouldCreateUniqueCardFingerprintIndex() {
+            // given
+            IndexOperations vaultOps = mock(IndexOperations.class);
+            given(mongoTemplate.indexOps(CardToken.class)).willReturn(vaultOps);
+            MongoIndexInitializer initializer = new MongoIndexInitializer(mongoTemplate, repository, "partial", false, 100, 86_400_000);
+
+            // when
+            initializer.ensureCardVaultIndexes();
+
+            // then
+            ArgumentCaptor<IndexDefinition> captor = ArgumentCaptor.forClass(IndexDefinition.class);
+            then(vaultOps).should().createIndex(captor.capture());
+            assertEquals(new Document("fingerprint", 1), captor.getValue().getIndexKeys());
+            assertEquals(true, captor.getValue().getIndexOptions().get("unique"));
+        }
+
+        @Test
+        void shouldCreateNewestFirstPaymentIndexesLedByEachFilter() {
+            // given
+            IndexOperations paymentOps = mock(IndexOperations.class);
+            given(mongoTemplate.indexOps(Payment.class)).willReturn(paymentOps);
+            MongoIndexInitializer initializer = new MongoIndexInitializer(mongoTemplate, repository, "partial", false, 100, 86_400_000);
+
+            // when
+            initializer.ensurePaymentIndexes();
+
+            // then
+            ArgumentCaptor<IndexDefinition> captor = ArgumentCaptor.forClass(IndexDefinition.class);
+            then(paymentOps).should(times(3)).createIndex(captor.capture());
+            List<IndexDefinition> indexes = captor.getAllValues();
+            assertEquals(new Document("createdAt", -1).append("_id", -1), indexes.get(0).getIndexKeys());
+            assertEquals(new Document("lastName", 1).append("createdAt", -1).append("_id", -1),
+                    indexes.get(1).getIndexKeys());
+            assertEquals(new Document("zipCode", 1).append("createdAt", -1).append("_id", -1),
+                    indexes.get(2).getIndexKeys());
+            assertEquals(MongoIndexInitializer.PAYMENT_ZIP_CODE_INDEX, indexes.get(2).getIndexOptions().getString("name"));
+        }
+
+        @Test
+        void shouldExpireIdempotencyKeysAfterTheirTtl() {
+            // given
+            IndexOperations keyOps = mock(IndexOperations.class);
+            given(mongoTemplate.indexOps(IdempotencyKey.class)).willReturn(keyOps);
+            MongoIndexInitializer initializer = new MongoIndexInitializer(mongoTemplate, repository, "partial", false, 100, 3_600_000);
+
+            // when
+            initializer.ensureIdempotencyKeyIndexes();
+
+            // then
+            ArgumentCaptor<IndexDefinition> captor = ArgumentCaptor.forClass(IndexDefinition.class);
+            then(keyOps).should().createIndex(captor.capture());
+            assertEquals(new Document("createdAt", 1), captor.getValue().getIndexKeys());
+            assertEquals(3600L, captor.getValue().getIndexOptions().get("expireAfterSeconds"));
+        }
+    }
+
+    @Nested
+    @DisplayName("planStages")
+    class PlanStages {
+        @Test
+        void shouldFlattenNestedStagesRootFirst() {
+            Document plan = new Document("stage", "LIMIT")
+                    .append("inputStage", new Document("stage", "PROJECTION_COVERED")
+                            .append("inputStage", new Document("stage", "SORT_MERGE")
+                                    .append("inputStages", List.of(
+                                            new Document("stage", "IXSCAN"),
+                                            new Document("stage", "IXSCAN")))));
+
+            assertEquals(List.of("LIMIT", "PROJECTION_COVERED", "SORT_MERGE", "IXSCAN", "IXSCAN"),
+                    MongoIndexInitializer.planStages(plan));
+        }
+
+        @Test
+        void shouldUnwrapSlotBasedEnginePlans() {
+            Document plan = new Document("queryPlan", new Document("stage", "FETCH")
+                    .append("inputStage", new Document("stage", "IXSCAN")));
+
+            assertEquals(List.of("FETCH", "IXSCAN"), MongoIndexInitializer.planStages(plan));
+        }
+
+        @Test
+        void shouldLogPlanFromRepositoryExplain() {
+            // given
+            given(repository.explainDueQuery(any(), anyInt())).willReturn(new Document("queryPlanner",
+                    new Document("winningPlan", new Document("stage", "COLLSCAN"))));
+            MongoIndexInitializer initializer = new MongoIndexInitializer(mongoTemplate, repository, "partial", true, 50, 86_400_000);
+
+            // when
+            initializer.checkDueQueryPlan();
+
+            // then
+            then(repository).should().explainDueQuery(any(), eq(50));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.payment.repository;
+
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookStatus;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the lease queries against a real MongoDB, as the projections and update criteria they
+ * depend on are invisible to mocked repositories.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class WebhookEventRepositoryCustomImplTest {
+
+    private static final String NODE = "node-1";
+    private static final Duration LEASE = Duration.ofMinutes(2);
+
+    @Container
+    private static final MongoDBContainer MONGO = new MongoDBContainer("mongo:7.0");
+
+    private static MongoClient client;
+    private static MongoTemplate mongoTemplate;
+    private WebhookEventRepositoryCustomImpl repository;
+
+    @BeforeAll
+    static void connect() {
+        client = MongoClients.create(MONGO.getConnectionString());
+        mongoTemplate = new MongoTemplate(client, "webhooks");
+    }
+
+    @AfterAll
+    static void disconnect() {
+        client.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.dropCollection(WebhookEvent.class);
+        repository = new WebhookEventRepositoryCustomImpl(mongoTemplate);
+    }
+
+    private static WebhookEvent due(String id, int attempts) {
+        WebhookEvent ev = new WebhookEvent();
+        ev.setId(id);
+        ev.setTargetUrl("https://example.com/hook");
+        ev.setPayloadId("payload-1");
+        ev.setStatus(attempts == 0 ? WebhookStatus.PENDING : WebhookStatus.RETRY);
+        ev.setAttempts(attempts);
+        ev.setNextAttemptAt(Instant.now().minusSeconds(1).truncatedTo(ChronoUnit.MILLIS));
+        ev.setCreatedAt(Instant.now().truncatedTo(ChronoUnit.MILLIS));
+        return ev;
+    }
+
+    private static WebhookEvent stored(String id) {
+        return mongoTemplate.findById(id, WebhookEvent.class);
+    }
+
+    @Nested
+    @DisplayName("claimed events")
+    class Claimed {
+        @Test
+        void shouldCompleteDeliveredEventUnderItsLease() {
+            // given
+            mongoTemplate.insert(due("a", 0));
+            List<WebhookEvent> claimed = repository.claimDue(NODE, WebhookStatus.PENDING, Instant.now(), LEASE, 10, List.of());
+            WebhookEvent ev = claimed.getFirst();
+            ev.setStatus(WebhookStatus.DELIVERED);
+            ev.setAttempts(1);
+            ev.setLastAttemptAt(Instant.now());
+            ev.setNextAttemptAt(null);
+            ev.setCompletedAt(Instant.now());
+
+            // when
+            long written = repository.completeAttempts(claimed, NODE);
+
+            // then
+            assertEquals(1, written);
+            WebhookEvent saved = stored("a");
+            assertEquals(WebhookStatus.DELIVERED, saved.getStatus());
+            assertNull(saved.getLeaseOwner());
+            assertNull(saved.getLeaseToken());
+        }
+
+        @Test
+        void shouldNotCompleteEventClaimedAgainUnderAnotherLease() {
+            // given: the first claim expired and the event was claimed again
+            mongoTemplate.insert(due("a", 0));
+            List<WebhookEvent> stale = repository.claimDue(NODE, WebhookStatus.PENDING, Instant.now(), Duration.ZERO, 10, List.of());
+            repository.recoverExpiredLeases(Instant.now(), 8);
+            repository.claimDue(NODE, WebhookStatus.PENDING, Instant.now(), LEASE, 10, List.of());
+            stale.getFirst().setStatus(WebhookStatus.DELIVERED);
+
+            // when / then
+            assertEquals(0, repository.completeAttempts(stale, NODE));
+            assertEquals(WebhookStatus.IN_FLIGHT, stored("a").getStatus());
+        }
+
+        @Test
+        void shouldReleaseClaimsToTheirPreviousStatus() {
+            // given
+            mongoTemplate.insert(List.of(due("fresh", 0), due("retried", 2)), WebhookEvent.class);
+            List<WebhookEvent> claimed = repository.claimDueByIds(NODE, List.of("fresh", "retried"), Instant.now(), LEASE);
+
+            // when
+            repository.releaseClaims(claimed, NODE);
+
+            // then
+            assertEquals(WebhookStatus.PENDING, stored("fresh").getStatus());
+            assertEquals(WebhookStatus.RETRY, stored("retried").getStatus());
+            assertNull(stored("retried").getLeaseToken());
+        }
+    }
+
+    @Nested
+    @DisplayName("recoverExpiredLeases")
+    class RecoverExpiredLeases {
+        @Test
+        void shouldCountTheLostAttempt() {
+            // given
+            mongoTemplate.insert(List.of(due("fresh", 0), due("retried", 2), due("last", 7)), WebhookEvent.class);
+            repository.claimDueByIds(NODE, List.of("fresh", "retried", "last"), Instant.now(), Duration.ZERO);
+
+            // when
+            long recovered = repository.recoverExpiredLeases(Instant.now(), 8);
+
+            // then
+            assertEquals(3, recovered);
+            assertEquals(WebhookStatus.PENDING, stored("fresh").getStatus());
+            assertEquals(1, stored("fresh").getAttempts());
+            assertEquals(WebhookStatus.RETRY, stored("retried").getStatus());
+            assertEquals(3, stored("retried").getAttempts());
+            assertEquals(WebhookStatus.FAILED, stored("last").getStatus());
+            assertNotNull(stored("last").getCompletedAt());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.payment.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CardFingerprinterTest {
+
+    private static String key(int length, int fill) {
+        byte[] key = new byte[length];
+        Arrays.fill(key, (byte) fill);
+        return Base64.getEncoder().encodeToString(key);
+    }
+
+    @Test
+    void shouldBeStablePerCardAndDependOnTheKey() {
+        CardFingerprinter fingerprinter = new CardFingerprinter(key(32, 1));
+
+        String first = fingerprinter.fingerprint("4242424242424242");
+
+        assertEquals(64, first.length());
+        assertEquals(first, fingerprinter.fingerprint("4242424242424242"));
+        assertNotEquals(first, fingerprinter.fingerprint("4242424242424241"));
+        assertNotEquals(first, new CardFingerprinter(key(32, 2)).fingerprint("4242424242424242"));
+    }
+
+    @Test
+    void shouldRejectShortKeys() {
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> new CardFingerprinter(key(8, 1)));
+        assertTrue(exception.getMessage().contains("Invalid Base64 or HMAC key configuration"));
+    }
+}
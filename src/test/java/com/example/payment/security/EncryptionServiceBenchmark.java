@@ -0,0 +1,121 @@
+package com.example.payment.security;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link EncryptionService} with the previous implementation (a new Cipher per call,
+ * one shared SecureRandom, two Base64 strings). Run {@link #main} after {@code ./mvnw test-compile},
+ * e.g. from the IDE; add a GC profiler to the options to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class EncryptionServiceBenchmark {
+
+    private static final String CARD = "4242424242424242";
+
+    private EncryptionService pooled;
+    private LegacyEncryption legacy;
+    private String pooledCiphertext;
+    private String legacyCiphertext;
+
+    @Setup
+    public void setup() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        String base64Key = Base64.getEncoder().encodeToString(key);
+        pooled = new EncryptionService(base64Key);
+        legacy = new LegacyEncryption(base64Key);
+        pooledCiphertext = pooled.encrypt(CARD);
+        legacyCiphertext = legacy.encrypt(CARD);
+    }
+
+    @Benchmark
+    public String encryptPooled() {
+        return pooled.encrypt(CARD);
+    }
+
+    @Benchmark
+    public String encryptLegacy() {
+        return legacy.encrypt(CARD);
+    }
+
+    @Benchmark
+    public String decryptPooled() {
+        return pooled.decrypt(pooledCiphertext);
+    }
+
+    @Benchmark
+    public String decryptLegacy() {
+        return legacy.decrypt(legacyCiphertext);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EncryptionServiceBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /**
+     * EncryptionService before pooling, kept verbatim as the baseline.
+     */
+    static final class LegacyEncryption {
+        private final SecretKey key;
+        private final SecureRandom secureRandom = new SecureRandom();
+
+        LegacyEncryption(String base64Key) {
+            this.key = new SecretKeySpec(Base64.getDecoder().decode(base64Key), "AES");
+        }
+
+        String encrypt(String plaintext) {
+            try {
+                byte[] iv = new byte[12];
+                secureRandom.nextBytes(iv);
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+                byte[] ciphertext = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+                return Base64.getEncoder().encodeToString(iv) + ":" +
+                        Base64.getEncoder().encodeToString(ciphertext);
+            } catch (Exception e) {
+                throw new RuntimeException("Encryption failure", e);
+            }
+        }
+
+        String decrypt(String encoded) {
+            try {
+                String[] parts = encoded.split(":", 2);
+                byte[] iv = Base64.getDecoder().decode(parts[0]);
+                byte[] ct = Base64.getDecoder().decode(parts[1]);
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, iv));
+                return new String(cipher.doFinal(ct), StandardCharsets.UTF_8);
+            } catch (Exception e) {
+                throw new RuntimeException("Decryption failure", e);
+            }
+        }
+    }
+}
@@ -3,7 +3,19 @@ package com.example.payment.security;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -66,4 +78,110 @@ class EncryptionServiceTest {
                 () -> encryptionService.decrypt(tampered));
         assertTrue(exception.getMessage().contains("Decryption failure"));
     }
+
+    @Test
+    void testDecryptsCiphertextWrittenByPreviousImplementation() throws Exception {
+        // iv:ciphertext encoded separately, as stored before the single-buffer encoding
+        byte[] iv = new byte[12];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(Base64.getDecoder().decode(validKeyBase64), "AES"),
+                new GCMParameterSpec(128, iv));
+        String stored = Base64.getEncoder().encodeToString(iv) + ":"
+                + Base64.getEncoder().encodeToString(cipher.doFinal("4242424242424242".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("4242424242424242", encryptionService.decrypt(stored));
+    }
+
+    @Test
+    void testKeepsIvCiphertextFormatWithFreshIvs() {
+        String first = encryptionService.encrypt("Hello World!");
+        String second = encryptionService.encrypt("Hello World!");
+
+        assertEquals(16, first.indexOf(':'));
+        assertEquals(12, Base64.getDecoder().decode(first.substring(0, 16)).length);
+        assertEquals(12 + 16, Base64.getDecoder().decode(first.substring(17)).length);
+        assertNotEquals(first.substring(0, 16), second.substring(0, 16));
+    }
+
+    @Test
+    void testBinaryRoundTripAndLayout() {
+        byte[] binary = encryptionService.encryptToBinary("4242424242424242");
+
+        // version, key id, 12 byte IV, 16 byte card number, 16 byte tag
+        assertEquals(2 + 12 + 16 + 16, binary.length);
+        assertEquals(EncryptionService.FORMAT_V1, binary[0]);
+        assertEquals(EncryptionService.DEFAULT_KEY_ID, binary[1]);
+        assertEquals("4242424242424242", encryptionService.decrypt(binary));
+        assertEquals(EncryptionService.FORMAT_V1, binary[0]);
+    }
+
+    @Test
+    void testBinaryRejectsTamperingAndUnknownHeaders() {
+        byte[] binary = encryptionService.encryptToBinary("Sensitive data");
+
+        byte[] tampered = binary.clone();
+        tampered[tampered.length - 1] ^= 1;
+        byte[] otherVersion = binary.clone();
+        otherVersion[0] = 2;
+        byte[] otherKey = binary.clone();
+        otherKey[1] = 7;
+
+        for (byte[] invalid : List.of(tampered, otherVersion, otherKey, new byte[10])) {
+            RuntimeException exception = assertThrows(RuntimeException.class, () -> encryptionService.decrypt(invalid));
+            assertTrue(exception.getMessage().contains("Decryption failure"));
+        }
+    }
+
+    @Test
+    void testLegacyValueRepacksToEquivalentBinary() {
+        String legacy = encryptionService.encrypt("4242424242424242");
+
+        byte[] binary = encryptionService.legacyToBinary(legacy);
+
+        assertEquals("4242424242424242", encryptionService.decrypt(binary));
+        assertArrayEquals(Base64.getDecoder().decode(legacy.substring(0, 16)), Arrays.copyOfRange(binary, 2, 14));
+        assertThrows(IllegalArgumentException.class, () -> encryptionService.legacyToBinary("no-separator"));
+        assertThrows(IllegalArgumentException.class, () -> encryptionService.legacyToBinary("AAAA:AAAA"));
+    }
+
+    @Test
+    void testKeyringSealsWithActiveKeyAndDecryptsWithAnyKey() {
+        String key1 = Base64.getEncoder().encodeToString(new byte[16]);
+        String key2 = Base64.getEncoder().encodeToString(new byte[24]);
+        EncryptionService before = new EncryptionService(Map.of(0, validKeyBase64, 1, key1), 1);
+        EncryptionService after = new EncryptionService(Map.of(1, key1, 2, key2), 2);
+        byte[] sealedWithKey1 = before.encryptToBinary("4242424242424242");
+        byte[] sealedWithKey2 = after.encryptToBinary("4242424242424242");
+
+        assertEquals(1, EncryptionService.keyIdOf(sealedWithKey1));
+        assertEquals(2, EncryptionService.keyIdOf(sealedWithKey2));
+        assertEquals(2, after.activeKeyId());
+        assertEquals("4242424242424242", after.decrypt(sealedWithKey1));
+        assertEquals("4242424242424242", after.decrypt(sealedWithKey2));
+        // Key 2 is unknown before the rotation; key 0 (and so legacy strings) after it
+        assertThrows(RuntimeException.class, () -> before.decrypt(sealedWithKey2));
+        assertEquals("Hello", before.decrypt(encryptionService.encrypt("Hello")));
+        assertThrows(RuntimeException.class, () -> after.decrypt(encryptionService.encrypt("Hello")));
+    }
+
+    @Test
+    void testKeyringRejectsUnknownActiveKeyAndOutOfRangeIds() {
+        assertThrows(IllegalArgumentException.class, () -> new EncryptionService(Map.of(0, validKeyBase64), 1));
+        assertThrows(IllegalArgumentException.class, () -> new EncryptionService(Map.of(256, validKeyBase64), 256));
+    }
+
+    @Test
+    void testConcurrentRoundTripsOnVirtualThreads() throws Exception {
+        List<Future<Boolean>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 500; i++) {
+                String plaintext = "card-" + i + "-ü";
+                results.add(executor.submit(() -> plaintext.equals(encryptionService.decrypt(encryptionService.encrypt(plaintext)))));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        }
+    }
 }
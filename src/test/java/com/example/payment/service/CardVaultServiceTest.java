@@ -0,0 +1,115 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.CardToken;
+import com.example.payment.repository.CardTokenRepository;
+import com.example.payment.security.CardFingerprinter;
+import com.example.payment.security.EncryptionService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+class CardVaultServiceTest {
+
+    private static final String CARD = "4242424242424242";
+
+    private final CardTokenRepository repository = mock(CardTokenRepository.class);
+    private final EncryptionService encryptionService = new EncryptionService(Base64.getEncoder().encodeToString(new byte[32]));
+    private final CardFingerprinter fingerprinter = new CardFingerprinter(Base64.getEncoder().encodeToString(new byte[32]));
+    private final CardVaultService service = new CardVaultService(repository, encryptionService, fingerprinter, 100, 4);
+
+    private static CardToken token(String id) {
+        CardToken token = new CardToken();
+        token.setId(id);
+        return token;
+    }
+
+    @Nested
+    @DisplayName("tokenize")
+    class Tokenize {
+        @Test
+        void shouldVaultNewCardOnceAndServeRepeatsFromCache() {
+            // given
+            given(repository.findIdByFingerprint(anyString())).willReturn(Optional.empty());
+            ArgumentCaptor<CardToken> captor = ArgumentCaptor.forClass(CardToken.class);
+
+            // when
+            String first = service.tokenize(CARD);
+            String second = service.tokenize(CARD);
+
+            // then
+            assertEquals(first, second);
+            then(repository).should().insert(captor.capture());
+            then(repository).should().findIdByFingerprint(fingerprinter.fingerprint(CARD));
+            CardToken vaulted = captor.getValue();
+            assertEquals(first, vaulted.getId());
+            assertEquals("4242", vaulted.getCardLast4());
+            assertEquals(0, vaulted.getCardKeyId());
+            assertEquals(CARD, encryptionService.decrypt(vaulted.getCardCiphertext()));
+            assertEquals(1, service.cacheStats().hits());
+        }
+
+        @Test
+        void shouldReuseVaultedTokenWithoutEncrypting() {
+            // given
+            given(repository.findIdByFingerprint(fingerprinter.fingerprint(CARD))).willReturn(Optional.of(token("t1")));
+
+            // when / then
+            assertEquals("t1", service.tokenize(CARD));
+            then(repository).should(never()).insert(any(CardToken.class));
+        }
+
+        @Test
+        void shouldAdoptTokenVaultedConcurrently() {
+            // given: another node inserts the same card between lookup and insert
+            given(repository.findIdByFingerprint(anyString()))
+                    .willReturn(Optional.empty())
+                    .willReturn(Optional.of(token("t-other")));
+            given(repository.insert(any(CardToken.class))).willThrow(new DuplicateKeyException("E11000"));
+
+            // when / then
+            assertEquals("t-other", service.tokenize(CARD));
+            assertEquals("t-other", service.tokenize(CARD));
+            then(repository).should().insert(any(CardToken.class));
+        }
+
+        @Test
+        void shouldTokenizeBatchKeepingOrderAndVaultingEachCardOnce() {
+            // given
+            String other = "5555444433332222";
+            given(repository.findIdByFingerprint(anyString())).willReturn(Optional.empty());
+
+            // when
+            List<String> ids = service.tokenizeAll(Arrays.asList(CARD, other, null, CARD));
+
+            // then
+            assertEquals(4, ids.size());
+            assertEquals(ids.get(0), ids.get(3));
+            assertNotEquals(ids.get(0), ids.get(1));
+            assertNull(ids.get(2));
+            then(repository).should(times(2)).insert(any(CardToken.class));
+            assertEquals(ids.get(1), service.tokenize(other));
+        }
+    }
+
+    @Test
+    void shouldDecryptVaultedCard() {
+        // given
+        CardToken token = token("t1");
+        token.setCardCiphertext(encryptionService.encryptToBinary(CARD));
+        given(repository.findById("t1")).willReturn(Optional.of(token));
+
+        // when / then
+        assertEquals(CARD, service.decryptCardNumber("t1"));
+        assertNull(service.decryptCardNumber("unknown"));
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.payment.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashedTimerWheelTest {
+
+    @Test
+    void shouldFireNoEarlierThanDeadlineAcrossWheelTurns() throws Exception {
+        // given: 4 buckets of 5 ms, so 120 ms is several turns of the wheel
+        Map<String, Instant> firedAt = new ConcurrentHashMap<>();
+        CountDownLatch fired = new CountDownLatch(3);
+        try (HashedTimerWheel<String> wheel = new HashedTimerWheel<>("test-wheel", 5, 4, 10, items -> {
+            items.forEach(item -> firedAt.put(item, Instant.now()));
+            items.forEach(item -> fired.countDown());
+        })) {
+            Instant now = Instant.now();
+            Map<String, Instant> deadlines = Map.of(
+                    "past", now.minusSeconds(1),
+                    "soon", now.plusMillis(15),
+                    "later", now.plusMillis(120));
+
+            // when
+            deadlines.forEach(wheel::schedule);
+
+            // then
+            assertTrue(fired.await(2, TimeUnit.SECONDS));
+            deadlines.forEach((item, deadline) ->
+                    assertFalse(firedAt.get(item).isBefore(deadline), item + " fired early"));
+            assertTrue(firedAt.get("soon").isBefore(firedAt.get("later")));
+            assertEquals(0, wheel.size());
+        }
+    }
+
+    @Test
+    void shouldHandOverItemsOfOneTickTogether() throws Exception {
+        // given
+        List<List<String>> batches = new CopyOnWriteArrayList<>();
+        CountDownLatch fired = new CountDownLatch(1);
+        try (HashedTimerWheel<String> wheel = new HashedTimerWheel<>("test-wheel", 50, 8, 10, items -> {
+            batches.add(items);
+            fired.countDown();
+        })) {
+            Instant deadline = Instant.now().plusMillis(60);
+
+            // when
+            wheel.schedule("a", deadline);
+            wheel.schedule("b", deadline);
+
+            // then
+            assertTrue(fired.await(2, TimeUnit.SECONDS));
+            assertEquals(List.of(List.of("a", "b")), batches);
+        }
+    }
+
+    @Test
+    void shouldRefuseItemsBeyondCapacity() {
+        try (HashedTimerWheel<String> wheel = new HashedTimerWheel<>("test-wheel", 10, 8, 2, items -> {
+        })) {
+            Instant deadline = Instant.now().plusSeconds(60);
+
+            assertTrue(wheel.schedule("a", deadline));
+            assertTrue(wheel.schedule("b", deadline));
+            assertFalse(wheel.schedule("c", deadline));
+            assertEquals(2, wheel.size());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.Payment;
+import com.example.payment.repository.PaymentRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+class PaymentBatchWriterTest {
+
+    private final PaymentRepository repository = mock(PaymentRepository.class);
+    private PaymentBatchWriter writer;
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    private static Payment payment(String lastName) {
+        Payment p = new Payment();
+        p.setLastName(lastName);
+        return p;
+    }
+
+    private List<CompletableFuture<Payment>> saveConcurrently(Payment... payments) {
+        List<CompletableFuture<Payment>> saved = new ArrayList<>();
+        for (Payment p : payments) {
+            saved.add(CompletableFuture.supplyAsync(() -> writer.save(p)));
+        }
+        return saved;
+    }
+
+    @Test
+    void shouldSaveDirectlyWhenDisabled() {
+        // given
+        writer = new PaymentBatchWriter(repository, false, 64, 200);
+        Payment p = payment("Doe");
+        given(repository.save(p)).willReturn(p);
+
+        // when / then
+        assertSame(p, writer.save(p));
+        then(repository).should(never()).insert(anyList());
+        assertFalse(writer.stats().enabled());
+    }
+
+    @Nested
+    @DisplayName("enabled")
+    class Enabled {
+        @Test
+        void shouldInsertConcurrentPaymentsWithOneInsertMany() throws Exception {
+            // given: a long window, so only a full batch is written
+            writer = new PaymentBatchWriter(repository, true, 3, 5_000_000);
+
+            // when
+            List<CompletableFuture<Payment>> saved = saveConcurrently(payment("a"), payment("b"), payment("c"));
+
+            // then
+            for (CompletableFuture<Payment> f : saved) {
+                assertNotNull(f.get(5, TimeUnit.SECONDS).getId(), "ids are assigned before the insert");
+            }
+            then(repository).should().insert(argThat((List<Payment> batch) -> batch.size() == 3));
+            then(repository).should(never()).save(any());
+            assertEquals(1, writer.stats().batches());
+            assertEquals(3, writer.stats().payments());
+        }
+
+        @Test
+        void shouldWriteWhatArrivedOnceTheWindowCloses() throws Exception {
+            // given
+            writer = new PaymentBatchWriter(repository, true, 64, 1_000);
+
+            // when
+            Payment p = writer.save(payment("Doe"));
+
+            // then
+            assertNotNull(p.getId());
+            then(repository).should().insert(List.of(p));
+        }
+
+        @Test
+        void shouldFallBackToSingleSavesWhenTheBatchFails() throws Exception {
+            // given
+            writer = new PaymentBatchWriter(repository, true, 2, 5_000_000);
+            Payment ok = payment("ok");
+            Payment bad = payment("bad");
+            given(repository.insert(anyList())).willThrow(new RuntimeException("E11000"));
+            given(repository.save(ok)).willReturn(ok);
+            given(repository.save(bad)).willThrow(new IllegalStateException("bad document"));
+
+            // when
+            List<CompletableFuture<Payment>> saved = saveConcurrently(ok, bad);
+
+            // then: each caller gets its own outcome
+            assertSame(ok, saved.get(0).get(5, TimeUnit.SECONDS));
+            Exception e = assertThrows(Exception.class, () -> saved.get(1).get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+        }
+
+        @Test
+        void shouldSaveDirectlyAfterShutdown() throws Exception {
+            // given
+            writer = new PaymentBatchWriter(repository, true, 64, 200);
+            writer.shutdown();
+            Payment p = payment("Doe");
+            given(repository.save(p)).willReturn(p);
+
+            // when / then
+            assertSame(p, writer.save(p));
+            then(repository).should(never()).insert(anyList());
+        }
+    }
+}
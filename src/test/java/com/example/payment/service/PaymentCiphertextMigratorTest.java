@@ -0,0 +1,75 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.Payment;
+import com.example.payment.repository.PaymentRepository;
+import com.example.payment.repository.PaymentRepositoryCustom.CardCiphertextUpdate;
+import com.example.payment.security.EncryptionService;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+class PaymentCiphertextMigratorTest {
+
+    private final PaymentRepository repository = mock(PaymentRepository.class);
+    private final EncryptionService encryptionService = new EncryptionService(Base64.getEncoder().encodeToString(new byte[32]));
+    private final PaymentCiphertextMigrator migrator = new PaymentCiphertextMigrator(repository, encryptionService, true, 2, 0);
+
+    private Payment legacy(String id, String card) {
+        Payment p = new Payment();
+        p.setId(id);
+        p.setCardEncrypted(encryptionService.encrypt(card));
+        return p;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldConvertLegacyCiphertextsBatchByBatch() {
+        // given
+        Payment a = legacy("a", "4242424242424242");
+        Payment b = legacy("b", "5555444433332222");
+        Payment c = legacy("c", "123456789012");
+        given(repository.findLegacyCiphertexts(null, 2)).willReturn(List.of(a, b));
+        given(repository.findLegacyCiphertexts("b", 2)).willReturn(List.of(c));
+        given(repository.replaceCardCiphertexts(anyList())).willAnswer(inv -> (long) inv.getArgument(0, List.class).size());
+        ArgumentCaptor<List<CardCiphertextUpdate>> captor = ArgumentCaptor.forClass(List.class);
+
+        // when
+        long converted = migrator.migrate();
+
+        // then
+        assertEquals(3, converted);
+        then(repository).should(times(2)).replaceCardCiphertexts(captor.capture());
+        List<CardCiphertextUpdate> first = captor.getAllValues().get(0);
+        List<CardCiphertextUpdate> second = captor.getAllValues().get(1);
+        assertEquals(List.of(a, b), first.stream().map(CardCiphertextUpdate::read).toList());
+        assertEquals(List.of(c), second.stream().map(CardCiphertextUpdate::read).toList());
+        assertEquals("4242424242424242", encryptionService.decrypt(first.getFirst().ciphertext()));
+        assertEquals("123456789012", encryptionService.decrypt(second.getFirst().ciphertext()));
+        assertEquals(EncryptionService.DEFAULT_KEY_ID, second.getFirst().keyId());
+    }
+
+    @Test
+    void shouldSkipMalformedValuesAndMovePastThem() {
+        // given
+        Payment broken = new Payment();
+        broken.setId("a");
+        broken.setCardEncrypted("not-a-ciphertext");
+        Payment ok = legacy("b", "4242424242424242");
+        given(repository.findLegacyCiphertexts(null, 2)).willReturn(List.of(broken, ok));
+        given(repository.findLegacyCiphertexts("b", 2)).willReturn(List.of());
+        given(repository.replaceCardCiphertexts(argThat(updates -> updates.size() == 1 && updates.getFirst().read() == ok)))
+                .willReturn(1L);
+
+        // when
+        long converted = migrator.migrate();
+
+        // then
+        assertEquals(1, converted);
+        then(repository).should().findLegacyCiphertexts("b", 2);
+    }
+}
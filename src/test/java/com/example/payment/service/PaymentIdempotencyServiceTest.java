@@ -0,0 +1,220 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.IdempotencyKey;
+import com.example.payment.domain.Payment;
+import com.example.payment.repository.IdempotencyKeyRepository;
+import com.example.payment.security.CardFingerprinter;
+import com.example.payment.service.PaymentService.NewPayment;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+class PaymentIdempotencyServiceTest {
+
+    private static final NewPayment REQUEST = new NewPayment("Jane", "Doe", "12345", "4242424242424242");
+
+    private final IdempotencyKeyRepository repository = mock(IdempotencyKeyRepository.class);
+    private final PaymentService paymentService = mock(PaymentService.class);
+    private final CardFingerprinter fingerprinter = new CardFingerprinter(Base64.getEncoder().encodeToString(new byte[32]));
+    private final PaymentIdempotencyService service =
+            new PaymentIdempotencyService(repository, paymentService, fingerprinter, 86_400_000, 60_000, 100);
+
+    private static Payment payment(String id) {
+        Payment p = new Payment();
+        p.setId(id);
+        return p;
+    }
+
+    private IdempotencyKey stored(String paymentId, Instant leaseExpiresAt, Instant completedAt) {
+        IdempotencyKey key = new IdempotencyKey();
+        key.setId("k1");
+        key.setRequestFingerprint(fingerprinter.fingerprint("Jane\u0000Doe\u000012345\u00004242424242424242"));
+        key.setPaymentId(paymentId);
+        key.setLeaseExpiresAt(leaseExpiresAt);
+        key.setCompletedAt(completedAt);
+        return key;
+    }
+
+    private String claimedPaymentId() {
+        ArgumentCaptor<IdempotencyKey> claim = ArgumentCaptor.forClass(IdempotencyKey.class);
+        then(repository).should().insert(claim.capture());
+        return claim.getValue().getPaymentId();
+    }
+
+    @Nested
+    @DisplayName("on this node")
+    class Local {
+        @Test
+        void shouldCreateOnceAndReplayRepeatsFromMemory() {
+            // given
+            given(paymentService.createPayment(anyString(), eq("Jane"), eq("Doe"), eq("12345"), eq("4242424242424242"))).willReturn(payment("p1"));
+
+            // when
+            PaymentIdempotencyService.Outcome first = service.createPayment("k1", REQUEST);
+            PaymentIdempotencyService.Outcome repeat = service.createPayment("k1", REQUEST);
+
+            // then
+            assertFalse(first.replayed());
+            assertEquals("p1", first.created().getId());
+            assertTrue(repeat.replayed());
+            assertEquals("p1", repeat.paymentId());
+            then(paymentService).should(times(1)).createPayment(anyString(), anyString(), anyString(), anyString(), anyString());
+            then(repository).should(times(1)).insert(any(IdempotencyKey.class));
+            then(repository).should().complete("k1");
+        }
+
+        @Test
+        void shouldRejectKeyReusedWithDifferentRequestOrMalformed() {
+            // given
+            given(paymentService.createPayment(anyString(), anyString(), anyString(), anyString(), anyString())).willReturn(payment("p1"));
+            service.createPayment("k1", REQUEST);
+
+            // when / then
+            assertThrows(IllegalArgumentException.class,
+                    () -> service.createPayment("k1", new NewPayment("Jane", "Doe", "12345", "5555444433332222")));
+            assertThrows(IllegalArgumentException.class, () -> service.createPayment(" ", REQUEST));
+            assertThrows(IllegalArgumentException.class, () -> service.createPayment("k".repeat(256), REQUEST));
+        }
+
+        @Test
+        void shouldCoalesceConcurrentDuplicatesOntoTheRequestInFlight() throws Exception {
+            // given: the first request blocks inside createPayment
+            CountDownLatch creating = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            given(paymentService.createPayment(anyString(), anyString(), anyString(), anyString(), anyString())).willAnswer(inv -> {
+                creating.countDown();
+                release.await();
+                return payment("p1");
+            });
+
+            // when
+            CompletableFuture<PaymentIdempotencyService.Outcome> first =
+                    CompletableFuture.supplyAsync(() -> service.createPayment("k1", REQUEST));
+            assertTrue(creating.await(5, TimeUnit.SECONDS));
+            CompletableFuture<PaymentIdempotencyService.Outcome> duplicate =
+                    CompletableFuture.supplyAsync(() -> service.createPayment("k1", REQUEST));
+            Thread.sleep(50);
+            assertFalse(duplicate.isDone(), "the duplicate waits for the first request");
+            release.countDown();
+
+            // then
+            assertEquals("p1", first.get(5, TimeUnit.SECONDS).paymentId());
+            assertTrue(duplicate.get(5, TimeUnit.SECONDS).replayed());
+            assertEquals("p1", duplicate.get().paymentId());
+            then(paymentService).should(times(1)).createPayment(anyString(), anyString(), anyString(), anyString(), anyString());
+            then(repository).should(times(1)).insert(any(IdempotencyKey.class));
+        }
+
+        @Test
+        void shouldCreateUnderTheClaimedPaymentId() {
+            // given
+            given(paymentService.createPayment(anyString(), anyString(), anyString(), anyString(), anyString()))
+                    .willAnswer(inv -> payment(inv.getArgument(0)));
+
+            // when
+            PaymentIdempotencyService.Outcome outcome = service.createPayment("k1", REQUEST);
+
+            // then
+            String claimed = claimedPaymentId();
+            assertNotNull(claimed);
+            assertEquals(claimed, outcome.paymentId());
+        }
+
+        @Test
+        void shouldReleaseKeyWhenCreationFailsAndRetryUnderTheSameId() {
+            // given
+            given(paymentService.createPayment(anyString(), anyString(), anyString(), anyString(), anyString()))
+                    .willThrow(new RuntimeException("mongo down"))
+                    .willAnswer(inv -> payment(inv.getArgument(0)));
+            assertThrows(RuntimeException.class, () -> service.createPayment("k1", REQUEST));
+            then(repository).should().release("k1");
+            String claimed = claimedPaymentId();
+            given(repository.insert(any(IdempotencyKey.class))).willThrow(new DuplicateKeyException("E11000"));
+            given(repository.findById("k1")).willReturn(Optional.of(stored(claimed, Instant.now(), null)));
+            given(repository.takeOverExpiredLease(eq("k1"), any(), any())).willReturn(true);
+            given(paymentService.findPayment(claimed)).willReturn(Optional.empty());
+
+            // when
+            PaymentIdempotencyService.Outcome retry = service.createPayment("k1", REQUEST);
+
+            // then
+            assertEquals(claimed, retry.paymentId());
+            then(paymentService).should(times(2)).createPayment(eq(claimed), anyString(), anyString(), anyString(), anyString());
+        }
+
+        @Test
+        void shouldNotCreateASecondPaymentWhenCompletingTheKeyFails() {
+            // given: the payment is created, but the key is left in flight
+            given(paymentService.createPayment(anyString(), anyString(), anyString(), anyString(), anyString()))
+                    .willAnswer(inv -> payment(inv.getArgument(0)));
+            given(repository.complete("k1")).willThrow(new RuntimeException("mongo down"));
+            String created = service.createPayment("k1", REQUEST).paymentId();
+            assertEquals(created, claimedPaymentId());
+
+            // when: a retry on another node takes the lease over once it expires
+            given(repository.insert(any(IdempotencyKey.class))).willThrow(new DuplicateKeyException("E11000"));
+            given(repository.findById("k1")).willReturn(Optional.of(stored(created, Instant.now(), null)));
+            given(repository.takeOverExpiredLease(eq("k1"), any(), any())).willReturn(true);
+            given(paymentService.findPayment(created)).willReturn(Optional.of(payment(created)));
+            PaymentIdempotencyService otherNode =
+                    new PaymentIdempotencyService(repository, paymentService, fingerprinter, 86_400_000, 60_000, 100);
+            PaymentIdempotencyService.Outcome retry = otherNode.createPayment("k1", REQUEST);
+
+            // then
+            assertTrue(retry.replayed());
+            assertEquals(created, retry.paymentId());
+            then(paymentService).should(times(1)).createPayment(anyString(), anyString(), anyString(), anyString(), anyString());
+        }
+    }
+
+    @Nested
+    @DisplayName("claimed on another node")
+    class Claimed {
+        @Test
+        void shouldReplayPaymentOfCompletedKeyWithoutCreating() {
+            // given
+            IdempotencyKey key = stored("p-other", null, Instant.now());
+            given(repository.insert(any(IdempotencyKey.class))).willThrow(new DuplicateKeyException("E11000"));
+            given(repository.findById("k1")).willReturn(Optional.of(key));
+
+            // when
+            PaymentIdempotencyService.Outcome outcome = service.createPayment("k1", REQUEST);
+
+            // then
+            assertTrue(outcome.replayed());
+            assertEquals("p-other", outcome.paymentId());
+            then(paymentService).shouldHaveNoInteractions();
+        }
+
+        @Test
+        void shouldRefuseWhileLeasedAndTakeOverExpiredLease() {
+            // given
+            IdempotencyKey key = stored("p1", Instant.now().plusSeconds(30), null);
+            given(repository.insert(any(IdempotencyKey.class))).willThrow(new DuplicateKeyException("E11000"));
+            given(repository.findById("k1")).willReturn(Optional.of(key));
+            given(repository.takeOverExpiredLease(eq("k1"), any(), any())).willReturn(false).willReturn(true);
+            given(paymentService.createPayment(anyString(), anyString(), anyString(), anyString(), anyString())).willReturn(payment("p1"));
+
+            given(paymentService.findPayment("p1")).willReturn(Optional.empty());
+
+            // when / then
+            assertThrows(ConflictException.class, () -> service.createPayment("k1", REQUEST));
+            then(paymentService).shouldHaveNoInteractions();
+            assertEquals("p1", service.createPayment("k1", REQUEST).created().getId());
+            then(paymentService).should().createPayment(eq("p1"), anyString(), anyString(), anyString(), anyString());
+            then(repository).should().complete("k1");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.CardToken;
+import com.example.payment.domain.Payment;
+import com.example.payment.repository.CardTokenRepository;
+import com.example.payment.repository.CardTokenRepositoryCustom.TokenCiphertextUpdate;
+import com.example.payment.repository.PaymentRepository;
+import com.example.payment.repository.PaymentRepositoryCustom.CardCiphertextUpdate;
+import com.example.payment.repository.WebhookEventRepository;
+import com.example.payment.repository.WebhookPayloadRepository;
+import com.example.payment.repository.WebhookRegistrationRepository;
+import com.example.payment.security.EncryptionService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+class PaymentKeyRotationServiceTest {
+
+    private static final String KEY_0 = Base64.getEncoder().encodeToString(new byte[32]);
+    private static final String KEY_1 = Base64.getEncoder().encodeToString(new byte[16]);
+
+    private final EncryptionService oldKeys = new EncryptionService(KEY_0);
+    private final EncryptionService keyring = new EncryptionService(Map.of(0, KEY_0, 1, KEY_1), 1);
+    private final PaymentRepository repository = mock(PaymentRepository.class);
+    private final CardTokenRepository cardTokenRepository = mock(CardTokenRepository.class);
+    private final PaymentService paymentService = new PaymentService(repository,
+            new PaymentBatchWriter(repository, false, 1, 0), new WebhookRegistry(mock(WebhookRegistrationRepository.class)), mock(WebhookEventRepository.class),
+            mock(WebhookPayloadRepository.class), keyring, mock(CardVaultService.class), new ObjectMapper(),
+            mock(ApplicationEventPublisher.class));
+    // Pages of 2, at most 2 in flight
+    private final PaymentKeyRotationService service = new PaymentKeyRotationService(repository, cardTokenRepository,
+            paymentService, keyring,
+            100_000, 2, 2);
+
+    @AfterEach
+    void shutdown() {
+        service.shutdown();
+    }
+
+    private Payment sealedWithKey0(String id, String card) {
+        Payment p = new Payment();
+        p.setId(id);
+        p.setCardCiphertext(oldKeys.encryptToBinary(card));
+        p.setCardKeyId(0);
+        return p;
+    }
+
+    private PaymentKeyRotationService.Progress awaitFinished(String id) throws InterruptedException {
+        Instant deadline = Instant.now().plusSeconds(5);
+        PaymentKeyRotationService.Progress progress = service.progress(id);
+        while (progress.state() == PaymentKeyRotationService.State.RUNNING && Instant.now().isBefore(deadline)) {
+            Thread.sleep(5);
+            progress = service.progress(id);
+        }
+        return progress;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldReencryptPaymentsAndVaultWithTheActiveKey() throws Exception {
+        // given: a binary value, a legacy string, one already on key 1 without cardKeyId, an unreadable one,
+        // and a vaulted card
+        Payment a = sealedWithKey0("a", "4242424242424242");
+        Payment b = new Payment();
+        b.setId("b");
+        b.setCardEncrypted(oldKeys.encrypt("5555444433332222"));
+        Payment c = new Payment();
+        c.setId("c");
+        c.setCardCiphertext(keyring.encryptToBinary("123456789012"));
+        Payment d = new Payment();
+        d.setId("d");
+        d.setCardCiphertext(new byte[]{1, 9, 0, 0});
+        CardToken vaulted = new CardToken();
+        vaulted.setId("t1");
+        vaulted.setCardCiphertext(oldKeys.encryptToBinary("4000056655665556"));
+        given(repository.countNotSealedWith(1)).willReturn(4L);
+        given(cardTokenRepository.countNotSealedWith(1)).willReturn(1L);
+        given(cardTokenRepository.findNotSealedWith(1, null, 2)).willReturn(List.of(vaulted));
+        given(cardTokenRepository.replaceCiphertexts(anyList())).willAnswer(inv -> (long) inv.getArgument(0, List.class).size());
+        ArgumentCaptor<List<TokenCiphertextUpdate>> tokenCaptor = ArgumentCaptor.forClass(List.class);
+        given(repository.findNotSealedWith(1, null, 2)).willReturn(List.of(a, b));
+        given(repository.findNotSealedWith(1, "b", 2)).willReturn(List.of(c, d));
+        given(repository.findNotSealedWith(1, "d", 2)).willReturn(List.of());
+        given(repository.replaceCardCiphertexts(anyList())).willAnswer(inv -> (long) inv.getArgument(0, List.class).size());
+        ArgumentCaptor<List<CardCiphertextUpdate>> captor = ArgumentCaptor.forClass(List.class);
+
+        // when
+        PaymentKeyRotationService.Progress progress = awaitFinished(service.startRotation(null).id());
+
+        // then
+        assertEquals(PaymentKeyRotationService.State.COMPLETED, progress.state());
+        assertEquals(1, progress.keyId());
+        assertEquals(5, progress.total());
+        assertEquals(5, progress.scanned());
+        assertEquals(4, progress.rotated());
+        assertEquals(1, progress.failed());
+        then(repository).should(times(2)).replaceCardCiphertexts(captor.capture());
+        List<CardCiphertextUpdate> updates = captor.getAllValues().stream().flatMap(List::stream)
+                .sorted(Comparator.comparing(u -> u.read().getId())).toList();
+        assertEquals(List.of(a, b, c), updates.stream().map(CardCiphertextUpdate::read).toList());
+        for (CardCiphertextUpdate u : updates) {
+            assertEquals(1, u.keyId());
+            assertEquals(1, EncryptionService.keyIdOf(u.ciphertext()));
+        }
+        assertEquals("4242424242424242", keyring.decrypt(updates.get(0).ciphertext()));
+        assertEquals("5555444433332222", keyring.decrypt(updates.get(1).ciphertext()));
+        assertSame(c.getCardCiphertext(), updates.get(2).ciphertext());
+        then(cardTokenRepository).should().replaceCiphertexts(tokenCaptor.capture());
+        TokenCiphertextUpdate token = tokenCaptor.getValue().getFirst();
+        assertSame(vaulted, token.read());
+        assertEquals(1, EncryptionService.keyIdOf(token.ciphertext()));
+        assertEquals("4000056655665556", keyring.decrypt(token.ciphertext()));
+    }
+
+    @Test
+    void shouldFailWhenAWriteFailsAndRefuseConcurrentRotations() throws Exception {
+        // given: the job holds until the second start was refused
+        CountDownLatch refused = new CountDownLatch(1);
+        given(repository.countNotSealedWith(1)).willAnswer(inv -> refused.await(5, TimeUnit.SECONDS) ? 1L : 0L);
+        given(repository.findNotSealedWith(1, null, 2)).willReturn(List.of(sealedWithKey0("a", "4242424242424242")));
+        given(repository.replaceCardCiphertexts(anyList())).willThrow(new RuntimeException("mongo down"));
+
+        // when
+        PaymentKeyRotationService.Progress started = service.startRotation(10);
+        assertThrows(ConflictException.class, () -> service.startRotation(null));
+        refused.countDown();
+        PaymentKeyRotationService.Progress progress = awaitFinished(started.id());
+
+        // then
+        assertEquals(PaymentKeyRotationService.State.FAILED, progress.state());
+        assertTrue(progress.error().contains("mongo down"));
+        assertEquals(List.of(progress), service.rotations());
+    }
+}
@@ -2,10 +2,14 @@ package com.example.payment.service;
 
 import com.example.payment.domain.Payment;
 import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookPayload;
 import com.example.payment.domain.WebhookRegistration;
 import com.example.payment.domain.WebhookStatus;
 import com.example.payment.repository.PaymentRepository;
+import com.example.payment.repository.PaymentRepositoryCustom.PageCursor;
+import com.example.payment.repository.PaymentRepositoryCustom.PaymentFilter;
 import com.example.payment.repository.WebhookEventRepository;
+import com.example.payment.repository.WebhookPayloadRepository;
 import com.example.payment.repository.WebhookRegistrationRepository;
 import com.example.payment.security.EncryptionService;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -16,9 +20,13 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.BDDMockito.*;
@@ -28,8 +36,11 @@ class PaymentServiceTest {
     private PaymentRepository paymentRepository;
     private WebhookRegistrationRepository webhookRegistrationRepository;
     private WebhookEventRepository webhookEventRepository;
+    private WebhookPayloadRepository webhookPayloadRepository;
     private EncryptionService encryptionService;
+    private CardVaultService cardVaultService;
     private ObjectMapper objectMapper;
+    private ApplicationEventPublisher eventPublisher;
 
     private PaymentService service;
 
@@ -38,10 +49,13 @@ class PaymentServiceTest {
         paymentRepository = mock(PaymentRepository.class);
         webhookRegistrationRepository = mock(WebhookRegistrationRepository.class);
         webhookEventRepository = mock(WebhookEventRepository.class);
+        webhookPayloadRepository = mock(WebhookPayloadRepository.class);
         encryptionService = mock(EncryptionService.class);
+        cardVaultService = mock(CardVaultService.class);
         objectMapper = new ObjectMapper();
         objectMapper.registerModule(new JavaTimeModule());
-        service = new PaymentService(paymentRepository, webhookRegistrationRepository, webhookEventRepository, encryptionService, objectMapper);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        service = new PaymentService(paymentRepository, new PaymentBatchWriter(paymentRepository, false, 1, 0), new WebhookRegistry(webhookRegistrationRepository), webhookEventRepository, webhookPayloadRepository, encryptionService, cardVaultService, objectMapper, eventPublisher);
     }
 
     @Nested
@@ -56,7 +70,7 @@ class PaymentServiceTest {
         }, nullValues = {"NULL", ""})
         void shouldMapFieldsAndSetCardLast4(String cardNumber, String expectedLast4) {
             // given
-            given(encryptionService.encrypt(cardNumber)).willReturn(cardNumber == null ? null : "enc:" + cardNumber);
+            given(cardVaultService.tokenize(cardNumber)).willReturn("tok:" + cardNumber);
             given(paymentRepository.save(any(Payment.class))).willAnswer(inv -> {
                 Payment p = inv.getArgument(0);
                 p.setId("p1");
@@ -73,11 +87,9 @@ class PaymentServiceTest {
             assertEquals("Wick", p.getLastName());
             assertEquals("12345", p.getZipCode());
             assertEquals(expectedLast4, p.getCardLast4());
-            if (cardNumber == null) {
-                assertNull(p.getCardEncrypted());
-            } else {
-                assertEquals("enc:" + cardNumber, p.getCardEncrypted());
-            }
+            assertEquals(cardNumber == null ? null : "tok:" + cardNumber, p.getCardTokenId());
+            assertNull(p.getCardCiphertext());
+            assertNull(p.getCardEncrypted());
             assertNotNull(p.getCreatedAt());
         }
 
@@ -85,7 +97,7 @@ class PaymentServiceTest {
         void shouldEnqueueWebhookEventsForActiveRegistrations() throws Exception {
             // given
             String card = "5555444433332222";
-            given(encryptionService.encrypt(card)).willReturn("enc");
+            given(cardVaultService.tokenize(card)).willReturn("tok");
             given(paymentRepository.save(any(Payment.class))).willAnswer(inv -> {
                 Payment p = inv.getArgument(0);
                 p.setId("pay-1");
@@ -97,40 +109,76 @@ class PaymentServiceTest {
             w2.setEndpointUrl("https://t2");
             given(webhookRegistrationRepository.findByActiveTrue()).willReturn(List.of(w1, w2));
 
-            ArgumentCaptor<WebhookEvent> evCaptor = ArgumentCaptor.forClass(WebhookEvent.class);
-            given(webhookEventRepository.save(any(WebhookEvent.class))).willAnswer(inv -> inv.getArgument(0));
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<WebhookEvent>> evCaptor = ArgumentCaptor.forClass(List.class);
+            ArgumentCaptor<WebhookPayload> payloadCaptor = ArgumentCaptor.forClass(WebhookPayload.class);
 
             // when
             Payment p = service.createPayment("Ana", "Maria", "12345", card);
 
-            // then
-            then(webhookEventRepository).should(times(2)).save(evCaptor.capture());
-            List<WebhookEvent> events = evCaptor.getAllValues();
+            // then: one bulk insert for the whole fan-out
+            then(webhookEventRepository).should().insertAllUnordered(evCaptor.capture());
+            then(webhookEventRepository).should(never()).save(any());
+            then(webhookPayloadRepository).should().insert(payloadCaptor.capture());
+            WebhookPayload payload = payloadCaptor.getValue();
+            assertNotNull(payload.getId());
+            assertTrue(payload.getJson().contains("payment.created"));
+            assertTrue(payload.getJson().contains(p.getId()));
+            assertFalse(payload.getJson().contains(card));
+            assertTrue(payload.getJson().contains(p.getCardLast4()));
+            List<WebhookEvent> events = evCaptor.getValue();
             assertEquals(2, events.size());
+            assertEquals(events.get(0).getCreatedAt(), events.get(1).getCreatedAt(), "batch shares one timestamp");
+            assertNotEquals(events.get(0).getId(), events.get(1).getId());
             for (WebhookEvent ev : events) {
+                assertNotNull(ev.getId(), "ids are assigned before the bulk insert");
                 assertTrue(ev.getTargetUrl().startsWith("https://t"));
                 assertEquals(WebhookStatus.PENDING, ev.getStatus());
                 assertEquals(0, ev.getAttempts());
                 assertNotNull(ev.getCreatedAt());
                 assertNotNull(ev.getNextAttemptAt());
-                assertNotNull(ev.getPayloadJson());
-                assertTrue(ev.getPayloadJson().contains("payment.created"));
-                assertTrue(ev.getPayloadJson().contains(p.getId()));
-                assertFalse(ev.getPayloadJson().contains(card));
-                assertTrue(ev.getPayloadJson().contains(p.getCardLast4()));
+                assertEquals(payload.getId(), ev.getPayloadId(), "events reference the shared payload");
+                assertNull(ev.getPayloadJson());
             }
+            then(eventPublisher).should().publishEvent(new WebhookEventsEnqueued(events, payload));
+        }
+
+        @Test
+        void shouldDelayEventsOfBatchedRegistrationsByLinger() {
+            // given
+            given(cardVaultService.tokenize(anyString())).willReturn("tok");
+            given(paymentRepository.save(any(Payment.class))).willAnswer(inv -> inv.getArgument(0));
+            WebhookRegistration single = new WebhookRegistration();
+            single.setEndpointUrl("https://single");
+            WebhookRegistration batched = new WebhookRegistration();
+            batched.setEndpointUrl("https://batched");
+            batched.setBatchSize(50);
+            batched.setBatchLingerMs(5_000);
+            given(webhookRegistrationRepository.findByActiveTrue()).willReturn(List.of(single, batched));
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<WebhookEvent>> evCaptor = ArgumentCaptor.forClass(List.class);
+
+            // when
+            service.createPayment("Ana", "Maria", "12345", "5555444433332222");
+
+            // then
+            then(webhookEventRepository).should().insertAllUnordered(evCaptor.capture());
+            WebhookEvent singleEvent = evCaptor.getValue().get(0);
+            WebhookEvent batchedEvent = evCaptor.getValue().get(1);
+            assertEquals(singleEvent.getCreatedAt(), singleEvent.getNextAttemptAt());
+            assertEquals(batchedEvent.getCreatedAt().plusMillis(5_000), batchedEvent.getNextAttemptAt());
         }
 
         @Test
         void shouldCatchSerializationErrorsAndStillReturnPayment() throws Exception {
             // given
-            PaymentService svc = new PaymentService(paymentRepository, webhookRegistrationRepository, webhookEventRepository, encryptionService, new ObjectMapper() {
+            PaymentService svc = new PaymentService(paymentRepository, new PaymentBatchWriter(paymentRepository, false, 1, 0), new WebhookRegistry(webhookRegistrationRepository), webhookEventRepository, webhookPayloadRepository, encryptionService, cardVaultService, new ObjectMapper() {
                 @Override
                 public String writeValueAsString(Object value) {
                     throw new RuntimeException("boom");
                 }
-            });
-            given(encryptionService.encrypt("123456789012")).willReturn("enc");
+            }, eventPublisher);
+            given(cardVaultService.tokenize("123456789012")).willReturn("tok");
             given(paymentRepository.save(any(Payment.class))).willAnswer(inv -> {
                 Payment p = inv.getArgument(0);
                 p.setId("pay-2");
@@ -142,7 +190,147 @@ class PaymentServiceTest {
 
             // then
             assertEquals("pay-2", p.getId());
-            then(webhookEventRepository).should(never()).save(any());
+            then(webhookPayloadRepository).should(never()).insert(any(WebhookPayload.class));
+            then(webhookEventRepository).should(never()).insertAllUnordered(any());
+            then(eventPublisher).shouldHaveNoInteractions();
+        }
+    }
+
+    @Nested
+    @DisplayName("createPayments")
+    class CreatePayments {
+        @Test
+        void shouldWritePaymentsPayloadsAndEventsInOneBulkInsertEach() {
+            // given
+            given(cardVaultService.tokenizeAll(List.of("4242424242424242", "5555444433332222")))
+                    .willReturn(List.of("tok-1", "tok-2"));
+            WebhookRegistration w1 = new WebhookRegistration();
+            w1.setEndpointUrl("https://t1");
+            WebhookRegistration w2 = new WebhookRegistration();
+            w2.setEndpointUrl("https://t2");
+            given(webhookRegistrationRepository.findByActiveTrue()).willReturn(List.of(w1, w2));
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<WebhookPayload>> payloadCaptor = ArgumentCaptor.forClass(List.class);
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<WebhookEvent>> evCaptor = ArgumentCaptor.forClass(List.class);
+
+            // when
+            List<Payment> payments = service.createPayments(List.of(
+                    new PaymentService.NewPayment("Jane", "Doe", "12345", "4242424242424242"),
+                    new PaymentService.NewPayment("John", "Roe", "54321", "5555444433332222")));
+
+            // then
+            assertEquals(2, payments.size());
+            assertEquals("tok-2", payments.get(1).getCardTokenId());
+            assertEquals("2222", payments.get(1).getCardLast4());
+            assertNotNull(payments.get(0).getId(), "ids are assigned before the bulk insert");
+            then(paymentRepository).should().insertAllUnordered(payments);
+            then(paymentRepository).should(never()).save(any());
+            then(webhookPayloadRepository).should().insert(payloadCaptor.capture());
+            then(webhookEventRepository).should().insertAllUnordered(evCaptor.capture());
+            List<WebhookPayload> payloads = payloadCaptor.getValue();
+            assertEquals(2, payloads.size());
+            assertTrue(payloads.get(1).getJson().contains(payments.get(1).getId()));
+            List<WebhookEvent> events = evCaptor.getValue();
+            assertEquals(4, events.size());
+            assertEquals(payloads.get(1).getId(), events.get(3).getPayloadId());
+            then(eventPublisher).should()
+                    .publishEvent(new WebhookEventsEnqueued(events.subList(0, 2), payloads.get(0)));
+            then(eventPublisher).should(times(2)).publishEvent(any(WebhookEventsEnqueued.class));
+        }
+
+        @Test
+        void shouldKeepPaymentsStoredBesideARejectedOneAndFanThemOut() {
+            // given
+            given(cardVaultService.tokenizeAll(anyList())).willReturn(List.of("tok-1", "tok-2", "tok-3"));
+            given(paymentRepository.insertAllUnordered(anyList())).willReturn(Set.of(1));
+            WebhookRegistration w1 = new WebhookRegistration();
+            w1.setEndpointUrl("https://t1");
+            given(webhookRegistrationRepository.findByActiveTrue()).willReturn(List.of(w1));
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<WebhookPayload>> payloadCaptor = ArgumentCaptor.forClass(List.class);
+
+            // when
+            List<Payment> payments = service.createPayments(List.of(
+                    new PaymentService.NewPayment("Jane", "Doe", "12345", "4242424242424242"),
+                    new PaymentService.NewPayment("John", "Roe", "54321", "5555444433332222"),
+                    new PaymentService.NewPayment("Jim", "Poe", "11111", "4000056655665556")));
+
+            // then
+            assertEquals(3, payments.size());
+            assertNotNull(payments.get(0));
+            assertNull(payments.get(1));
+            assertEquals("Poe", payments.get(2).getLastName());
+            then(webhookPayloadRepository).should().insert(payloadCaptor.capture());
+            List<WebhookPayload> payloads = payloadCaptor.getValue();
+            assertEquals(2, payloads.size());
+            assertTrue(payloads.get(1).getJson().contains(payments.get(2).getId()));
+            then(eventPublisher).should(times(2)).publishEvent(any(WebhookEventsEnqueued.class));
+        }
+    }
+
+    @Nested
+    @DisplayName("decryptCardNumber")
+    class DecryptCardNumber {
+        @Test
+        void shouldReadVaultThenBinaryCiphertextThenLegacyString() {
+            // given
+            given(cardVaultService.decryptCardNumber("tok")).willReturn("4000056655665556");
+            Payment vaulted = new Payment();
+            vaulted.setCardTokenId("tok");
+            byte[] binary = {1, 0, 42};
+            given(encryptionService.decrypt(binary)).willReturn("4242424242424242");
+            given(encryptionService.decrypt("iv:ct")).willReturn("5555444433332222");
+            Payment converted = new Payment();
+            converted.setCardCiphertext(binary);
+            Payment legacy = new Payment();
+            legacy.setCardEncrypted("iv:ct");
+
+            // when / then
+            assertEquals("4000056655665556", service.decryptCardNumber(vaulted));
+            assertEquals("4242424242424242", service.decryptCardNumber(converted));
+            assertEquals("5555444433332222", service.decryptCardNumber(legacy));
+            assertNull(service.decryptCardNumber(new Payment()));
+        }
+    }
+
+    @Nested
+    @DisplayName("listPayments")
+    class ListPayments {
+        private Payment payment(String id, Instant createdAt) {
+            Payment p = new Payment();
+            p.setId(id);
+            p.setCreatedAt(createdAt);
+            return p;
+        }
+
+        @Test
+        void shouldHandOutCursorOfLastItemOnlyForFullPages() {
+            // given
+            PaymentFilter filter = new PaymentFilter("Doe", null);
+            Instant t = Instant.parse("2025-03-01T10:15:30.123Z");
+            String lastId = "65e1a2b3c4d5e6f708192a3b";
+            given(paymentRepository.findPage(filter, null, 2))
+                    .willReturn(List.of(payment("65e1a2b3c4d5e6f708192a3c", t), payment(lastId, t)));
+            given(paymentRepository.findPage(filter, new PageCursor(t, lastId), 2))
+                    .willReturn(List.of(payment("65e1a2b3c4d5e6f708192a3a", t.minusSeconds(1))));
+
+            // when
+            PaymentService.PaymentPage first = service.listPayments(filter, null, 2);
+            PaymentService.PaymentPage second = service.listPayments(filter, first.nextCursor(), 2);
+
+            // then
+            assertEquals(2, first.items().size());
+            assertNotNull(first.nextCursor());
+            assertEquals(1, second.items().size());
+            assertNull(second.nextCursor());
+        }
+
+        @ParameterizedTest
+        @ValueSource(strings = {"%%%", "bm90LWEtY3Vyc29y", "MTIzOm5vdC1hbi1pZA", "eDo2NWUxYTJiM2M0ZDVlNmY3MDgxOTJhM2I"})
+        void shouldRejectCursorsItDidNotIssue(String cursor) {
+            assertThrows(IllegalArgumentException.class, () -> service.listPayments(new PaymentFilter(null, null), cursor, 10));
+            then(paymentRepository).shouldHaveNoInteractions();
         }
     }
 }
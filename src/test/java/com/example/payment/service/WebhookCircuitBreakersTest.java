@@ -0,0 +1,109 @@
+package com.example.payment.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebhookCircuitBreakersTest {
+
+    private static final String TARGET = "https://t1/hook";
+
+    private final WebhookCircuitBreakers breakers = new WebhookCircuitBreakers(3, 10_000);
+    private final Instant t0 = Instant.parse("2025-01-01T00:00:00Z");
+
+    private void failTimes(int n) {
+        for (int i = 0; i < n; i++) {
+            breakers.onFailure(TARGET, t0);
+        }
+    }
+
+    @Nested
+    @DisplayName("closed")
+    class Closed {
+        @Test
+        void shouldAllowUnknownTargets() {
+            assertEquals(WebhookCircuitBreakers.Permit.ALLOW, breakers.acquire(TARGET, t0));
+            assertEquals(WebhookCircuitBreakers.State.CLOSED, breakers.state(TARGET));
+        }
+
+        @Test
+        void shouldStayClosedBelowThresholdAndResetOnSuccess() {
+            failTimes(2);
+            breakers.onSuccess(TARGET);
+            failTimes(2);
+
+            assertEquals(WebhookCircuitBreakers.State.CLOSED, breakers.state(TARGET));
+            assertEquals(WebhookCircuitBreakers.Permit.ALLOW, breakers.acquire(TARGET, t0));
+        }
+
+        @Test
+        void shouldOpenAtThreshold() {
+            failTimes(2);
+            Instant until = breakers.onFailure(TARGET, t0);
+
+            assertEquals(t0.plusMillis(10_000), until);
+            assertEquals(WebhookCircuitBreakers.State.OPEN, breakers.state(TARGET));
+            assertEquals(WebhookCircuitBreakers.Permit.REJECT, breakers.acquire(TARGET, t0.plusSeconds(1)));
+            assertEquals(Set.of(TARGET), breakers.rejectingTargets(t0.plusSeconds(1)));
+        }
+    }
+
+    @Nested
+    @DisplayName("half-open")
+    class HalfOpen {
+        @Test
+        void shouldLetExactlyOneProbeThroughAfterOpenPeriod() {
+            failTimes(3);
+            Instant later = t0.plusSeconds(11);
+
+            assertTrue(breakers.rejectingTargets(later).isEmpty());
+            assertEquals(WebhookCircuitBreakers.Permit.PROBE, breakers.acquire(TARGET, later));
+            assertEquals(WebhookCircuitBreakers.Permit.REJECT, breakers.acquire(TARGET, later));
+            assertEquals(Set.of(TARGET), breakers.rejectingTargets(later));
+        }
+
+        @Test
+        void shouldCloseWhenProbeSucceeds() {
+            failTimes(3);
+            breakers.acquire(TARGET, t0.plusSeconds(11));
+
+            breakers.onSuccess(TARGET);
+
+            assertEquals(WebhookCircuitBreakers.State.CLOSED, breakers.state(TARGET));
+            assertEquals(WebhookCircuitBreakers.Permit.ALLOW, breakers.acquire(TARGET, t0.plusSeconds(11)));
+        }
+
+        @Test
+        void shouldReopenWhenProbeFails() {
+            failTimes(3);
+            Instant later = t0.plusSeconds(11);
+            breakers.acquire(TARGET, later);
+
+            Instant until = breakers.onFailure(TARGET, later);
+
+            assertEquals(later.plusMillis(10_000), until);
+            assertEquals(WebhookCircuitBreakers.Permit.REJECT, breakers.acquire(TARGET, later.plusSeconds(1)));
+        }
+
+        @Test
+        void shouldAllowAnotherProbeWhenOneIsAbandoned() {
+            failTimes(3);
+            Instant later = t0.plusSeconds(11);
+            breakers.acquire(TARGET, later);
+
+            breakers.abandonProbe(TARGET);
+
+            assertEquals(WebhookCircuitBreakers.Permit.PROBE, breakers.acquire(TARGET, later));
+        }
+    }
+
+    @Test
+    void shouldRejectNonPositiveThreshold() {
+        assertThrows(IllegalArgumentException.class, () -> new WebhookCircuitBreakers(0, 1_000));
+    }
+}
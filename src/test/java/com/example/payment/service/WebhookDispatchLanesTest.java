@@ -0,0 +1,114 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.service.WebhookDispatchLanes.Lane;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebhookDispatchLanesTest {
+
+    private static WebhookEvent attempted(int attempts) {
+        WebhookEvent ev = new WebhookEvent();
+        ev.setAttempts(attempts);
+        return ev;
+    }
+
+    @Nested
+    @DisplayName("freshShare")
+    class FreshShare {
+        @Test
+        void shouldGiveFreshLaneEverythingWhileNoRetriesWait() {
+            WebhookDispatchLanes lanes = new WebhookDispatchLanes(8, 4, 3, 1);
+
+            assertEquals(8, lanes.freshShare(8));
+        }
+
+        @Test
+        void shouldSplitByWeightOnceRetriesWait() {
+            // given
+            WebhookDispatchLanes lanes = new WebhookDispatchLanes(8, 4, 3, 1);
+            lanes.onRetryPage(2, 2);
+
+            // when / then: 3:1 of 8 free slots
+            assertEquals(6, lanes.freshShare(8));
+            assertEquals(2, lanes.retryCapacity(8 - 6));
+        }
+
+        @Test
+        void shouldStayFairWhenOnlyOneSlotIsFree() {
+            // given
+            WebhookDispatchLanes lanes = new WebhookDispatchLanes(8, 4, 3, 1);
+            lanes.onRetryPage(1, 1);
+
+            // when: one slot at a time, the remainder carries over between rounds
+            int fresh = 0;
+            for (int i = 0; i < 8; i++) {
+                fresh += lanes.freshShare(1);
+            }
+
+            // then
+            assertEquals(6, fresh);
+        }
+
+        @Test
+        void shouldGiveFreshLaneSlotsRetriesCannotUse() {
+            // given: retry budget of 1 already in use
+            WebhookDispatchLanes lanes = new WebhookDispatchLanes(8, 1, 1, 1);
+            lanes.onRetryPage(0, 0);
+            assertTrue(lanes.tryAcquire(Lane.RETRY));
+
+            // when / then
+            assertEquals(5, lanes.freshShare(5));
+            assertEquals(0, lanes.retryCapacity(5));
+        }
+    }
+
+    @Nested
+    @DisplayName("permits")
+    class Permits {
+        @Test
+        void shouldCapRetriesButNotFirstAttempts() {
+            // given
+            WebhookDispatchLanes lanes = new WebhookDispatchLanes(4, 1, 3, 1);
+
+            // when / then
+            assertTrue(lanes.tryAcquire(Lane.RETRY));
+            assertFalse(lanes.tryAcquire(Lane.RETRY));
+            assertTrue(lanes.tryAcquire(Lane.FRESH));
+            assertTrue(lanes.tryAcquire(Lane.FRESH));
+            lanes.release(Lane.RETRY);
+            assertTrue(lanes.tryAcquire(Lane.RETRY));
+        }
+
+        @Test
+        void shouldReportInFlightAndStartedPerLane() {
+            // given
+            WebhookDispatchLanes lanes = new WebhookDispatchLanes(4, 2, 3, 1);
+            lanes.tryAcquire(Lane.RETRY);
+            lanes.onStarted(Lane.RETRY);
+
+            // when
+            WebhookDispatchLanes.LaneStats stats = lanes.stats(Lane.RETRY, 40, Duration.ofSeconds(3));
+
+            // then
+            assertEquals(new WebhookDispatchLanes.LaneStats(Lane.RETRY, 1, 2, 1, 40, 3_000), stats);
+        }
+
+        @Test
+        void shouldClassifyDeliveryByItsMostAttemptedEvent() {
+            assertEquals(Lane.FRESH, WebhookDispatchLanes.laneOf(List.of(attempted(0), attempted(0))));
+            assertEquals(Lane.RETRY, WebhookDispatchLanes.laneOf(List.of(attempted(0), attempted(2))));
+        }
+
+        @Test
+        void shouldRejectRetryBudgetAboveConcurrency() {
+            assertThrows(IllegalArgumentException.class, () -> new WebhookDispatchLanes(4, 5, 3, 1));
+        }
+    }
+}
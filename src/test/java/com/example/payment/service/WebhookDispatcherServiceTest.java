@@ -1,13 +1,18 @@
 package com.example.payment.service;
 
 import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookPayload;
+import com.example.payment.domain.WebhookRegistration;
 import com.example.payment.domain.WebhookStatus;
 import com.example.payment.repository.WebhookEventRepository;
+import com.example.payment.repository.WebhookPayloadRepository;
+import com.example.payment.repository.WebhookRegistrationRepository;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.mockito.InOrder;
 import org.junit.jupiter.params.provider.CsvSource;
 
 import java.io.IOException;
@@ -18,6 +23,11 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -25,12 +35,24 @@ import static org.mockito.BDDMockito.*;
 
 class WebhookDispatcherServiceTest {
 
+    private static final String NODE = "node-1";
+
     private WebhookEventRepository repository;
+    private WebhookPayloadRepository payloadRepository;
+    private WebhookOutcomeWriter outcomeWriter;
+    private WebhookCircuitBreakers breakers;
+    private WebhookRegistrationRepository registrationRepository;
+    private WebhookRegistry registry;
     private HttpClient httpClient;
 
     @BeforeEach
     void setup() {
         repository = mock(WebhookEventRepository.class);
+        payloadRepository = mock(WebhookPayloadRepository.class);
+        outcomeWriter = mock(WebhookOutcomeWriter.class);
+        breakers = new WebhookCircuitBreakers(5, 30_000);
+        registrationRepository = mock(WebhookRegistrationRepository.class);
+        registry = new WebhookRegistry(registrationRepository);
         httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(2))
                 .followRedirects(HttpClient.Redirect.NORMAL)
@@ -54,6 +76,724 @@ class WebhookDispatcherServiceTest {
         }
     }
 
+    static class SlowHandler implements HttpHandler {
+        private final CountDownLatch release;
+
+        SlowHandler(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        }
+    }
+
+    private static WebhookEvent dueEvent(String id, String url) {
+        WebhookEvent ev = new WebhookEvent();
+        ev.setId(id);
+        ev.setTargetUrl(url);
+        ev.setPayloadJson("{}");
+        ev.setStatus(WebhookStatus.PENDING);
+        ev.setAttempts(0);
+        ev.setCreatedAt(Instant.now().minusSeconds(5));
+        ev.setNextAttemptAt(Instant.now().minusSeconds(1));
+        return ev;
+    }
+
+    @Nested
+    @DisplayName("concurrency")
+    class Concurrency {
+
+        private HttpServer slowServer;
+        private HttpServer fastServer;
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @BeforeEach
+        void startServers() throws IOException {
+            slowServer = HttpServer.create(new InetSocketAddress(0), 0);
+            slowServer.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            slowServer.createContext("/slow", new SlowHandler(release));
+            slowServer.start();
+            fastServer = HttpServer.create(new InetSocketAddress(0), 0);
+            fastServer.createContext("/ok", new FixedStatusHandler(204));
+            fastServer.start();
+        }
+
+        @AfterEach
+        void stopServers() {
+            release.countDown();
+            slowServer.stop(0);
+            fastServer.stop(0);
+        }
+
+        @Test
+        void shouldDeliverToOtherHostsWhileOneIsStalled() throws Exception {
+            // given
+            String slowUrl = "http://localhost:" + slowServer.getAddress().getPort() + "/slow";
+            String fastUrl = "http://localhost:" + fastServer.getAddress().getPort() + "/ok";
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(dueEvent("slow", slowUrl), dueEvent("fast", fastUrl)));
+
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 4, 2, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+
+            // then
+            then(outcomeWriter).should(timeout(2_000)).record(argThat(saved -> "fast".equals(saved.getId())), eq(NODE));
+            then(outcomeWriter).should(never()).record(argThat(saved -> "slow".equals(saved.getId())), anyString());
+            release.countDown();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+            then(outcomeWriter).should().record(argThat(saved -> "slow".equals(saved.getId())
+                    && saved.getStatus() == WebhookStatus.DELIVERED), eq(NODE));
+        }
+
+        @Test
+        void shouldCapInFlightDeliveriesPerHost() throws Exception {
+            // given
+            String slowUrl = "http://localhost:" + slowServer.getAddress().getPort() + "/slow";
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(dueEvent("a", slowUrl), dueEvent("b", slowUrl), dueEvent("c", slowUrl)))
+                    .willReturn(List.of(dueEvent("c", slowUrl)))
+                    .willReturn(List.of());
+
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 2, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+            then(repository).should().releaseClaims(argThat(released -> released.size() == 1
+                    && "c".equals(released.iterator().next().getId())), eq(NODE));
+            release.countDown();
+
+            // then: the third claim is handed back and claimed again as soon as the host frees up
+            then(outcomeWriter).should(timeout(2_000).times(3)).record(any(WebhookEvent.class), eq(NODE));
+            then(outcomeWriter).should(times(2)).record(argThat(saved -> !"c".equals(saved.getId())), eq(NODE));
+        }
+
+        @Test
+        void shouldClaimNoMoreThanFreeCapacity() throws Exception {
+            // given
+            String slowUrl = "http://localhost:" + slowServer.getAddress().getPort() + "/slow";
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(dueEvent("a", slowUrl)))
+                    .willReturn(List.of());
+
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 4, 2, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+            service.dispatchLoop();
+            release.countDown();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+
+            // then
+            then(repository).should().claimDue(eq(NODE), eq(WebhookStatus.PENDING), any(Instant.class), eq(Duration.ofMillis(60_000)), eq(4), anyCollection());
+            then(repository).should().claimDue(eq(NODE), eq(WebhookStatus.PENDING), any(Instant.class), eq(Duration.ofMillis(60_000)), eq(3), anyCollection());
+        }
+
+        @Test
+        void shouldSkipSaturatedTargetsWhenClaiming() throws Exception {
+            // given
+            String slowUrl = "http://localhost:" + slowServer.getAddress().getPort() + "/slow";
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(dueEvent("a", slowUrl), dueEvent("b", slowUrl)))
+                    .willReturn(List.of());
+
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 2, NODE, 60_000, 2, 10, 2, 3, 1);
+
+            // when: the first page fills the host, so the next poll must leave its events alone
+            service.dispatchLoop();
+            service.dispatchLoop();
+            release.countDown();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+
+            // then
+            then(repository).should().claimDue(eq(NODE), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), eq(2),
+                    argThat(excluded -> excluded.contains(slowUrl)));
+        }
+
+        @Test
+        void shouldRejectNonPositiveLimits() {
+            assertThrows(IllegalArgumentException.class, () -> new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 0, 2, NODE, 60_000, 100, 10, 2, 3, 1));
+        }
+    }
+
+    @Nested
+    @DisplayName("lanes")
+    class Lanes {
+
+        private HttpServer server;
+        private String url;
+
+        @BeforeEach
+        void startServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(0), 0);
+            server.createContext("/ok", new FixedStatusHandler(204));
+            server.start();
+            url = "http://localhost:" + server.getAddress().getPort() + "/ok";
+        }
+
+        @AfterEach
+        void stopServer() {
+            server.stop(0);
+        }
+
+        private WebhookEvent retryEvent(String id) {
+            WebhookEvent ev = dueEvent(id, url);
+            ev.setStatus(WebhookStatus.RETRY);
+            ev.setAttempts(3);
+            return ev;
+        }
+
+        @Test
+        void shouldClaimRetriesWithinTheirBudgetAndSplitOnceTheyQueue() throws Exception {
+            // given: retries keep coming back as full pages
+            given(repository.claimDue(anyString(), eq(WebhookStatus.RETRY), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(retryEvent("r1"), retryEvent("r2")))
+                    .willReturn(List.of());
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 8, 50, 1_000, 8, 8, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+
+            // then: first attempts may take every slot until retries queue up, then 3:1 of 8 (or what retries cannot use)
+            InOrder order = inOrder(repository);
+            order.verify(repository).claimDue(eq(NODE), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), eq(8), anyCollection());
+            order.verify(repository).claimDue(eq(NODE), eq(WebhookStatus.RETRY), any(Instant.class), any(Duration.class), eq(2), anyCollection());
+            order.verify(repository).claimDue(eq(NODE), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), eq(6), anyCollection());
+            then(repository).should(never()).claimDue(anyString(), eq(WebhookStatus.RETRY), any(Instant.class), any(Duration.class),
+                    intThat(limit -> limit > 2), anyCollection());
+            then(outcomeWriter).should(times(2)).record(argThat(saved -> saved.getStatus() == WebhookStatus.DELIVERED), eq(NODE));
+        }
+    }
+
+    @Nested
+    @DisplayName("paging")
+    class Paging {
+
+        private HttpServer server;
+        private String url;
+
+        @BeforeEach
+        void startServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(0), 0);
+            server.createContext("/ok", new FixedStatusHandler(204));
+            server.start();
+            url = "http://localhost:" + server.getAddress().getPort() + "/ok";
+        }
+
+        @AfterEach
+        void stopServer() {
+            server.stop(0);
+        }
+
+        @Test
+        void shouldFetchNextPageImmediatelyAfterFullPage() throws Exception {
+            // given
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(dueEvent("a", url), dueEvent("b", url)))
+                    .willReturn(List.of(dueEvent("c", url)));
+
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 8, NODE, 60_000, 2, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+
+            // then: a full page of 2 triggers a second claim, the partial page ends the loop
+            then(repository).should(times(2)).claimDue(eq(NODE), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), eq(2), anyCollection());
+            then(outcomeWriter).should(times(3)).record(any(WebhookEvent.class), eq(NODE));
+        }
+
+        @Test
+        void shouldStopWhenPageIsPartial() throws Exception {
+            // given
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(dueEvent("a", url)));
+
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 8, NODE, 60_000, 2, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+
+            // then
+            then(repository).should(times(1)).claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection());
+        }
+    }
+
+    @Nested
+    @DisplayName("payloads")
+    class Payloads {
+
+        private HttpServer server;
+        private final List<String> bodies = new CopyOnWriteArrayList<>();
+        private String url;
+
+        @BeforeEach
+        void startServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(0), 0);
+            server.createContext("/ok", exchange -> {
+                bodies.add(new String(exchange.getRequestBody().readAllBytes()));
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            });
+            server.start();
+            url = "http://localhost:" + server.getAddress().getPort() + "/ok";
+        }
+
+        @AfterEach
+        void stopServer() {
+            server.stop(0);
+        }
+
+        private WebhookEvent referencing(String id, String payloadId) {
+            WebhookEvent ev = dueEvent(id, url);
+            ev.setPayloadJson(null);
+            ev.setPayloadId(payloadId);
+            return ev;
+        }
+
+        @Test
+        void shouldLoadSharedPayloadOncePerPage() throws Exception {
+            // given
+            WebhookPayload payload = new WebhookPayload();
+            payload.setId("pl-1");
+            payload.setJson("{\"type\":\"payment.created\"}");
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(referencing("a", "pl-1"), referencing("b", "pl-1")));
+            given(payloadRepository.findAllById(any())).willReturn(List.of(payload));
+
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 8, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+
+            // then
+            then(payloadRepository).should(times(1)).findAllById(argThat(ids -> ids.iterator().next().equals("pl-1")));
+            assertEquals(List.of(payload.getJson(), payload.getJson()), bodies);
+            then(outcomeWriter).should(times(2)).record(argThat(saved -> saved.getStatus() == WebhookStatus.DELIVERED), eq(NODE));
+        }
+
+        @Test
+        void shouldRetryWhenPayloadIsMissing() throws Exception {
+            // given
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(referencing("a", "gone")));
+            given(payloadRepository.findAllById(any())).willReturn(List.of());
+
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 8, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+
+            // then
+            assertTrue(bodies.isEmpty());
+            then(outcomeWriter).should().record(argThat(saved -> saved.getStatus() == WebhookStatus.RETRY
+                    && saved.getLastError().contains("gone")), eq(NODE));
+        }
+    }
+
+    @Nested
+    @DisplayName("batched delivery")
+    class BatchedDelivery {
+
+        private HttpServer server;
+        private final List<String> bodies = new CopyOnWriteArrayList<>();
+        private final AtomicInteger status = new AtomicInteger(204);
+        private String url;
+
+        @BeforeEach
+        void startServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(0), 0);
+            server.createContext("/batch", exchange -> {
+                bodies.add(new String(exchange.getRequestBody().readAllBytes()));
+                exchange.sendResponseHeaders(status.get(), -1);
+                exchange.close();
+            });
+            server.start();
+            url = "http://localhost:" + server.getAddress().getPort() + "/batch";
+            WebhookRegistration registration = new WebhookRegistration();
+            registration.setEndpointUrl(url);
+            registration.setBatchSize(3);
+            registration.setBatchLingerMs(1_000);
+            given(registrationRepository.findByActiveTrue()).willReturn(List.of(registration));
+        }
+
+        @AfterEach
+        void stopServer() {
+            server.stop(0);
+        }
+
+        private WebhookEvent withPayload(String id, String json) {
+            WebhookEvent ev = dueEvent(id, url);
+            ev.setPayloadJson(json);
+            return ev;
+        }
+
+        @Test
+        void shouldSendDueAndLingeringEventsAsOneArray() throws Exception {
+            // given
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(withPayload("a", "{\"n\":1}")));
+            given(repository.claimPendingForTarget(eq(NODE), eq(url), any(Instant.class), any(Duration.class), eq(2)))
+                    .willReturn(List.of(withPayload("b", "{\"n\":2}"), withPayload("c", "{\"n\":3}")));
+
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 8, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+
+            // then
+            assertEquals(List.of("[{\"n\":1},{\"n\":2},{\"n\":3}]"), bodies);
+            then(outcomeWriter).should(times(3)).record(argThat(saved -> saved.getStatus() == WebhookStatus.DELIVERED), eq(NODE));
+        }
+
+        @Test
+        void shouldSplitIntoBatchesAndRetryEachTogether() throws Exception {
+            // given
+            status.set(503);
+            List<WebhookEvent> due = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                due.add(withPayload("e" + i, "{}"));
+            }
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(due);
+            given(repository.claimPendingForTarget(anyString(), anyString(), any(Instant.class), any(Duration.class), anyInt()))
+                    .willReturn(List.of());
+            List<WebhookEvent> recorded = new CopyOnWriteArrayList<>();
+            willAnswer(inv -> recorded.add(inv.getArgument(0))).given(outcomeWriter).record(any(), eq(NODE));
+
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 8, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+
+            // then: a batch of three and the remainder, each retried as a unit
+            then(repository).should().claimPendingForTarget(eq(NODE), eq(url), any(Instant.class), any(Duration.class), eq(2));
+            assertEquals(List.of("[{},{},{}]", "[{}]"), bodies.stream().sorted().toList());
+            assertEquals(4, recorded.size());
+            assertTrue(recorded.stream().allMatch(ev -> ev.getStatus() == WebhookStatus.RETRY && ev.getAttempts() == 1));
+            assertEquals(1, recorded.stream().filter(ev -> List.of("e0", "e1", "e2").contains(ev.getId()))
+                    .map(WebhookEvent::getNextAttemptAt).distinct().count());
+        }
+    }
+
+    @Nested
+    @DisplayName("circuit breaker")
+    class CircuitBreaker {
+
+        private HttpServer server;
+        private final AtomicInteger hits = new AtomicInteger();
+        private String url;
+
+        @BeforeEach
+        void startServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(0), 0);
+            server.createContext("/down", exchange -> {
+                hits.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            });
+            server.start();
+            url = "http://localhost:" + server.getAddress().getPort() + "/down";
+        }
+
+        @AfterEach
+        void stopServer() {
+            server.stop(0);
+        }
+
+        @Test
+        void shouldOpenAfterThresholdAndDeferTargetInBulk() throws Exception {
+            // given
+            breakers = new WebhookCircuitBreakers(2, 60_000);
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(dueEvent("a", url), dueEvent("b", url)))
+                    .willReturn(List.of(dueEvent("c", url)));
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 8, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+            service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+
+            // then: the second failure opens the circuit; the endpoint is not called again
+            assertEquals(WebhookCircuitBreakers.State.OPEN, breakers.state(url));
+            assertEquals(2, hits.get());
+            then(repository).should().deferTarget(eq(url), any(Instant.class));
+            then(repository).should().claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(),
+                    argThat(excluded -> excluded.contains(url)));
+        }
+
+        @Test
+        void shouldReleaseClaimsOfOpenTargetWithoutCallingIt() throws Exception {
+            // given
+            breakers = new WebhookCircuitBreakers(1, 60_000);
+            breakers.onFailure(url, Instant.now());
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(dueEvent("a", url)));
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 8, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+
+            // then
+            assertEquals(0, hits.get());
+            then(repository).should().releaseClaims(argThat(released -> released.size() == 1), eq(NODE));
+            then(outcomeWriter).shouldHaveNoInteractions();
+        }
+    }
+
+    @Nested
+    @DisplayName("Retry-After")
+    class RetryAfter {
+
+        private HttpServer server;
+        private final AtomicInteger hits = new AtomicInteger();
+        private String url;
+
+        @BeforeEach
+        void startServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(0), 0);
+            server.createContext("/throttled", exchange -> {
+                hits.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "120");
+                exchange.sendResponseHeaders(429, -1);
+                exchange.close();
+            });
+            server.start();
+            url = "http://localhost:" + server.getAddress().getPort() + "/throttled";
+        }
+
+        @AfterEach
+        void stopServer() {
+            server.stop(0);
+        }
+
+        @Test
+        void shouldRetryNoEarlierThanRetryAfterAndPauseTheHost() throws Exception {
+            // given
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(dueEvent("a", url)))
+                    .willReturn(List.of());
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 8, NODE, 60_000, 100, 10, 2, 3, 1);
+            Instant before = Instant.now();
+
+            // when
+            service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
+            service.dispatchLoop();
+
+            // then: the 1 s backoff ceiling is overridden, and the host is left alone meanwhile
+            then(outcomeWriter).should().record(argThat(saved -> saved.getStatus() == WebhookStatus.RETRY
+                    && !saved.getNextAttemptAt().isBefore(before.plusSeconds(120))), eq(NODE));
+            then(repository).should().deferTarget(eq(url), argThat(until -> !until.isBefore(before.plusSeconds(120))));
+            then(repository).should().claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(),
+                    argThat(excluded -> excluded.contains(url)));
+            assertEquals(1, hits.get());
+            service.shutdown();
+        }
+
+        @Test
+        void shouldParseDeltaSecondsAndHttpDates() {
+            Instant now = Instant.parse("2026-01-01T00:00:00Z");
+
+            assertEquals(now.plusSeconds(30), WebhookDispatcherService.parseRetryAfter("30", now));
+            assertEquals(Instant.parse("2026-01-01T00:02:00Z"),
+                    WebhookDispatcherService.parseRetryAfter("Thu, 01 Jan 2026 00:02:00 GMT", now));
+            assertEquals(now.plus(Duration.ofHours(1)), WebhookDispatcherService.parseRetryAfter("999999", now));
+            assertEquals(now.plus(Duration.ofHours(1)), WebhookDispatcherService.parseRetryAfter("9223372036854775807", now));
+            assertNull(WebhookDispatcherService.parseRetryAfter("Wed, 31 Dec 2025 23:00:00 GMT", now));
+            assertNull(WebhookDispatcherService.parseRetryAfter("0", now));
+            assertNull(WebhookDispatcherService.parseRetryAfter("soon", now));
+            assertNull(WebhookDispatcherService.parseRetryAfter(null, now));
+        }
+    }
+
+    @Nested
+    @DisplayName("retry wheel")
+    class RetryWheel {
+
+        private HttpServer server;
+        private final AtomicInteger hits = new AtomicInteger();
+        private String url;
+
+        @BeforeEach
+        void startServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(0), 0);
+            // Fails the first attempt only
+            server.createContext("/flaky", exchange -> {
+                exchange.sendResponseHeaders(hits.incrementAndGet() == 1 ? 503 : 204, -1);
+                exchange.close();
+            });
+            server.start();
+            url = "http://localhost:" + server.getAddress().getPort() + "/flaky";
+        }
+
+        @AfterEach
+        void stopServer() {
+            server.stop(0);
+        }
+
+        @Test
+        void shouldRetryAtDeadlineWithoutWaitingForSweep() throws Exception {
+            // given
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection()))
+                    .willReturn(List.of(dueEvent("a", url)));
+            given(repository.claimDueByIds(eq(NODE), eq(List.of("a")), any(Instant.class), any(Duration.class)))
+                    .willAnswer(inv -> {
+                        WebhookEvent retry = dueEvent("a", url);
+                        retry.setStatus(WebhookStatus.RETRY);
+                        retry.setAttempts(1);
+                        return List.of(retry);
+                    });
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 8, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.dispatchLoop();
+
+            // then: the second attempt happens once the 50 ms backoff elapses, flushing the first outcome before re-claiming
+            then(outcomeWriter).should(timeout(2_000)).record(argThat(saved -> saved.getStatus() == WebhookStatus.DELIVERED
+                    && saved.getAttempts() == 2), eq(NODE));
+            InOrder order = inOrder(outcomeWriter, repository);
+            order.verify(outcomeWriter).flush();
+            order.verify(repository).claimDueByIds(eq(NODE), eq(List.of("a")), any(Instant.class), any(Duration.class));
+            then(repository).should(times(1)).claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection());
+            assertEquals(2, hits.get());
+            service.shutdown();
+        }
+    }
+
+    @Nested
+    @DisplayName("hand-off")
+    class HandOff {
+
+        private HttpServer server;
+        private final List<String> bodies = new CopyOnWriteArrayList<>();
+        private String url;
+
+        @BeforeEach
+        void startServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(0), 0);
+            server.createContext("/ok", exchange -> {
+                bodies.add(new String(exchange.getRequestBody().readAllBytes()));
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            });
+            server.start();
+            url = "http://localhost:" + server.getAddress().getPort() + "/ok";
+        }
+
+        @AfterEach
+        void stopServer() {
+            server.stop(0);
+        }
+
+        private WebhookPayload payload() {
+            WebhookPayload payload = new WebhookPayload();
+            payload.setId("pl-1");
+            payload.setJson("{\"type\":\"payment.created\"}");
+            return payload;
+        }
+
+        private WebhookEvent enqueued(String id, Instant nextAttemptAt) {
+            WebhookEvent ev = dueEvent(id, url);
+            ev.setPayloadJson(null);
+            ev.setPayloadId("pl-1");
+            ev.setNextAttemptAt(nextAttemptAt);
+            return ev;
+        }
+
+        @Test
+        void shouldDeliverFreshEventsWithoutPollingOrReadingThePayload() throws Exception {
+            // given
+            WebhookEvent ev = enqueued("a", Instant.now());
+            given(repository.claimDueByIds(eq(NODE), eq(List.of("a")), any(Instant.class), any(Duration.class)))
+                    .willReturn(List.of(enqueued("a", ev.getNextAttemptAt())));
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 8, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.onEnqueued(new WebhookEventsEnqueued(List.of(ev), payload()));
+
+            // then
+            then(outcomeWriter).should(timeout(2_000)).record(argThat(saved -> saved.getStatus() == WebhookStatus.DELIVERED), eq(NODE));
+            assertEquals(List.of(payload().getJson()), bodies);
+            then(payloadRepository).shouldHaveNoInteractions();
+            then(repository).should(never()).claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection());
+        }
+
+        @Test
+        void shouldHoldLingeringEventsUntilTheirDeadline() throws Exception {
+            // given
+            Instant deadline = Instant.now().plusMillis(100);
+            WebhookEvent ev = enqueued("a", deadline);
+            given(repository.claimDueByIds(eq(NODE), eq(List.of("a")), any(Instant.class), any(Duration.class)))
+                    .willReturn(List.of(enqueued("a", deadline)));
+            given(payloadRepository.findAllById(any())).willReturn(List.of(payload()));
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 8, 8, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.onEnqueued(new WebhookEventsEnqueued(List.of(ev), payload()));
+
+            // then
+            then(repository).should(timeout(2_000)).claimDueByIds(eq(NODE), eq(List.of("a")),
+                    argThat(now -> !now.isBefore(deadline)), any(Duration.class));
+            then(outcomeWriter).should(timeout(2_000)).record(argThat(saved -> saved.getStatus() == WebhookStatus.DELIVERED), eq(NODE));
+        }
+    }
+
+    @Nested
+    @DisplayName("leases")
+    class Leases {
+
+        @Test
+        void shouldRecoverExpiredLeases() {
+            // given
+            given(repository.recoverExpiredLeases(any(Instant.class), anyInt())).willReturn(2L);
+            WebhookDispatcherService service = new WebhookDispatcherService(
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 4, 2, NODE, 60_000, 100, 10, 2, 3, 1);
+
+            // when
+            service.recoverExpiredLeases();
+
+            // then
+            then(repository).should().recoverExpiredLeases(any(Instant.class), eq(3));
+        }
+    }
+
     @Nested
     @DisplayName("dispatchLoop")
     class DispatchLoop {
@@ -85,7 +825,7 @@ class WebhookDispatcherServiceTest {
                 "b400,400,false",
                 "e500,500,false"
         })
-        void shouldHandleHttpStatuses(String path, int code, boolean delivered) {
+        void shouldHandleHttpStatuses(String path, int code, boolean delivered) throws Exception {
             // given
             WebhookEvent ev = new WebhookEvent();
             ev.setId("e1");
@@ -98,34 +838,44 @@ class WebhookDispatcherServiceTest {
 
             List<WebhookEvent> due = new ArrayList<>();
             due.add(ev);
-            given(repository.findByStatusInAndNextAttemptAtLessThanEqual(
-                    anyList(), any(Instant.class))).willReturn(due);
-            given(repository.save(any(WebhookEvent.class))).willAnswer(inv -> inv.getArgument(0));
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection())).willReturn(due);
 
             WebhookDispatcherService service = new WebhookDispatcherService(
-                    repository, httpClient,
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient,
                     true, // enabled
                     3,    // maxAttempts
                     50,   // baseBackoffMs
-                    1_000 // maxBackoffMs
+                    1_000, // maxBackoffMs
+                    4,    // concurrency
+                    2,    // maxPerHost
+                    NODE, // nodeId
+                    60_000, // leaseMs
+                    100,  // batchSize
+                    10,   // wheelTickMs
+                    2,    // retryConcurrency
+                    3,    // freshWeight
+                    1     // retryWeight
             );
 
             Instant before = Instant.now();
             // when
             service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
             Instant after = Instant.now();
 
             // then
-            then(repository).should().save(argThat(saved -> {
+            then(outcomeWriter).should().record(argThat(saved -> {
                 assertEquals("e1", saved.getId());
                 assertEquals(1, saved.getAttempts(), "attempt should increment");
                 if (delivered) {
                     assertEquals(WebhookStatus.DELIVERED, saved.getStatus());
                     assertNull(saved.getNextAttemptAt());
+                    assertNotNull(saved.getCompletedAt());
                     assertNull(saved.getLastError());
                 } else {
                     assertEquals(WebhookStatus.RETRY, saved.getStatus());
                     assertNotNull(saved.getNextAttemptAt());
+                    assertNull(saved.getCompletedAt());
                     assertTrue(saved.getNextAttemptAt().isAfter(before.minusMillis(1)));
                     assertTrue(saved.getNextAttemptAt().isBefore(after.plusSeconds(2)) || saved.getNextAttemptAt().isAfter(before),
                             "next attempt should be scheduled in the future");
@@ -134,11 +884,11 @@ class WebhookDispatcherServiceTest {
                 }
                 assertNotNull(saved.getLastAttemptAt());
                 return true;
-            }));
+            }), eq(NODE));
         }
 
         @Test
-        void shouldTreatNetworkErrorsAs599AndRetry() {
+        void shouldTreatNetworkErrorsAs599AndRetry() throws Exception {
             // given
             WebhookEvent ev = new WebhookEvent();
             ev.setId("e2");
@@ -150,27 +900,27 @@ class WebhookDispatcherServiceTest {
             ev.setCreatedAt(Instant.now().minusSeconds(5));
             ev.setNextAttemptAt(Instant.now().minusSeconds(1));
 
-            given(repository.findByStatusInAndNextAttemptAtLessThanEqual(anyList(), any())).willReturn(List.of(ev));
-            given(repository.save(any(WebhookEvent.class))).willAnswer(inv -> inv.getArgument(0));
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection())).willReturn(List.of(ev));
 
             WebhookDispatcherService service = new WebhookDispatcherService(
-                    repository, httpClient, true, 3, 50, 1_000);
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 50, 1_000, 4, 2, NODE, 60_000, 100, 10, 2, 3, 1);
 
             // when
             service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
 
             // then
-            then(repository).should().save(argThat(saved -> {
+            then(outcomeWriter).should().record(argThat(saved -> {
                 assertEquals(WebhookStatus.RETRY, saved.getStatus());
                 assertEquals(1, saved.getAttempts());
                 assertNotNull(saved.getNextAttemptAt());
                 assertTrue(saved.getLastError().contains("599"));
                 return true;
-            }));
+            }), eq(NODE));
         }
 
         @Test
-        void shouldMarkFailedWhenReachingMaxAttempts() {
+        void shouldMarkFailedWhenReachingMaxAttempts() throws Exception {
             // given
             WebhookEvent ev = new WebhookEvent();
             ev.setId("e3");
@@ -181,23 +931,24 @@ class WebhookDispatcherServiceTest {
             ev.setCreatedAt(Instant.now().minusSeconds(10));
             ev.setNextAttemptAt(Instant.now().minusSeconds(1));
 
-            given(repository.findByStatusInAndNextAttemptAtLessThanEqual(anyList(), any())).willReturn(List.of(ev));
-            given(repository.save(any(WebhookEvent.class))).willAnswer(inv -> inv.getArgument(0));
+            given(repository.claimDue(anyString(), eq(WebhookStatus.PENDING), any(Instant.class), any(Duration.class), anyInt(), anyCollection())).willReturn(List.of(ev));
 
             WebhookDispatcherService service = new WebhookDispatcherService(
-                    repository, httpClient, true, 3, 10, 100);
+                    repository, payloadRepository, outcomeWriter, breakers, registry, httpClient, true, 3, 10, 100, 4, 2, NODE, 60_000, 100, 10, 2, 3, 1);
 
             // when
             service.dispatchLoop();
+            assertTrue(service.awaitIdle(Duration.ofSeconds(5)));
 
             // then
-            then(repository).should().save(argThat(saved -> {
+            then(outcomeWriter).should().record(argThat(saved -> {
                 assertEquals(3, saved.getAttempts());
                 assertEquals(WebhookStatus.FAILED, saved.getStatus());
                 assertNull(saved.getNextAttemptAt());
+                assertNotNull(saved.getCompletedAt());
                 assertNotNull(saved.getLastError());
                 return true;
-            }));
+            }), eq(NODE));
         }
     }
 }
@@ -0,0 +1,88 @@
+package com.example.payment.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebhookHostLimiterTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    void shouldHalveOnOverloadOncePerCongestionEvent() {
+        // given: four deliveries sent before the first overload answer
+        WebhookHostLimiter limiter = new WebhookHostLimiter(8);
+
+        // when
+        limiter.onOverload(0, 10 * MS);
+        limiter.onOverload(1 * MS, 11 * MS);
+        limiter.onOverload(2 * MS, 12 * MS);
+
+        // then
+        assertEquals(4, limiter.limit());
+
+        // when: a delivery sent after the cut is overloaded as well
+        limiter.onOverload(20 * MS, 30 * MS);
+
+        // then
+        assertEquals(2, limiter.limit());
+    }
+
+    @Test
+    void shouldGrowAdditivelyUpToTheMaximum() {
+        // given
+        WebhookHostLimiter limiter = new WebhookHostLimiter(4);
+        limiter.onOverload(0, MS);
+        limiter.onOverload(2 * MS, 3 * MS);
+        assertEquals(1, limiter.limit());
+
+        // when: one success per unit of the current limit raises it by one
+        long t = 10 * MS;
+        limiter.onSuccess(t, t + MS);
+        assertEquals(2, limiter.limit());
+        for (int i = 0; i < 100; i++) {
+            t += 2 * MS;
+            limiter.onSuccess(t, t + MS);
+        }
+
+        // then
+        assertEquals(4, limiter.limit());
+    }
+
+    @Test
+    void shouldShrinkWhenLatencyRisesWellAboveTheMinimum() {
+        // given
+        WebhookHostLimiter limiter = new WebhookHostLimiter(10);
+        limiter.onSuccess(0, 10 * MS);
+
+        // when: a little slower is fine, several times slower is not
+        limiter.onSuccess(20 * MS, 35 * MS);
+        assertEquals(10, limiter.limit());
+        limiter.onSuccess(40 * MS, 240 * MS);
+
+        // then
+        assertEquals(9, limiter.limit());
+    }
+
+    @Test
+    void shouldRefuseBeyondLimitAndWhilePaused() {
+        // given
+        WebhookHostLimiter limiter = new WebhookHostLimiter(2);
+        Instant now = Instant.now();
+
+        // when / then
+        assertTrue(limiter.tryAcquire(now));
+        assertTrue(limiter.tryAcquire(now));
+        assertFalse(limiter.tryAcquire(now));
+        limiter.release();
+        limiter.release();
+
+        assertTrue(limiter.pauseUntil(now.plusSeconds(30)));
+        assertFalse(limiter.pauseUntil(now.plusSeconds(10)));
+        assertTrue(limiter.saturated(now));
+        assertFalse(limiter.tryAcquire(now.plusSeconds(29)));
+        assertTrue(limiter.tryAcquire(now.plusSeconds(30)));
+    }
+}
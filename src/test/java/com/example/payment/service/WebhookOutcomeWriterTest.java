@@ -0,0 +1,110 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookStatus;
+import com.example.payment.repository.WebhookEventRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+class WebhookOutcomeWriterTest {
+
+    private final WebhookEventRepository repository = mock(WebhookEventRepository.class);
+
+    private static WebhookEvent delivered(String id) {
+        WebhookEvent ev = new WebhookEvent();
+        ev.setId(id);
+        ev.setStatus(WebhookStatus.DELIVERED);
+        ev.setAttempts(1);
+        return ev;
+    }
+
+    @Nested
+    @DisplayName("record")
+    class Record {
+        @Test
+        void shouldBufferBelowFlushSize() {
+            // given
+            WebhookOutcomeWriter writer = new WebhookOutcomeWriter(repository, 3);
+
+            // when
+            writer.record(delivered("a"), "n1");
+            writer.record(delivered("b"), "n1");
+
+            // then
+            then(repository).shouldHaveNoInteractions();
+            assertEquals(2, writer.pending());
+        }
+
+        @Test
+        void shouldFlushInOneBulkWriteWhenSizeReached() {
+            // given
+            given(repository.completeAttempts(anyList(), anyString())).willAnswer(inv -> (long) ((List<?>) inv.getArgument(0)).size());
+            WebhookOutcomeWriter writer = new WebhookOutcomeWriter(repository, 3);
+
+            // when
+            writer.record(delivered("a"), "n1");
+            writer.record(delivered("b"), "n1");
+            writer.record(delivered("c"), "n1");
+
+            // then
+            then(repository).should().completeAttempts(argThat(events -> events.size() == 3), eq("n1"));
+            assertEquals(0, writer.pending());
+        }
+
+        @Test
+        void shouldRejectNonPositiveFlushSize() {
+            assertThrows(IllegalArgumentException.class, () -> new WebhookOutcomeWriter(repository, 0));
+        }
+    }
+
+    @Nested
+    @DisplayName("flush")
+    class Flush {
+        @Test
+        void shouldWriteEverythingPendingInChunks() {
+            // given
+            given(repository.completeAttempts(anyList(), anyString())).willReturn(2L);
+            WebhookOutcomeWriter writer = new WebhookOutcomeWriter(repository, 2);
+            writer.record(delivered("a"), "n1");
+
+            // when
+            writer.flush();
+
+            // then
+            then(repository).should().completeAttempts(argThat(events -> events.size() == 1
+                    && "a".equals(events.getFirst().getId())), eq("n1"));
+            assertEquals(0, writer.pending());
+        }
+
+        @Test
+        void shouldFlushOnShutdown() {
+            // given
+            WebhookOutcomeWriter writer = new WebhookOutcomeWriter(repository, 100);
+            writer.record(delivered("a"), "n1");
+
+            // when
+            writer.shutdown();
+
+            // then
+            then(repository).should().completeAttempts(anyList(), eq("n1"));
+        }
+
+        @Test
+        void shouldSurviveWriteFailures() {
+            // given
+            given(repository.completeAttempts(anyList(), anyString())).willThrow(new RuntimeException("mongo down"));
+            WebhookOutcomeWriter writer = new WebhookOutcomeWriter(repository, 100);
+            writer.record(delivered("a"), "n1");
+
+            // when/then
+            assertDoesNotThrow(writer::flush);
+            assertEquals(0, writer.pending());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.WebhookRegistration;
+import com.example.payment.repository.WebhookRegistrationRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+class WebhookRegistryTest {
+
+    private final WebhookRegistrationRepository repository = mock(WebhookRegistrationRepository.class);
+    private final WebhookRegistry registry = new WebhookRegistry(repository);
+
+    private static WebhookRegistration registration(String url, boolean active) {
+        WebhookRegistration w = new WebhookRegistration();
+        w.setEndpointUrl(url);
+        w.setActive(active);
+        return w;
+    }
+
+    @Nested
+    @DisplayName("activeRegistrations")
+    class ActiveRegistrations {
+        @Test
+        void shouldLoadOnceAndServeFromCache() {
+            // given
+            given(repository.findByActiveTrue()).willReturn(List.of(registration("https://a", true)));
+
+            // when
+            registry.activeRegistrations();
+            registry.activeRegistrations();
+            List<WebhookRegistration> result = registry.activeRegistrations();
+
+            // then
+            assertEquals(1, result.size());
+            then(repository).should(times(1)).findByActiveTrue();
+            WebhookRegistry.Stats stats = registry.stats();
+            assertEquals(2, stats.hits());
+            assertEquals(1, stats.misses());
+            assertEquals(1, stats.size());
+            assertNotNull(stats.lastRefreshAt());
+        }
+
+        @Test
+        void shouldNotCountLookupsByEndpoint() {
+            // given
+            given(repository.findByActiveTrue()).willReturn(List.of(registration("https://a", true)));
+
+            // when
+            registry.find("https://a");
+            registry.find("https://b");
+            registry.activeRegistrations();
+
+            // then
+            then(repository).should(times(1)).findByActiveTrue();
+            WebhookRegistry.Stats stats = registry.stats();
+            assertEquals(1, stats.hits());
+            assertEquals(0, stats.misses());
+        }
+
+        @Test
+        void shouldPickUpChangesFromOtherNodesOnRefresh() {
+            // given
+            given(repository.findByActiveTrue())
+                    .willReturn(List.of(registration("https://a", true)))
+                    .willReturn(List.of(registration("https://a", true), registration("https://b", true)));
+            registry.activeRegistrations();
+
+            // when
+            registry.refresh();
+
+            // then
+            assertEquals(2, registry.activeRegistrations().size());
+        }
+    }
+
+    @Nested
+    @DisplayName("put")
+    class Put {
+        @Test
+        void shouldApplyLocalRegistrationImmediately() {
+            // given
+            given(repository.findByActiveTrue()).willReturn(List.of(registration("https://a", true)));
+            registry.activeRegistrations();
+
+            // when
+            registry.put(registration("https://b", true));
+            registry.put(registration("https://a", false));
+
+            // then
+            List<WebhookRegistration> result = registry.activeRegistrations();
+            assertEquals(List.of("https://b"), result.stream().map(WebhookRegistration::getEndpointUrl).toList());
+            assertNotNull(registry.find("https://b"));
+            assertNull(registry.find("https://a"));
+            then(repository).should(times(1)).findByActiveTrue();
+        }
+
+        @Test
+        void shouldReloadWhenRegistrationRacesWithRefresh() {
+            // given: a registration lands while the refresh query is running
+            given(repository.findByActiveTrue())
+                    .willAnswer(inv -> {
+                        registry.put(registration("https://b", true));
+                        return List.of(registration("https://a", true));
+                    })
+                    .willReturn(List.of(registration("https://a", true), registration("https://b", true)));
+
+            // when
+            List<WebhookRegistration> result = registry.refresh();
+
+            // then: the stale result is discarded and the refresh redone
+            assertEquals(2, result.size());
+            then(repository).should(times(2)).findByActiveTrue();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookStatus;
+import com.example.payment.repository.WebhookEventRepository;
+import com.example.payment.repository.WebhookEventRepositoryCustom.DeadLetterFilter;
+import com.example.payment.repository.WebhookEventRepositoryCustom.DueBacklog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+class WebhookReplayServiceTest {
+
+    private static final DeadLetterFilter ALL = new DeadLetterFilter(null, null, null);
+
+    private final WebhookEventRepository repository = mock(WebhookEventRepository.class);
+    private final WebhookDispatcherService dispatcher = mock(WebhookDispatcherService.class);
+    private final WebhookReplayService service = new WebhookReplayService(repository, dispatcher, 1_000, 2, 10, 5);
+
+    @AfterEach
+    void shutdown() {
+        service.shutdown();
+    }
+
+    private static WebhookEvent failed(String id) {
+        WebhookEvent ev = new WebhookEvent();
+        ev.setId(id);
+        ev.setTargetUrl("https://example.com/hook");
+        ev.setStatus(WebhookStatus.FAILED);
+        ev.setAttempts(8);
+        ev.setLastError("HTTP 500");
+        return ev;
+    }
+
+    private WebhookReplayService.Progress awaitFinished(String id) throws InterruptedException {
+        Instant deadline = Instant.now().plusSeconds(5);
+        WebhookReplayService.Progress progress = service.progress(id);
+        while (progress.state() == WebhookReplayService.State.RUNNING && Instant.now().isBefore(deadline)) {
+            Thread.sleep(5);
+            progress = service.progress(id);
+        }
+        return progress;
+    }
+
+    @Nested
+    @DisplayName("deadLetters")
+    class DeadLetters {
+        @Test
+        void shouldReturnCursorOnlyForFullPages() {
+            // given
+            given(repository.findDeadLetters(ALL, null, 2)).willReturn(List.of(failed("a"), failed("b")));
+            given(repository.findDeadLetters(ALL, "b", 2)).willReturn(List.of(failed("c")));
+
+            // when
+            WebhookReplayService.DeadLetterPage first = service.deadLetters(ALL, null, 2);
+            WebhookReplayService.DeadLetterPage last = service.deadLetters(ALL, first.nextAfter(), 2);
+
+            // then
+            assertEquals("b", first.nextAfter());
+            assertEquals("HTTP 500", first.items().getFirst().lastError());
+            assertEquals(List.of("c"), last.items().stream().map(WebhookReplayService.DeadLetter::id).toList());
+            assertNull(last.nextAfter());
+        }
+    }
+
+    @Nested
+    @DisplayName("startReplay")
+    class StartReplay {
+        @Test
+        void shouldRequeuePageByPageAndHandEventsToDispatcher() throws Exception {
+            // given: page size 2
+            given(repository.dueBacklog(eq(WebhookStatus.RETRY), any(Instant.class))).willReturn(new DueBacklog(0, null));
+            given(repository.countDeadLetters(ALL)).willReturn(3L);
+            given(repository.findDeadLetters(ALL, null, 2)).willReturn(List.of(failed("a"), failed("b")));
+            given(repository.findDeadLetters(ALL, "b", 2)).willReturn(List.of(failed("c")));
+            given(repository.requeueDeadLetters(anyCollection(), any(Instant.class)))
+                    .willAnswer(inv -> (long) inv.<List<?>>getArgument(0).size());
+
+            // when
+            WebhookReplayService.Progress started = service.startReplay(ALL, null);
+            WebhookReplayService.Progress done = awaitFinished(started.id());
+
+            // then
+            assertEquals(WebhookReplayService.State.COMPLETED, done.state());
+            assertEquals(3, done.total());
+            assertEquals(3, done.requeued());
+            assertNotNull(done.finishedAt());
+            then(dispatcher).should().onRequeued(List.of("a", "b"));
+            then(dispatcher).should().onRequeued(List.of("c"));
+        }
+
+        @Test
+        void shouldPauseWhileRetryBacklogIsAboveLimit() throws Exception {
+            // given: max backlog 10
+            given(repository.dueBacklog(eq(WebhookStatus.RETRY), any(Instant.class)))
+                    .willReturn(new DueBacklog(50, Instant.now()))
+                    .willReturn(new DueBacklog(50, Instant.now()))
+                    .willReturn(new DueBacklog(3, Instant.now()));
+            given(repository.findDeadLetters(ALL, null, 2)).willReturn(List.of(failed("a")));
+
+            // when
+            WebhookReplayService.Progress done = awaitFinished(service.startReplay(ALL, null).id());
+
+            // then
+            assertEquals(WebhookReplayService.State.COMPLETED, done.state());
+            then(repository).should(times(3)).dueBacklog(eq(WebhookStatus.RETRY), any(Instant.class));
+            then(repository).should().requeueDeadLetters(eq(List.of("a")), any(Instant.class));
+        }
+
+        @Test
+        void shouldRefuseSecondReplayAndStopWhenCancelled() throws Exception {
+            // given: the backlog never drains
+            given(repository.dueBacklog(eq(WebhookStatus.RETRY), any(Instant.class))).willReturn(new DueBacklog(50, Instant.now()));
+            WebhookReplayService.Progress started = service.startReplay(ALL, 10);
+
+            // when
+            assertThrows(ConflictException.class, () -> service.startReplay(ALL, null));
+            service.cancel(started.id());
+            WebhookReplayService.Progress done = awaitFinished(started.id());
+
+            // then
+            assertEquals(WebhookReplayService.State.CANCELLED, done.state());
+            assertEquals(10, done.ratePerSecond());
+            then(repository).should(never()).requeueDeadLetters(anyCollection(), any(Instant.class));
+            assertNull(service.progress("unknown"));
+            assertEquals(1, service.replays().size());
+        }
+    }
+
+    @Test
+    void shouldPaceReplayToItsRate() throws Exception {
+        // given: 2 events per second in pages of 2 takes about a second per page
+        given(repository.dueBacklog(eq(WebhookStatus.RETRY), any(Instant.class))).willReturn(new DueBacklog(0, null));
+        given(repository.findDeadLetters(eq(ALL), any(), eq(2))).willReturn(List.of(failed("a"), failed("b")));
+
+        // when
+        WebhookReplayService.Progress started = service.startReplay(ALL, 2);
+        Thread.sleep(300);
+
+        // then
+        then(repository).should(times(1)).findDeadLetters(eq(ALL), any(), eq(2));
+        service.cancel(started.id());
+    }
+}
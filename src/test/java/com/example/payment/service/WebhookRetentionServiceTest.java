@@ -0,0 +1,175 @@
+package com.example.payment.service;
+
+import com.example.payment.domain.WebhookEvent;
+import com.example.payment.domain.WebhookPayload;
+import com.example.payment.domain.WebhookStatus;
+import com.example.payment.repository.WebhookEventRepository;
+import com.example.payment.repository.WebhookPayloadRepository;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.domain.Limit;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+class WebhookRetentionServiceTest {
+
+    private static final long DAY_MS = 86_400_000L;
+
+    private final WebhookEventRepository repository = mock(WebhookEventRepository.class);
+    private final WebhookPayloadRepository payloadRepository = mock(WebhookPayloadRepository.class);
+
+    private WebhookRetentionService service(int batchSize, int maxBatches, boolean archive) {
+        return new WebhookRetentionService(repository, payloadRepository, true, DAY_MS, 30 * DAY_MS, batchSize, maxBatches, archive);
+    }
+
+    private static WebhookEvent completed(String id) {
+        WebhookEvent ev = new WebhookEvent();
+        ev.setId(id);
+        ev.setStatus(WebhookStatus.DELIVERED);
+        ev.setCompletedAt(Instant.now().minusSeconds(2 * DAY_MS / 1000));
+        return ev;
+    }
+
+    private static WebhookPayload payload(String id) {
+        WebhookPayload p = new WebhookPayload();
+        p.setId(id);
+        return p;
+    }
+
+    @Nested
+    @DisplayName("events")
+    class Events {
+        @Test
+        void shouldDeleteExpiredEventsInBatchesWithRetentionPerStatus() {
+            // given
+            given(repository.findCompletedBefore(eq(WebhookStatus.DELIVERED), any(Instant.class), eq(2)))
+                    .willReturn(List.of(completed("a"), completed("b")))
+                    .willReturn(List.of(completed("c")));
+            Instant before = Instant.now();
+
+            // when
+            service(2, 10, false).purge();
+
+            // then
+            then(repository).should().deleteByIds(List.of("a", "b"));
+            then(repository).should().deleteByIds(List.of("c"));
+            then(repository).should(times(2)).findCompletedBefore(eq(WebhookStatus.DELIVERED),
+                    argThat(cutoff -> !cutoff.isAfter(before.minusMillis(DAY_MS).plusSeconds(1))), eq(2));
+            then(repository).should().findCompletedBefore(eq(WebhookStatus.FAILED),
+                    argThat(cutoff -> cutoff.isBefore(before.minusMillis(29 * DAY_MS))), eq(2));
+            then(repository).should(never()).archive(anyList());
+        }
+
+        @Test
+        void shouldArchiveBeforeDeleting() {
+            // given
+            given(repository.findCompletedBefore(eq(WebhookStatus.DELIVERED), any(Instant.class), anyInt()))
+                    .willReturn(List.of(completed("a")));
+
+            // when
+            service(10, 10, true).purge();
+
+            // then
+            InOrder order = inOrder(repository);
+            order.verify(repository).archive(argThat(events -> events.size() == 1));
+            order.verify(repository).deleteByIds(List.of("a"));
+        }
+
+        @Test
+        void shouldStopAfterMaxBatchesPerRun() {
+            // given: there is always a full batch
+            given(repository.findCompletedBefore(eq(WebhookStatus.DELIVERED), any(Instant.class), eq(1)))
+                    .willReturn(List.of(completed("a")));
+
+            // when
+            service(1, 3, false).purge();
+
+            // then
+            then(repository).should(times(3)).deleteByIds(List.of("a"));
+        }
+
+        @Test
+        void shouldBackfillCompletedAtOnlyOnce() {
+            // given
+            WebhookRetentionService service = service(10, 10, false);
+
+            // when
+            service.purge();
+            service.purge();
+
+            // then
+            then(repository).should(times(1)).backfillCompletedAt(any(Instant.class));
+        }
+    }
+
+    @Nested
+    @DisplayName("payloads")
+    class Payloads {
+        @Test
+        void shouldDeleteOnlyPayloadsNoEventReferences() {
+            // given
+            String kept = new ObjectId().toHexString();
+            String orphan = new ObjectId().toHexString();
+            given(payloadRepository.findIdsBetween(any(ObjectId.class), any(ObjectId.class), any(Limit.class)))
+                    .willReturn(List.of(payload(kept), payload(orphan)));
+            given(repository.referencedPayloadIds(List.of(kept, orphan))).willReturn(Set.of(kept));
+
+            // when
+            service(10, 10, false).purge();
+
+            // then
+            then(payloadRepository).should().deleteAllById(Set.of(orphan));
+        }
+
+        @Test
+        void shouldResumePayloadScanWhereThePreviousRunStopped() {
+            // given: the first run's pages are all still referenced, the orphan lies beyond them
+            List<String> ids = List.of(new ObjectId().toHexString(), new ObjectId().toHexString(),
+                    new ObjectId().toHexString(), new ObjectId().toHexString());
+            String orphan = new ObjectId().toHexString();
+            given(payloadRepository.findIdsBetween(any(ObjectId.class), any(ObjectId.class), any(Limit.class)))
+                    .willReturn(List.of(payload(ids.get(0)), payload(ids.get(1))))
+                    .willReturn(List.of(payload(ids.get(2)), payload(ids.get(3))))
+                    .willReturn(List.of(payload(orphan)))
+                    .willReturn(List.of(payload(ids.get(0)), payload(ids.get(1))));
+            given(repository.referencedPayloadIds(anyList())).willAnswer(inv -> {
+                List<String> page = inv.getArgument(0);
+                return page.contains(orphan) ? Set.of() : Set.copyOf(page);
+            });
+            WebhookRetentionService service = service(2, 2, false);
+
+            // when
+            service.purge();
+            service.purge();
+            service.purge();
+
+            // then: the second run continues after the first; the third starts over
+            then(payloadRepository).should().deleteAllById(Set.of(orphan));
+            InOrder inOrder = inOrder(payloadRepository);
+            ObjectId floor = WebhookRetentionService.idFloor(Instant.EPOCH);
+            inOrder.verify(payloadRepository).findIdsBetween(eq(floor), any(ObjectId.class), any(Limit.class));
+            inOrder.verify(payloadRepository).findIdsBetween(eq(new ObjectId(ids.get(1))), any(ObjectId.class), any(Limit.class));
+            inOrder.verify(payloadRepository).findIdsBetween(eq(new ObjectId(ids.get(3))), any(ObjectId.class), any(Limit.class));
+            inOrder.verify(payloadRepository).findIdsBetween(eq(floor), any(ObjectId.class), any(Limit.class));
+        }
+
+        @Test
+        void shouldBoundPayloadScanByCreationTime() {
+            Instant time = Instant.parse("2026-01-01T00:00:00Z");
+
+            ObjectId floor = WebhookRetentionService.idFloor(time);
+
+            assertEquals(time, floor.getDate().toInstant());
+            assertTrue(floor.compareTo(new ObjectId(Date.from(time))) <= 0);
+        }
+    }
+}
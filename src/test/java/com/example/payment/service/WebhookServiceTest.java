@@ -19,7 +19,8 @@ import static org.mockito.BDDMockito.*;
 class WebhookServiceTest {
 
     private final WebhookRegistrationRepository repository = mock(WebhookRegistrationRepository.class);
-    private final WebhookService service = new WebhookService(repository);
+    private final WebhookRegistry registry = mock(WebhookRegistry.class);
+    private final WebhookService service = new WebhookService(repository, registry);
 
     @Nested
     @DisplayName("validate url and register")
@@ -58,6 +59,7 @@ class WebhookServiceTest {
             assertTrue(arg.isActive());
             assertNotNull(arg.getCreatedAt());
             assertEquals("id-1", saved.getId());
+            then(registry).should().put(saved);
         }
 
         @Test
@@ -82,6 +84,31 @@ class WebhookServiceTest {
             assertEquals("abc", result.getId());
             assertTrue(result.isActive(), "should re-activate existing");
             then(repository).should().save(existing);
+            then(registry).should().put(existing);
+        }
+
+        @Test
+        void shouldKeepBatchSettingsUnlessGiven() {
+            // given
+            String url = "https://a.b/c";
+            given(repository.existsByEndpointUrl(url)).willReturn(true);
+            WebhookRegistration existing = new WebhookRegistration();
+            existing.setId("abc");
+            existing.setEndpointUrl(url);
+            existing.setBatchSize(20);
+            existing.setBatchLingerMs(1_000);
+            given(repository.findAll()).willReturn(List.of(existing));
+            given(repository.save(any(WebhookRegistration.class))).willAnswer(inv -> inv.getArgument(0));
+
+            // when
+            WebhookRegistration unchanged = service.register(url, null, null);
+            int keptSize = unchanged.getBatchSize();
+            WebhookRegistration updated = service.register(url, 100, null);
+
+            // then
+            assertEquals(20, keptSize);
+            assertEquals(100, updated.getBatchSize());
+            assertEquals(1_000, updated.getBatchLingerMs());
         }
     }
 }